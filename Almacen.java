@@ -0,0 +1,129 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Motor de almacenamiento de dispositivos usado por {@link RepositorioDispositivos}.
+ *
+ * <p>Implementaciones disponibles: {@link AlmacenDispositivos} (registro de solo escritura al
+ * final, el modo por defecto) y {@link AlmacenMapeado} (ranuras de tamaño fijo en un archivo
+ * mapeado en memoria).</p>
+ *
+ * @author Frxnker
+ */
+public interface Almacen {
+
+    /**
+     * Guarda un dispositivo, sustituyendo la versión anterior si existe.
+     *
+     * @param d Dispositivo a guardar.
+     * @return true si la operación fue exitosa, false en caso contrario.
+     */
+    boolean guardar(Dispositivo d);
+
+    /**
+     * Invierte el estado (encendido/apagado) de un dispositivo. La lectura del estado actual y la
+     * escritura del nuevo se hacen con el archivo bloqueado, así que no se pierden cambios hechos
+     * a la vez por otros hilos o procesos.
+     *
+     * @param id ID del dispositivo.
+     * @return El nuevo estado, o null si el dispositivo no existe, está borrado o hay un error.
+     */
+    Boolean alternarEstado(int id);
+
+    /**
+     * Marca un dispositivo como borrado.
+     *
+     * @param id ID del dispositivo.
+     * @return true si el dispositivo existía y se marcó, false en caso contrario.
+     */
+    boolean borrar(int id);
+
+    /**
+     * Carga un dispositivo por su ID.
+     *
+     * @param id ID del dispositivo.
+     * @return El dispositivo, o null si no existe o está borrado.
+     */
+    Dispositivo cargar(int id);
+
+    /**
+     * Carga todos los dispositivos, incluidos los marcados como borrados.
+     *
+     * @return Lista de dispositivos, vacía si no hay datos o hay un error.
+     */
+    ArrayList<Dispositivo> cargarTodos();
+
+    /**
+     * Devuelve el mayor ID guardado, incluidos los dispositivos borrados. Los IDs fuera de rango
+     * (de versiones que no los limitaban o de un {@link GeneradorIds#ID_MAXIMO} mayor) no se
+     * cuentan, para que el generador no dé por agotados los IDs por ellos.
+     *
+     * @return El mayor ID válido, o -1 si no hay ninguno.
+     */
+    int idMaximo();
+
+    /**
+     * Recorre todos los dispositivos, incluidos los borrados, decodificándolos a medida que se
+     * consumen en lugar de cargarlos todos en memoria. El flujo debe cerrarse al terminar
+     * (por ejemplo con try-with-resources), ya que puede mantener el archivo abierto.
+     *
+     * @param filtro Filtro sobre los campos fijos que se evalúa antes de decodificar cada
+     *               dispositivo, o null para recorrerlos todos.
+     * @return Flujo de dispositivos que pasan el filtro.
+     */
+    Stream<Dispositivo> recorrer(FiltroCabecera filtro);
+
+    /**
+     * Cambia la política de durabilidad de las escrituras.
+     *
+     * @param durabilidad La nueva política.
+     */
+    void setDurabilidad(Durabilidad durabilidad);
+
+    /**
+     * Escribe en disco los cambios pendientes según la política de durabilidad.
+     *
+     * @return true si no queda nada pendiente, false si hubo un error al escribir.
+     */
+    boolean vaciar();
+
+    /**
+     * Compacta el almacén en el hilo actual, liberando el espacio de las versiones antiguas y de
+     * los dispositivos borrados.
+     *
+     * @return true si se compactó o no había nada que compactar, false si el almacén no compacta,
+     *         ya hay una compactación en curso o hubo un error.
+     */
+    boolean compactar();
+
+    /**
+     * Devuelve las estadísticas de las compactaciones hechas.
+     *
+     * @return Las estadísticas.
+     */
+    EstadisticasCompactacion estadisticasCompactacion();
+
+    /**
+     * Devuelve el tamaño en disco, los bytes leídos y escritos, el número de dispositivos y
+     * registros y el número de errores de entrada/salida del almacén.
+     *
+     * @return Las estadísticas.
+     */
+    EstadisticasAlmacen estadisticas();
+
+    /**
+     * Comprueba si otro proceso ha modificado los datos desde el último acceso de este almacén.
+     * En ese caso descarta su estado en memoria, igual que {@link #invalidar()}. Permite al
+     * repositorio saber si su caché sigue siendo válida.
+     *
+     * @return true si los datos han cambiado desde fuera, false en caso contrario.
+     */
+    boolean comprobarCambiosExternos();
+
+    /**
+     * Descarta el estado en memoria para que se vuelva a leer del archivo en el próximo acceso.
+     */
+    void invalidar();
+}
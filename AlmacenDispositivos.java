@@ -0,0 +1,1402 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Almacén de dispositivos basado en un registro de solo escritura al final (append-only).
+ *
+ * <p>Cada llamada a {@link #guardar(Dispositivo)} o {@link #borrar(int)} añade un único registro
+ * al final del archivo, por lo que el coste de una escritura depende del tamaño del registro y no
+ * del número de dispositivos almacenados. Al cargar, el registro se reproduce en orden y la última
+ * versión de cada ID es la que prevalece.</p>
+ *
+ * <p>Compactación: se considera basura todo registro que no sea la última versión de un
+ * dispositivo no borrado (versiones antiguas, marcas de borrado y dispositivos borrados). Cuando
+ * la basura llega a {@code dispositivos.compactacion.minimo} registros (1000 por defecto) y a la
+ * proporción {@code dispositivos.compactacion.proporcion} del archivo (0.5 por defecto), se
+ * programa una compactación en segundo plano que reescribe solo los dispositivos vigentes, de
+ * modo que los borrados desaparecen del archivo. La copia se hace sin el cerrojo del almacén, así
+ * que las lecturas y escrituras continúan mientras tanto; al final se bloquea brevemente para
+ * copiar los registros añadidos durante la copia y sustituir el archivo. Ver
+ * {@link #estadisticasCompactacion()}.</p>
+ *
+ * <p>Al abrir el archivo se construye un índice en memoria de ID a posición del último registro,
+ * recorriendo solo las cabeceras, de forma que {@link #cargar(int)} lee y decodifica únicamente
+ * el registro buscado.</p>
+ *
+ * <p>Índice guardado: con al menos {@code dispositivos.indice.minimo} registros (10000 por
+ * defecto), el índice y la tabla de cadenas se guardan en {@code .indice} tras construirlos
+ * recorriendo el archivo, tras cada compactación y al cerrar la JVM. Al abrir, si el
+ * {@code .indice} corresponde al archivo (su CRC32 es correcto y los últimos bytes que refleja
+ * coinciden), se lee en lugar de recorrer el archivo y solo se indexan los registros añadidos
+ * después; si no, se ignora y se reconstruye.</p>
+ *
+ * <p>Carga completa: cada registro se decodifica por separado (con la tabla de cadenas, que ya
+ * está en memoria), así que {@link #cargarTodos()} reparte los registros vigentes, ordenados por
+ * posición, en segmentos de {@code dispositivos.carga.segmento} registros (16384 por defecto) que
+ * se leen con una sola lectura y se decodifican en paralelo en el {@link ForkJoinPool} común. A
+ * partir de {@code dispositivos.carga.paralela.minimo} dispositivos (10000 por defecto); por
+ * debajo, en el hilo actual.</p>
+ *
+ * <p>Formato del archivo: cabecera ({@code MAGICO}, {@code VERSION}) seguida de registros
+ * {@code [operación (byte), id (int), longitud (int), CRC32 (int), datos]}, donde los datos de un
+ * registro de guardado están codificados con {@link CodecDispositivos}. Los archivos en formatos
+ * anteriores se convierten al abrirlos mediante {@link MigradorDatos}.</p>
+ *
+ * <p>Las cadenas de los dispositivos ({@code marca}, {@code modelo} y {@code procesador}) se
+ * guardan una sola vez en el archivo, en registros de definición {@code OP_CADENA} cuyo ID es el
+ * código de la cadena y cuyos datos son la cadena en UTF-8; los registros de guardado usan el
+ * código (ver {@link TablaCadenas}). Una definición siempre se escribe antes que el primer
+ * registro que la usa, incluso en modo {@link Durabilidad#LOTE}, y las compactaciones conservan
+ * todas las definiciones al principio del archivo nuevo.</p>
+ *
+ * <p>Recuperación tras un fallo: como los registros solo se añaden al final, una escritura
+ * interrumpida solo puede dañar la cola del archivo. Al indexar se comprueba el CRC32 de cada
+ * registro y, en el primero incompleto o dañado, el archivo se recorta hasta el último registro
+ * válido (los bytes descartados se guardan en {@code .descartado}). Las compactaciones y
+ * migraciones escriben un archivo temporal, lo fuerzan a disco y lo renombran de forma atómica
+ * sobre el original, así que un fallo deja el archivo anterior o el nuevo, nunca uno a medias.</p>
+ *
+ * <p>Concurrencia: los dispositivos se codifican fuera del cerrojo del almacén, que solo protege la
+ * escritura del registro y el índice. Entre procesos, las escrituras y compactaciones se coordinan
+ * con un {@link FileLock} sobre el archivo {@code .lock}; antes de escribir se comprueba si otro
+ * proceso ha modificado el archivo y, en ese caso, se reconstruye el índice.</p>
+ *
+ * <p>Con {@link Durabilidad#LOTE} los registros se acumulan en memoria y se escriben juntos, con
+ * un único bloqueo, una única escritura y un único {@code fsync} por lote (group commit). El lote
+ * se vacía al llegar a {@code dispositivos.lote.registros} registros (1000 por defecto), a los
+ * {@code dispositivos.lote.ms} milisegundos del primer cambio pendiente (1000 por defecto), al
+ * llamar a {@link #vaciar()}, antes de las lecturas que recorren el archivo y al cerrar la JVM.
+ * Las búsquedas por ID ven los cambios pendientes sin vaciar el lote.</p>
+ *
+ * @author Frxnker
+ */
+public class AlmacenDispositivos implements Almacen {
+
+    static final int MAGICO = 0x47444C47;  // "GDLG"
+    static final byte VERSION = 4;         // 1: datos serializados con Java, 2: CodecDispositivos, 3: con CRC32, 4: con tabla de cadenas
+    static final byte OP_GUARDAR = 1;
+    static final byte OP_BORRAR = 2;
+    static final byte OP_CADENA = 3;
+    private static final int MINIMO_COMPACTACION = Integer.getInteger("dispositivos.compactacion.minimo", 1000);
+    private static final double PROPORCION_COMPACTACION = Double.parseDouble(System.getProperty("dispositivos.compactacion.proporcion", "0.5"));
+    private static final int TAM_CABECERA = 5;            // MAGICO + VERSION
+    private static final int TAM_CABECERA_REGISTRO = 13;  // Operación + ID + longitud + CRC32
+    private static final int REGISTROS_POR_LOTE = Integer.getInteger("dispositivos.lote.registros", 1000);
+    private static final long MILIS_POR_LOTE = Long.getLong("dispositivos.lote.ms", 1000);
+    private static final int REGISTROS_POR_SEGMENTO = Integer.getInteger("dispositivos.carga.segmento", 16384);
+    private static final int MINIMO_CARGA_PARALELA = Integer.getInteger("dispositivos.carga.paralela.minimo", 10000);
+    private static final int MAGICO_INDICE = 0x47444958;  // "GDIX"
+    private static final int MINIMO_INDICE = Integer.getInteger("dispositivos.indice.minimo", 10000);
+    private static final int TAM_HUELLA = 4096;  // Bytes del final del archivo que identifican su contenido
+
+    private static final ScheduledExecutorService PLANIFICADOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "mantenimiento-almacen");  // Vaciado de lotes y compactación
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    private final File archivo;
+    private final File archivoBloqueo;
+    private final File archivoIndice;
+    private long longitudIndiceGuardado = -1;  // Longitud del archivo reflejada en el .indice
+    private boolean ganchoIndice = false;
+    private IndiceIds indice;  // ID -> posición del último registro, se construye al abrirlo
+    private volatile TablaCadenas tabla = new TablaCadenas();  // Cadenas definidas en el archivo
+    private int registros;     // Número total de registros en el archivo
+    private int borrados;      // IDs del índice marcados como borrados
+    private long longitudConocida = -1;      // Estado del archivo tras el último acceso propio
+    private long modificacionConocida = -1;
+    private Object claveConocida;  // Identificador del archivo en el sistema (cambia al compactar)
+    private FileChannel canalBloqueo;
+    private FileLock bloqueo;
+    private int nivelBloqueo;  // Permite anidar bloquear() dentro del mismo hilo
+    private Durabilidad durabilidad = Durabilidad.ESCRITURA;
+    private final ByteArrayOutputStream lote = new ByteArrayOutputStream();  // Registros pendientes de escribir
+    private final DataOutputStream salidaLote = new DataOutputStream(lote);
+    private int registrosLote;
+    private final Map<Integer, byte[]> pendientes = new HashMap<>();  // Última versión pendiente de cada ID, null si se ha borrado
+    private ScheduledFuture<?> vaciadoProgramado;
+    private boolean ganchoRegistrado = false;
+    private boolean compactando = false;  // Hay una compactación programada o en curso
+    private long compactaciones;
+    private long bytesRecuperados;
+    private long registrosEliminados;
+    private long nanosCompactando;
+    private long nanosUltimaCompactacion;
+    private final LongAdder bytesLeidos = new LongAdder();
+    private final LongAdder bytesEscritos = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+
+    /**
+     * Constructor del almacén. Normalmente se obtiene a través de {@link RepositorioDispositivos},
+     * que garantiza una única instancia por archivo.
+     *
+     * @param archivo Archivo de datos.
+     */
+    public AlmacenDispositivos(File archivo) {
+        this.archivo = archivo;
+        this.archivoBloqueo = new File(archivo.getPath() + ".lock");
+        this.archivoIndice = new File(archivo.getPath() + ".indice");
+    }
+
+    /**
+     * Guarda un dispositivo añadiendo un registro al final del archivo.
+     *
+     * @param d Dispositivo a guardar.
+     * @return true si la operación fue exitosa, false en caso contrario.
+     */
+    @Override
+    public boolean guardar(Dispositivo d) {
+        try {
+            TablaCadenas usada = tabla;
+            byte[] datos = usada.nuevas(d).isEmpty()
+                    ? CodecDispositivos.codificar(d, usada)  // Fuera del cerrojo, en paralelo entre hilos
+                    : null;
+            synchronized (this) {
+                abrir();
+                if (datos == null || usada != tabla) {
+                    datos = codificar(d);  // Hay que definir cadenas nuevas o la tabla ha cambiado
+                }
+                registrar(OP_GUARDAR, d.getId(), datos);
+            }
+            return true;
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        }
+    }
+
+    /**
+     * Lee la última versión del dispositivo y añade un registro con el estado invertido.
+     */
+    @Override
+    public synchronized Boolean alternarEstado(int id) {
+        try {
+            bloquear();
+            try {
+                if (indice != null && modificadoDesdeFuera()) {
+                    ponerAlDia();
+                }
+                byte[] datos = pendientes.containsKey(id) ? pendientes.get(id) : leerRegistro(id);
+                if (datos == null) {
+                    return null;
+                }
+                Dispositivo d = CodecDispositivos.decodificar(datos, tabla);
+                if (d.isBorrado()) {
+                    return null;
+                }
+                d.setEstado(!d.isEstado());
+                registrar(OP_GUARDAR, id, codificar(d));
+                return d.isEstado();
+            } finally {
+                desbloquear();
+            }
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return null;
+        }
+    }
+
+    /**
+     * Marca un dispositivo como borrado añadiendo una marca de borrado (tombstone) al archivo.
+     *
+     * @param id ID del dispositivo.
+     * @return true si el dispositivo existía y se marcó, false en caso contrario.
+     */
+    @Override
+    public synchronized boolean borrar(int id) {
+        try {
+            abrir();
+            if (!indice.contiene(id) && !pendientes.containsKey(id)) {
+                return false;
+            }
+            registrar(OP_BORRAR, id, new byte[0]);
+            return true;
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        }
+    }
+
+    /**
+     * Carga un dispositivo usando el índice, leyendo solo su registro.
+     *
+     * @param id ID del dispositivo.
+     * @return El dispositivo, o null si no existe o está borrado.
+     */
+    @Override
+    public Dispositivo cargar(int id) {
+        try {
+            byte[] datos;
+            TablaCadenas usada;
+            synchronized (this) {
+                datos = pendientes.containsKey(id) ? pendientes.get(id) : leerRegistro(id);
+                usada = tabla;
+            }
+            if (datos == null) {
+                return null;
+            }
+            Dispositivo d = CodecDispositivos.decodificar(datos, usada);  // Fuera del cerrojo
+            return d.isBorrado() ? null : d;
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return null;
+        }
+    }
+
+    /**
+     * Carga todos los dispositivos leyendo solo los registros vigentes que señala el índice,
+     * decodificados en paralelo por segmentos. Como {@link #recorrer(FiltroCabecera)}, trabaja
+     * fuera del cerrojo sobre el estado del archivo al empezar.
+     *
+     * @return Lista de dispositivos en el orden del archivo, vacía si no existe o hay un error.
+     */
+    @Override
+    public ArrayList<Dispositivo> cargarTodos() {
+        long[] entradas;
+        TablaCadenas cadenas;
+        long fin;
+        FileChannel canal;
+        synchronized (this) {
+            try {
+                bloquear();
+                try {
+                    abrir();
+                    vaciarLote();
+                    if (!archivo.exists() || archivo.length() == 0) {
+                        return new ArrayList<>();
+                    }
+                    entradas = indice.valores();
+                    cadenas = tabla;
+                    fin = archivo.length();
+                    canal = FileChannel.open(archivo.toPath(), StandardOpenOption.READ);  // Sigue valiendo si se compacta
+                } finally {
+                    desbloquear();
+                }
+            } catch (IOException e) {
+                errores.increment();
+                e.printStackTrace(); // Log error for debugging
+                return new ArrayList<>();
+            }
+        }
+        try (canal) {
+            Arrays.parallelSort(entradas);  // Por posición: la entrada empieza por ella
+            Dispositivo[] dispositivos = new Dispositivo[entradas.length];
+            int segmentos = (entradas.length + REGISTROS_POR_SEGMENTO - 1) / REGISTROS_POR_SEGMENTO;
+            IntStream indices = IntStream.range(0, segmentos);
+            (entradas.length >= MINIMO_CARGA_PARALELA ? indices.parallel() : indices).forEach(s -> {
+                int desde = s * REGISTROS_POR_SEGMENTO;
+                int hasta = Math.min(desde + REGISTROS_POR_SEGMENTO, entradas.length);
+                try {
+                    decodificarSegmento(canal, entradas, desde, hasta, fin, cadenas, dispositivos);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return new ArrayList<>(Arrays.asList(dispositivos));
+        } catch (IOException | UncheckedIOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Devuelve el mayor ID válido del índice, sin leer los dispositivos.
+     *
+     * @return El mayor ID válido, o -1 si no hay ninguno o hay un error.
+     */
+    @Override
+    public synchronized int idMaximo() {
+        try {
+            abrir();
+            vaciarLote();
+            return indice.maximaClave(GeneradorIds.ID_MAXIMO);
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return -1;
+        }
+    }
+
+    /**
+     * Recorre el archivo en orden y decodifica solo los registros vigentes (los que el índice
+     * señala como última versión de su ID) que pasan el filtro; el resto se saltan sin decodificar.
+     * Trabaja sobre una copia del índice y la longitud del archivo al empezar, así que no ve los
+     * cambios posteriores.
+     *
+     * @param filtro Filtro sobre los campos fijos, o null para recorrerlos todos.
+     * @return Flujo de dispositivos, vacío si el archivo no existe o hay un error al abrirlo.
+     */
+    @Override
+    public Stream<Dispositivo> recorrer(FiltroCabecera filtro) {
+        IndiceIds vigentes;
+        TablaCadenas cadenas;
+        long fin;
+        DataInputStream in;
+        synchronized (this) {
+            try {
+                abrir();
+                vaciarLote();
+                if (!archivo.exists() || archivo.length() == 0) {
+                    return Stream.empty();
+                }
+                vigentes = indice.copia();
+                cadenas = tabla;  // Incluye las cadenas de todos los registros hasta el final
+                fin = archivo.length();
+                in = new DataInputStream(new BufferedInputStream(abrirEntrada()));
+            } catch (IOException e) {
+                errores.increment();
+                e.printStackTrace(); // Log error for debugging
+                return Stream.empty();
+            }
+        }
+        Iterator<Dispositivo> iterador = new Iterator<Dispositivo>() {
+            private long posicion = 0;
+            private Dispositivo siguiente;
+
+            @Override
+            public boolean hasNext() {
+                if (siguiente == null) {
+                    siguiente = avanzar();
+                }
+                return siguiente != null;
+            }
+
+            @Override
+            public Dispositivo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Dispositivo d = siguiente;
+                siguiente = null;
+                return d;
+            }
+
+            private Dispositivo avanzar() {
+                try {
+                    if (posicion == 0) {
+                        leerCabecera(in);
+                        posicion = TAM_CABECERA;
+                    }
+                    while (posicion < fin) {
+                        byte op = in.readByte();
+                        int id = in.readInt();
+                        int longitud = in.readInt();
+                        int suma = in.readInt();
+                        long actual = posicion;
+                        posicion += TAM_CABECERA_REGISTRO + longitud;
+                        long entrada = vigentes.obtener(id, -1);
+                        if (op == OP_GUARDAR && entrada >= 0 && posicion(entrada) == actual) {
+                            byte[] datos = leerDatos(in, op, id, longitud, suma);
+                            if (filtro == null || CodecDispositivos.aceptaCabecera(datos, estaBorrado(entrada), filtro)) {
+                                Dispositivo d = CodecDispositivos.decodificar(datos, cadenas);
+                                d.setBorrado(d.isBorrado() || estaBorrado(entrada));
+                                return d;
+                            }
+                            continue;
+                        }
+                        in.skipNBytes(longitud);
+                    }
+                    return null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterador, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * Cambia la política de durabilidad. Al dejar el modo {@link Durabilidad#LOTE} se escriben los
+     * cambios pendientes.
+     *
+     * @param durabilidad La nueva política.
+     */
+    @Override
+    public synchronized void setDurabilidad(Durabilidad durabilidad) {
+        this.durabilidad = durabilidad;
+        if (durabilidad == Durabilidad.LOTE && !ganchoRegistrado) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::vaciar, "vaciado-final"));
+            ganchoRegistrado = true;
+        } else if (durabilidad != Durabilidad.LOTE) {
+            vaciar();
+        }
+    }
+
+    /**
+     * Escribe los cambios pendientes del lote con una sola escritura forzada a disco.
+     *
+     * @return true si no queda nada pendiente, false si hubo un error al escribir.
+     */
+    @Override
+    public synchronized boolean vaciar() {
+        try {
+            if (registrosLote > 0) {
+                abrir();
+                vaciarLote();
+            }
+            return true;
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        }
+    }
+
+    /**
+     * Compacta el archivo en el hilo actual, eliminando las versiones antiguas y los dispositivos
+     * borrados. Normalmente se hace sola en segundo plano.
+     *
+     * @return true si se compactó o no había nada que compactar, false si hubo un error o el
+     *         archivo fue sustituido por otro proceso durante la copia.
+     */
+    @Override
+    public boolean compactar() {
+        synchronized (this) {
+            if (compactando) {
+                return false;  // Ya hay una programada o en curso
+            }
+            compactando = true;
+        }
+        return ejecutarCompactacion();
+    }
+
+    /**
+     * Compacta y deja de marcar la compactación como en curso. Se llama tras poner
+     * {@code compactando} a true.
+     */
+    private boolean ejecutarCompactacion() {
+        try {
+            return copiarVigentes();
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        } finally {
+            synchronized (this) {
+                compactando = false;
+            }
+        }
+    }
+
+    /**
+     * Devuelve las estadísticas de las compactaciones hechas desde que se creó el almacén.
+     *
+     * @return Las estadísticas.
+     */
+    @Override
+    public synchronized EstadisticasCompactacion estadisticasCompactacion() {
+        return new EstadisticasCompactacion(compactaciones, bytesRecuperados, registrosEliminados,
+                nanosCompactando, nanosUltimaCompactacion);
+    }
+
+    /**
+     * Devuelve las estadísticas del archivo. Los registros y dispositivos son los del índice, así
+     * que valen 0 hasta el primer acceso; los registros de un lote pendiente todavía no cuentan.
+     *
+     * @return Las estadísticas.
+     */
+    @Override
+    public synchronized EstadisticasAlmacen estadisticas() {
+        return new EstadisticasAlmacen(archivo.length(), bytesLeidos.sum(), bytesEscritos.sum(),
+                indice == null ? 0 : registros, indice == null ? 0 : indice.tamaño(),
+                indice == null ? 0 : borrados, errores.sum());
+    }
+
+    /**
+     * Compara el tamaño y la fecha de modificación del archivo con los que tenía tras el último
+     * acceso propio: cada registro añadido cambia el tamaño y cada compactación la fecha. Si otro
+     * proceso solo ha añadido registros, se indexan únicamente los nuevos.
+     */
+    @Override
+    public synchronized boolean comprobarCambiosExternos() {
+        if (indice == null || !modificadoDesdeFuera()) {
+            return false;
+        }
+        try {
+            bloquear();
+            try {
+                ponerAlDia();
+            } finally {
+                desbloquear();
+            }
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            invalidar();
+        }
+        return true;
+    }
+
+    /**
+     * Descarta el índice en memoria para que se reconstruya en el próximo acceso. Se usa cuando el
+     * archivo ha sido modificado desde fuera de este almacén.
+     */
+    @Override
+    public synchronized void invalidar() {
+        indice = null;
+    }
+
+    /**
+     * Abre el archivo la primera vez que se usa: migra los formatos anteriores si es necesario
+     * (guardando una copia {@code .bak}) y recorre las cabeceras de los registros para conocer los
+     * IDs existentes, sin decodificar los dispositivos.
+     */
+    private void abrir() throws IOException {
+        if (indice != null) {
+            return;
+        }
+        bloquear();
+        try {
+            indice = new IndiceIds();
+            registros = 0;
+            borrados = 0;
+            recordarArchivo();
+            Files.deleteIfExists(Paths.get(archivo.getPath() + ".tmp"));  // Reescritura interrumpida
+            if (!compactando) {
+                Files.deleteIfExists(Paths.get(archivo.getPath() + ".compactando"));
+            }
+            if (!archivo.exists() || archivo.length() == 0) {
+                return;
+            }
+            if (archivo.length() < TAM_CABECERA) {
+                recortar(0);  // Creación interrumpida antes de completar la cabecera
+                return;
+            }
+            ArrayList<Dispositivo> anteriores = MigradorDatos.leerFormatoAnterior(archivo);
+            if (anteriores != null) {
+                Files.copy(archivo.toPath(), Paths.get(archivo.getPath() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+                MigradorDatos.reasignarRepetidos(anteriores, archivo);  // Si no, al indexar por ID solo quedaría el último
+                escribirCompacto(anteriores);
+                return;
+            }
+            long desde = registrosLote == 0 ? leerIndiceGuardado() : -1;  // Con lote, sus códigos deben seguir valiendo
+            if (desde < 0) {
+                if (registrosLote == 0) {
+                    tabla = new TablaCadenas();
+                }
+                indexar(TAM_CABECERA);
+            } else if (desde < archivo.length()) {
+                indexar(desde);  // Registros añadidos después de guardar el índice
+            }
+            recordarArchivo();
+            programarGuardadoIndice(desde < 0);
+        } finally {
+            desbloquear();
+        }
+    }
+
+    /**
+     * Lee el índice de {@code .indice} si corresponde al archivo actual. Debe llamarse desde
+     * {@link #abrir()}, con el índice vacío.
+     *
+     * @return Longitud del archivo que refleja el índice leído, o -1 si no hay un índice válido.
+     */
+    private long leerIndiceGuardado() {
+        try {
+            if (!archivoIndice.exists()) {
+                return -1;
+            }
+            byte[] contenido = Files.readAllBytes(archivoIndice.toPath());
+            if (contenido.length < Integer.BYTES) {
+                return -1;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(contenido, 0, contenido.length - Integer.BYTES);
+            ByteBuffer in = ByteBuffer.wrap(contenido, 0, contenido.length - Integer.BYTES);
+            if ((int) crc.getValue() != ByteBuffer.wrap(contenido).getInt(contenido.length - Integer.BYTES)) {
+                return -1;  // Guardado interrumpido o dañado
+            }
+            if (in.getInt() != MAGICO_INDICE || in.get() != VERSION) {
+                return -1;
+            }
+            long longitud = in.getLong();
+            int huella = in.getInt();
+            if (longitud < TAM_CABECERA || longitud > archivo.length() || huella(longitud) != huella) {
+                return -1;  // El archivo se ha compactado, recortado o sustituido
+            }
+            int registrosGuardados = in.getInt();
+            int borradosGuardados = in.getInt();
+            TablaCadenas cadenas = new TablaCadenas();
+            int definidas = in.getInt();
+            for (int codigo = 0; codigo < definidas; codigo++) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                cadenas.añadir(new String(bytes, StandardCharsets.UTF_8));
+            }
+            indice = IndiceIds.leer(in);
+            registros = registrosGuardados;
+            borrados = borradosGuardados;
+            tabla = cadenas;
+            longitudIndiceGuardado = longitud;
+            return longitud;
+        } catch (IOException | RuntimeException e) {  // También BufferUnderflowException si los datos no cuadran
+            indice = new IndiceIds();  // Se reconstruye recorriendo el archivo
+            return -1;
+        }
+    }
+
+    /**
+     * Guarda el índice y la tabla de cadenas en {@code .indice}, si el archivo tiene registros
+     * suficientes y el guardado anterior no está al día. Copia el estado con el cerrojo y escribe
+     * fuera de él, en un temporal que después renombra, así que nunca deja un índice a medias.
+     *
+     * @return true si el índice guardado queda al día, false si no se guardó o hubo un error.
+     */
+    boolean guardarIndice() {
+        synchronized (archivoIndice) {  // Un solo guardado a la vez
+            IndiceIds copia;
+            TablaCadenas cadenas;
+            int definidas;
+            long longitud;
+            int huella;
+            int registrosGuardados;
+            int borradosGuardados;
+            File temporal = new File(archivoIndice.getPath() + ".tmp");
+            try {
+                synchronized (this) {
+                    if (indice == null || registros < MINIMO_INDICE) {
+                        return false;
+                    }
+                    if (longitudConocida == longitudIndiceGuardado) {
+                        return true;
+                    }
+                    bloquear();
+                    try {
+                        if (!Objects.equals(claveArchivo(), claveConocida) || archivo.length() < longitudConocida) {
+                            return false;  // Otro proceso ha sustituido el archivo; se guardará al reabrirlo
+                        }
+                        huella = huella(longitudConocida);
+                    } finally {
+                        desbloquear();
+                    }
+                    copia = indice.copia();
+                    cadenas = tabla;
+                    definidas = tabla.tamaño();
+                    longitud = longitudConocida;
+                    registrosGuardados = registros;
+                    borradosGuardados = borrados;
+                }
+                CRC32 crc = new CRC32();
+                try (FileOutputStream fos = new FileOutputStream(temporal);
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fos, crc)))) {
+                    out.writeInt(MAGICO_INDICE);
+                    out.writeByte(VERSION);
+                    out.writeLong(longitud);
+                    out.writeInt(huella);
+                    out.writeInt(registrosGuardados);
+                    out.writeInt(borradosGuardados);
+                    out.writeInt(definidas);
+                    for (int codigo = 0; codigo < definidas; codigo++) {
+                        byte[] bytes = cadenas.cadena(codigo).getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                    copia.escribir(out);
+                    out.flush();  // El CRC32 cubre todo lo escrito hasta aquí
+                    out.writeInt((int) crc.getValue());
+                }
+                try {
+                    Files.move(temporal.toPath(), archivoIndice.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporal.toPath(), archivoIndice.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                synchronized (this) {
+                    longitudIndiceGuardado = longitud;
+                }
+                return true;
+            } catch (IOException e) {
+                errores.increment();
+                e.printStackTrace(); // Log error for debugging
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Registra el guardado del índice al cerrar la JVM y, si se indica, lo guarda ya en segundo
+     * plano. No hace nada con archivos pequeños. Debe llamarse con el cerrojo del almacén.
+     *
+     * @param ahora true tras recorrer o reescribir el archivo entero.
+     */
+    private void programarGuardadoIndice(boolean ahora) {
+        if (registros < MINIMO_INDICE) {
+            return;
+        }
+        if (!ganchoIndice) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::guardarIndice, "indice-final"));
+            ganchoIndice = true;
+        }
+        if (ahora) {
+            PLANIFICADOR.execute(this::guardarIndice);
+        }
+    }
+
+    /**
+     * Calcula el CRC32 de los últimos bytes del archivo hasta la longitud indicada, que identifican
+     * su contenido hasta ahí (una compactación los cambia).
+     */
+    private int huella(long longitud) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(longitud, TAM_HUELLA));
+        long inicio = longitud - bytes.capacity();
+        try (FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.READ)) {
+            while (bytes.hasRemaining()) {
+                if (canal.read(bytes, inicio + bytes.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.flip());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Pone al día el índice tras un cambio hecho por otro proceso. Si el archivo es el mismo y solo
+     * ha crecido, indexa los registros añadidos; si se ha sustituido (compactación), lo reconstruye.
+     * Debe llamarse con el archivo bloqueado.
+     */
+    private void ponerAlDia() throws IOException {
+        boolean soloCrecido = indice != null && claveConocida != null && longitudConocida >= TAM_CABECERA
+                && archivo.length() > longitudConocida && Objects.equals(claveArchivo(), claveConocida);
+        if (soloCrecido) {
+            indexar(longitudConocida);
+            recordarArchivo();
+        } else {
+            invalidar();
+            abrir();
+        }
+    }
+
+    /**
+     * Recorre los registros desde la posición indicada, comprobando su CRC32, y los añade al índice.
+     * Si la cola del archivo está incompleta o dañada, la recorta.
+     */
+    private void indexar(long desde) throws IOException {
+        long fin;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(abrirEntrada()))) {
+            leerCabecera(in);
+            in.skipNBytes(desde - TAM_CABECERA);
+            fin = indexarRegistros(in, desde);
+        }
+        if (fin < archivo.length()) {
+            recortar(fin);
+        }
+    }
+
+    /**
+     * Añade al índice los registros leídos de {@code in}, que empiezan en la posición indicada del
+     * archivo, hasta el final del flujo o hasta el primer registro incompleto o dañado.
+     *
+     * @return Posición del final del último registro válido.
+     */
+    private long indexarRegistros(DataInputStream in, long posicion) throws IOException {
+        while (true) {
+            byte op;
+            int id;
+            int longitud;
+            try {
+                op = in.readByte();
+                id = in.readInt();
+                longitud = in.readInt();
+                int suma = in.readInt();
+                if ((op != OP_GUARDAR && op != OP_BORRAR && op != OP_CADENA) || longitud < 0) {
+                    return posicion;
+                }
+                byte[] datos = leerDatos(in, op, id, longitud, suma);
+                if (op == OP_CADENA) {
+                    definir(id, datos);
+                    posicion += TAM_CABECERA_REGISTRO + longitud;
+                    continue;  // Las definiciones no cuentan como registros de dispositivos
+                }
+            } catch (EOFException | RegistroDañado e) {
+                return posicion;  // Cola incompleta o dañada
+            }
+            long anterior = indice.obtener(id, -1);
+            if (op == OP_GUARDAR) {
+                indice.poner(id, entrada(posicion, false));
+                if (anterior >= 0 && estaBorrado(anterior)) {
+                    borrados--;
+                }
+            } else if (anterior >= 0 && !estaBorrado(anterior)) {
+                indice.poner(id, anterior | 1);
+                borrados++;
+            }
+            posicion += TAM_CABECERA_REGISTRO + longitud;
+            registros++;
+        }
+    }
+
+    /**
+     * Incorpora a la tabla una definición de cadena leída del archivo. Las definiciones que ya
+     * están en la tabla (por ejemplo, tras una compactación) deben coincidir con ella.
+     *
+     * @throws IOException Si la definición no sigue a las anteriores o contradice la tabla.
+     */
+    private void definir(int codigo, byte[] datos) throws IOException {
+        String cadena = new String(datos, StandardCharsets.UTF_8);
+        int definidas = tabla.tamaño();
+        if (codigo == definidas) {
+            tabla.añadir(cadena);
+        } else if (codigo > definidas || !tabla.cadena(codigo).equals(cadena)) {
+            throw new IOException("Definición de cadena no válida en " + archivo + ": " + codigo);
+        }
+    }
+
+    /**
+     * Codifica un dispositivo con la tabla de cadenas, añadiendo antes al archivo las definiciones
+     * de sus cadenas nuevas. Debe llamarse con el cerrojo del almacén.
+     */
+    private byte[] codificar(Dispositivo d) throws IOException {
+        bloquear();
+        try {
+            if (modificadoDesdeFuera()) {
+                ponerAlDia();  // Otro proceso puede haber definido cadenas
+            }
+            List<String> nuevas = tabla.nuevas(d);
+            if (!nuevas.isEmpty()) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(buffer);
+                int codigo = tabla.tamaño();
+                for (String cadena : nuevas) {
+                    escribirRegistro(out, OP_CADENA, codigo++, cadena.getBytes(StandardCharsets.UTF_8));
+                }
+                añadirRegistros(buffer.toByteArray(), false);  // Fuera del lote: precede a sus usos
+            }
+            return CodecDispositivos.codificar(d, tabla);
+        } finally {
+            desbloquear();
+        }
+    }
+
+    /**
+     * Escribe las definiciones de las primeras cadenas de una tabla.
+     */
+    private static void escribirDefiniciones(DataOutputStream out, TablaCadenas cadenas, int cuantas) throws IOException {
+        for (int codigo = 0; codigo < cuantas; codigo++) {
+            escribirRegistro(out, OP_CADENA, codigo, cadenas.cadena(codigo).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Lee los bytes del registro vigente de un dispositivo. Si el registro de esa posición no
+     * corresponde al ID (otro proceso ha compactado el archivo), reconstruye el índice y reintenta.
+     *
+     * @return Los datos del registro, o null si el dispositivo no existe o está borrado.
+     */
+    private synchronized byte[] leerRegistro(int id) throws IOException {
+        for (int intento = 0; intento < 2; intento++) {
+            abrir();
+            long entrada = indice.obtener(id, -1);
+            if (entrada < 0 || estaBorrado(entrada)) {
+                return null;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(archivo, "r")) {
+                raf.seek(posicion(entrada));
+                byte op = raf.readByte();
+                int idLeido = raf.readInt();
+                if (op == OP_GUARDAR && idLeido == id) {
+                    byte[] datos = new byte[raf.readInt()];
+                    int suma = raf.readInt();
+                    raf.readFully(datos);
+                    bytesLeidos.add(TAM_CABECERA_REGISTRO + datos.length);
+                    if (suma(op, id, datos) != suma) {
+                        throw new RegistroDañado(id);
+                    }
+                    return datos;
+                }
+            } catch (EOFException e) {
+                // El archivo ha cambiado de tamaño, se reconstruye el índice
+            }
+            invalidar();
+        }
+        throw new IOException("No se encuentra el registro del dispositivo " + id);
+    }
+
+    /**
+     * Decodifica los registros vigentes {@code desde}..{@code hasta} (excluido) de las entradas
+     * ordenadas por posición. Lee de una vez el tramo del archivo que va del primero al siguiente
+     * segmento (o al final) y deja cada dispositivo en la misma posición de {@code destino}.
+     */
+    private void decodificarSegmento(FileChannel canal, long[] entradas, int desde, int hasta, long fin,
+            TablaCadenas cadenas, Dispositivo[] destino) throws IOException {
+        long inicio = posicion(entradas[desde]);
+        long limite = hasta < entradas.length ? posicion(entradas[hasta]) : fin;
+        ByteBuffer tramo = ByteBuffer.allocate(Math.toIntExact(limite - inicio));
+        while (tramo.hasRemaining()) {
+            if (canal.read(tramo, inicio + tramo.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        bytesLeidos.add(tramo.capacity());
+        for (int i = desde; i < hasta; i++) {
+            int p = (int) (posicion(entradas[i]) - inicio);
+            byte op = tramo.get(p);
+            int id = tramo.getInt(p + 1);
+            byte[] datos = new byte[tramo.getInt(p + 5)];
+            tramo.get(p + TAM_CABECERA_REGISTRO, datos);
+            if (op != OP_GUARDAR || suma(op, id, datos) != tramo.getInt(p + 9)) {
+                throw new RegistroDañado(id);
+            }
+            Dispositivo d = CodecDispositivos.decodificar(datos, cadenas);
+            d.setBorrado(d.isBorrado() || estaBorrado(entradas[i]));
+            destino[i] = d;
+        }
+    }
+
+    /**
+     * Programa una compactación en segundo plano si la basura supera los umbrales y no hay otra
+     * programada. Debe llamarse con el cerrojo del almacén.
+     */
+    private void compactarSiNecesario() {
+        int basura = registros - (indice.tamaño() - borrados);
+        if (compactando || basura < MINIMO_COMPACTACION || basura < registros * PROPORCION_COMPACTACION) {
+            return;
+        }
+        compactando = true;
+        PLANIFICADOR.execute(this::ejecutarCompactacion);
+    }
+
+    /**
+     * Copia los registros vigentes a un archivo nuevo y lo sustituye por el actual.
+     *
+     * <p>Primero, sin el cerrojo del almacén, escribe las definiciones de cadenas conocidas y copia
+     * los registros vigentes según una copia del índice hasta la longitud que tenía el archivo, y
+     * cierra el archivo nuevo. Después, con el cerrojo y el archivo bloqueado, le añade tal cual
+     * los registros escritos mientras tanto (por este u otro proceso), lo fuerza a disco, lo
+     * cierra y lo renombra de forma atómica. Si otro proceso ha sustituido el archivo entretanto,
+     * se descarta la copia.</p>
+     */
+    private boolean copiarVigentes() throws IOException {
+        long inicio = System.nanoTime();
+        IndiceIds vigentes;
+        TablaCadenas cadenas;
+        int definidas;
+        long fin;
+        int registrosAntes;
+        Object clave;
+        synchronized (this) {
+            bloquear();
+            try {
+                abrir();
+                vaciarLote();
+                if (modificadoDesdeFuera()) {
+                    ponerAlDia();
+                }
+                if (!archivo.exists() || archivo.length() == 0) {
+                    return true;
+                }
+                vigentes = indice.copia();
+                cadenas = tabla;
+                definidas = cadenas.tamaño();  // Las definiciones que hay hasta fin
+                fin = archivo.length();
+                registrosAntes = registros;
+                clave = claveConocida;
+            } finally {
+                desbloquear();
+            }
+        }
+        File temporal = new File(archivo.getPath() + ".compactando");
+        try {
+            IndiceIds nuevoIndice = new IndiceIds();
+            int copiados = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporal)));
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(abrirEntrada()))) {
+                leerCabecera(in);
+                out.writeInt(MAGICO);
+                out.writeByte(VERSION);
+                escribirDefiniciones(out, cadenas, definidas);
+                long posicion = TAM_CABECERA;
+                while (posicion < fin) {
+                    byte op = in.readByte();
+                    int id = in.readInt();
+                    int longitud = in.readInt();
+                    int suma = in.readInt();
+                    long entrada = vigentes.obtener(id, -1);
+                    if (op == OP_GUARDAR && entrada >= 0 && !estaBorrado(entrada) && posicion(entrada) == posicion) {
+                        nuevoIndice.poner(id, entrada(out.size(), false));
+                        escribirRegistro(out, op, id, leerDatos(in, op, id, longitud, suma));
+                        copiados++;
+                    } else {
+                        in.skipNBytes(longitud);
+                    }
+                    posicion += TAM_CABECERA_REGISTRO + longitud;
+                }
+            }
+            synchronized (this) {
+                bloquear();
+                try {
+                    vaciarLote();
+                    if (!Objects.equals(claveArchivo(), clave) || archivo.length() < fin) {
+                        return false;  // Otro proceso ha sustituido el archivo
+                    }
+                    long longitudAntes = archivo.length();
+                    byte[] cola;
+                    try (InputStream in = abrirEntrada()) {
+                        in.skipNBytes(fin);
+                        cola = in.readNBytes((int) (longitudAntes - fin));
+                    }
+                    long inicioCola = temporal.length();
+                    try (FileOutputStream out = new FileOutputStream(temporal, true)) {
+                        out.write(cola);
+                        out.getChannel().force(true);
+                    }
+                    bytesEscritos.add(inicioCola + cola.length);
+                    try {
+                        Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    sincronizarDirectorio();
+                    indice = nuevoIndice;
+                    registros = copiados;
+                    borrados = 0;
+                    indexarRegistros(new DataInputStream(new ByteArrayInputStream(cola)), inicioCola);
+                    recordarArchivo();
+                    programarGuardadoIndice(true);  // El guardado ya no corresponde al archivo
+                    long duracion = System.nanoTime() - inicio;
+                    compactaciones++;
+                    bytesRecuperados += longitudAntes - archivo.length();
+                    registrosEliminados += registrosAntes - copiados;
+                    nanosCompactando += duracion;
+                    nanosUltimaCompactacion = duracion;
+                    return true;
+                } finally {
+                    desbloquear();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temporal.toPath());
+        }
+    }
+
+    /**
+     * Escribe un archivo temporal con un único registro por dispositivo, lo fuerza a disco y lo
+     * renombra de forma atómica sobre el actual. La tabla de cadenas se construye de nuevo con las
+     * cadenas de la lista, así que solo se usa al migrar un formato anterior, que todavía no
+     * tiene tabla.
+     */
+    private void escribirCompacto(List<Dispositivo> lista) throws IOException {
+        File temporal = new File(archivo.getPath() + ".tmp");
+        IndiceIds nuevoIndice = new IndiceIds();
+        TablaCadenas nueva = new TablaCadenas();
+        try (FileOutputStream fos = new FileOutputStream(temporal);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(MAGICO);
+            out.writeByte(VERSION);
+            for (Dispositivo d : lista) {
+                for (String cadena : nueva.nuevas(d)) {
+                    escribirRegistro(out, OP_CADENA, nueva.añadir(cadena), cadena.getBytes(StandardCharsets.UTF_8));
+                }
+                nuevoIndice.poner(d.getId(), entrada(out.size(), d.isBorrado()));
+                escribirRegistro(out, OP_GUARDAR, d.getId(), CodecDispositivos.codificar(d, nueva));
+            }
+            out.flush();
+            bytesEscritos.add(out.size());
+            fos.getChannel().force(true);
+        }
+        try {
+            Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        sincronizarDirectorio();
+        indice = nuevoIndice;
+        tabla = nueva;
+        registros = lista.size();
+        borrados = (int) lista.stream().filter(Dispositivo::isBorrado).count();
+        recordarArchivo();
+        programarGuardadoIndice(true);
+    }
+
+    /**
+     * Escribe un registro según la política de durabilidad: al momento o en el lote pendiente.
+     */
+    private void registrar(byte op, int id, byte[] datos) throws IOException {
+        if (durabilidad != Durabilidad.LOTE) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(datos.length + TAM_CABECERA_REGISTRO);
+            escribirRegistro(new DataOutputStream(buffer), op, id, datos);
+            añadirRegistros(buffer.toByteArray(), durabilidad == Durabilidad.SINCRONA);
+            compactarSiNecesario();
+            return;
+        }
+        escribirRegistro(salidaLote, op, id, datos);
+        registrosLote++;
+        pendientes.put(id, op == OP_GUARDAR ? datos : null);
+        if (registrosLote >= REGISTROS_POR_LOTE) {
+            vaciarLote();
+        } else if (vaciadoProgramado == null) {
+            vaciadoProgramado = PLANIFICADOR.schedule(this::vaciar, MILIS_POR_LOTE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Escribe el lote pendiente al final del archivo y lo fuerza a disco. Si falla, el lote se
+     * conserva para reintentarlo en el próximo vaciado.
+     */
+    private void vaciarLote() throws IOException {
+        if (vaciadoProgramado != null) {
+            vaciadoProgramado.cancel(false);
+            vaciadoProgramado = null;
+        }
+        if (registrosLote == 0) {
+            return;
+        }
+        añadirRegistros(lote.toByteArray(), true);
+        descartarLote();
+        compactarSiNecesario();
+    }
+
+    private void descartarLote() {
+        lote.reset();
+        registrosLote = 0;
+        pendientes.clear();
+    }
+
+    private static void escribirRegistro(DataOutputStream out, byte op, int id, byte[] datos) throws IOException {
+        out.writeByte(op);
+        out.writeInt(id);
+        out.writeInt(datos.length);
+        out.writeInt(suma(op, id, datos));
+        out.write(datos);
+    }
+
+    /**
+     * Calcula el CRC32 de un registro: su cabecera (operación, ID y longitud) y sus datos.
+     */
+    static int suma(byte op, int id, byte[] datos) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(9).put(op).putInt(id).putInt(datos.length).flip());
+        crc.update(datos);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Lee los datos de un registro cuya cabecera ya se ha leído y comprueba su CRC32.
+     *
+     * @throws EOFException Si el registro está incompleto.
+     * @throws RegistroDañado Si el CRC32 no coincide.
+     */
+    private static byte[] leerDatos(DataInputStream in, byte op, int id, int longitud, int suma) throws IOException {
+        byte[] datos = in.readNBytes(longitud);  // Sin reservar de golpe una longitud dañada
+        if (datos.length < longitud) {
+            throw new EOFException();
+        }
+        if (suma(op, id, datos) != suma) {
+            throw new RegistroDañado(id);
+        }
+        return datos;
+    }
+
+    /**
+     * Recorta el archivo a la longitud indicada, descartando una cola incompleta o dañada. Los
+     * bytes descartados se añaden a {@code .descartado} por si hubiera que examinarlos. Debe
+     * llamarse con el archivo bloqueado.
+     */
+    private void recortar(long longitud) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FileChannel descartado = FileChannel.open(Paths.get(archivo.getPath() + ".descartado"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long sobrante = canal.size() - longitud;
+            canal.transferTo(longitud, sobrante, descartado);
+            descartado.force(true);
+            canal.truncate(longitud);
+            canal.force(true);
+            System.err.println("Se han descartado " + sobrante + " bytes dañados al final de " + archivo);
+        }
+    }
+
+    /**
+     * Abre el archivo para leerlo de principio a fin, contando los bytes leídos.
+     */
+    private InputStream abrirEntrada() throws FileNotFoundException {
+        return new FilterInputStream(new FileInputStream(archivo)) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesLeidos.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int desde, int longitud) throws IOException {
+                int leidos = super.read(b, desde, longitud);
+                if (leidos > 0) {
+                    bytesLeidos.add(leidos);
+                }
+                return leidos;
+            }
+        };
+    }
+
+    /**
+     * Fuerza a disco la entrada del directorio tras renombrar el archivo, donde el sistema lo permite.
+     */
+    private void sincronizarDirectorio() {
+        try (FileChannel directorio = FileChannel.open(archivo.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+            directorio.force(true);
+        } catch (IOException e) {
+            // Algunos sistemas (Windows) no permiten abrir un directorio; el renombrado sigue siendo atómico
+        }
+    }
+
+    /**
+     * Añade uno o varios registros ya serializados al final del archivo, creando la cabecera si el
+     * archivo es nuevo, y los incorpora al índice. Se hace con el archivo bloqueado y, si otro
+     * proceso lo ha modificado, antes se pone al día el índice.
+     *
+     * @param bloque Registros serializados.
+     * @param forzar true para forzar la escritura a disco antes de volver.
+     */
+    private void añadirRegistros(byte[] bloque, boolean forzar) throws IOException {
+        bloquear();
+        try {
+            if (modificadoDesdeFuera()) {
+                ponerAlDia();
+            }
+            boolean nuevo = !archivo.exists() || archivo.length() == 0;
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(bloque.length + TAM_CABECERA);
+            if (nuevo) {
+                DataOutputStream out = new DataOutputStream(buffer);
+                out.writeInt(MAGICO);
+                out.writeByte(VERSION);
+                escribirDefiniciones(out, tabla, tabla.tamaño());  // Las que usan los registros pendientes
+            }
+            long posicion = nuevo ? buffer.size() : archivo.length();
+            buffer.write(bloque);
+            try (FileOutputStream fos = new FileOutputStream(archivo, true)) {
+                buffer.writeTo(fos);  // Una única escritura por registro o por lote
+                bytesEscritos.add(buffer.size());
+                if (forzar) {
+                    fos.getChannel().force(false);
+                }
+            }
+            indexarRegistros(new DataInputStream(new ByteArrayInputStream(bloque)), posicion);
+            recordarArchivo();
+        } finally {
+            desbloquear();
+        }
+    }
+
+    private boolean modificadoDesdeFuera() {
+        return archivo.length() != longitudConocida || archivo.lastModified() != modificacionConocida;
+    }
+
+    private void recordarArchivo() {
+        longitudConocida = archivo.length();
+        modificacionConocida = archivo.lastModified();
+        claveConocida = claveArchivo();
+    }
+
+    private Object claveArchivo() {
+        try {
+            return Files.readAttributes(archivo.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;  // El archivo todavía no existe
+        }
+    }
+
+    /**
+     * Bloquea el archivo {@code .lock} frente a otros procesos. Las llamadas se pueden anidar; el
+     * bloqueo se libera en el {@link #desbloquear()} de la más externa. Debe llamarse con el
+     * cerrojo del almacén, justo antes del {@code try} cuyo {@code finally} llama a
+     * {@link #desbloquear()}.
+     */
+    private void bloquear() throws IOException {
+        if (nivelBloqueo == 0) {
+            if (canalBloqueo == null) {
+                canalBloqueo = FileChannel.open(archivoBloqueo.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            bloqueo = canalBloqueo.lock();
+        }
+        nivelBloqueo++;
+    }
+
+    /**
+     * Deshace un {@link #bloquear()}.
+     */
+    private void desbloquear() throws IOException {
+        if (--nivelBloqueo == 0) {
+            bloqueo.release();
+            bloqueo = null;
+        }
+    }
+
+    /**
+     * Registro cuyo CRC32 no coincide con sus datos.
+     */
+    private static class RegistroDañado extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RegistroDañado(int id) {
+            super("Registro dañado del dispositivo " + id);
+        }
+    }
+
+    /**
+     * Codifica en un {@code long} la posición de un registro y si el dispositivo está borrado.
+     */
+    private static long entrada(long posicion, boolean borrado) {
+        return posicion << 1 | (borrado ? 1 : 0);
+    }
+
+    private static long posicion(long entrada) {
+        return entrada >>> 1;
+    }
+
+    private static boolean estaBorrado(long entrada) {
+        return (entrada & 1) != 0;
+    }
+
+    private void leerCabecera(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGICO || in.readByte() != VERSION) {
+            throw new IOException("Formato de archivo no reconocido: " + archivo);
+        }
+    }
+}
@@ -0,0 +1,631 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Almacén de dispositivos en ranuras de tamaño fijo dentro de un archivo mapeado en memoria
+ * ({@link MappedByteBuffer}).
+ *
+ * <p>Los campos de tamaño fijo de cada dispositivo viven directamente en su ranura, de forma que
+ * cambiar el estado o marcar un dispositivo como borrado es una escritura de un byte en su sitio,
+ * sin decodificar nada. Las cadenas ({@code marca}, {@code modelo} y {@code procesador}) se guardan
+ * en un archivo de desbordamiento aparte ({@code .cad}) y la ranura solo contiene su posición y
+ * longitud. Al abrir el archivo solo se recorren los IDs de las ranuras para construir el índice,
+ * sin cargar los dispositivos en el heap.</p>
+ *
+ * <p>Como el archivo de cadenas solo crece, una cadena ya escrita no cambia nunca de posición:
+ * las ranuras con la misma cadena apuntan a la misma posición en lugar de repetirla, y las cadenas
+ * leídas se recuerdan por posición para no volver a leerlas. Ambas tablas admiten como mucho
+ * {@code dispositivos.cadenas.maximo} cadenas (ver {@link DiccionarioCadenas}).</p>
+ *
+ * <p>Las ranuras de los dispositivos borrados no se reutilizan: el borrado solo marca la ranura y
+ * el archivo crece con cada dispositivo nuevo. Como todo el archivo de ranuras es un único mapeo,
+ * admite como mucho {@code MAX_RANURAS} ranuras (algo más de 33 millones, 2 GiB); al llegar a ese
+ * límite los guardados de dispositivos nuevos fallan con una {@link IOException}.</p>
+ *
+ * <p>Se activa con la propiedad {@code -Ddispositivos.almacen=mapeado}. La primera vez importa los
+ * dispositivos del archivo de registro original.</p>
+ *
+ * <p>Entre procesos, cada escritura se hace con la cabecera bloqueada ({@link FileLock}) y aumenta
+ * un contador de secuencia guardado en ella, que los demás procesos ven a través del mapeo y usan
+ * para detectar cambios. Antes de reservar una ranura nueva se indexan las que hayan añadido otros
+ * procesos.</p>
+ *
+ * <p>Las escrituras van directamente a las páginas mapeadas, así que son visibles al momento para
+ * los demás procesos y el sistema operativo las lleva a disco por su cuenta. Con
+ * {@link Durabilidad#SINCRONA} se fuerzan a disco tras cada cambio, y con {@link Durabilidad#LOTE}
+ * solo al llamar a {@link #vaciar()}.</p>
+ *
+ * @author Frxnker
+ */
+public class AlmacenMapeado implements Almacen {
+
+    private static final int MAGICO = 0x47444D50;  // "GDMP"
+    private static final int VERSION = 1;
+    private static final int TAM_CABECERA = 64;
+    private static final int TAM_RANURA = 64;
+    private static final int RANURAS_INICIALES = 1024;
+    private static final int MAX_RANURAS = (Integer.MAX_VALUE - TAM_CABECERA) / TAM_RANURA;  // Un MappedByteBuffer no pasa de 2 GiB
+
+    // Posiciones dentro de la cabecera
+    private static final int C_MAGICO = 0;
+    private static final int C_VERSION = 4;
+    private static final int C_USADAS = 8;
+    private static final int C_SECUENCIA = 16;  // Se incrementa en cada escritura
+
+    // Posiciones dentro de cada ranura
+    private static final int R_TIPO = 0;
+    private static final int R_ESTADO = 1;
+    private static final int R_BORRADO = 2;
+    private static final int R_ID = 4;
+    private static final int R_TIPO_IMPRESORA = 8;
+    private static final int R_COLOR = 12;
+    private static final int R_SCANNER = 13;
+    private static final int R_RAM = 16;
+    private static final int R_TAM_DISCO = 20;
+    private static final int R_TIPO_DISCO = 24;
+    private static final int R_MARCA = 28;       // Posición (long) + longitud (int) en el archivo de cadenas
+    private static final int R_MODELO = 40;
+    private static final int R_PROCESADOR = 52;
+
+    private final File archivo;
+    private final File archivoCadenas;
+    private final File origen;
+    private FileChannel canal;
+    private FileChannel canalCadenas;
+    private MappedByteBuffer ranuras;
+    private IndiceIds indice;  // ID -> número de ranura
+    private int usadasConocidas;     // Ranuras indexadas por este proceso
+    private long secuenciaConocida;  // Secuencia de la cabecera tras la última escritura propia
+    private final Map<String, Ubicacion> ubicaciones = new HashMap<>();  // Cadena -> dónde está escrita
+    private final Map<Long, String> leidas = new HashMap<>();             // Posición -> cadena canónica
+    private Durabilidad durabilidad = Durabilidad.ESCRITURA;
+    private final LongAdder bytesLeidos = new LongAdder();
+    private final LongAdder bytesEscritos = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+
+    /**
+     * Constructor del almacén mapeado.
+     *
+     * @param archivo Archivo de ranuras.
+     * @param origen Archivo de registro del que importar los dispositivos si el archivo de ranuras
+     *               todavía no existe.
+     */
+    public AlmacenMapeado(File archivo, File origen) {
+        this.archivo = archivo;
+        this.archivoCadenas = new File(archivo.getPath() + ".cad");
+        this.origen = origen;
+    }
+
+    @Override
+    public synchronized boolean guardar(Dispositivo d) {
+        try {
+            FileLock bloqueo = bloquearCabecera();
+            try {
+                escribirRanura(d);
+                return true;
+            } finally {
+                bloqueo.release();
+            }
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        }
+    }
+
+    /**
+     * Invierte directamente el byte de estado en la ranura del dispositivo.
+     */
+    @Override
+    public synchronized Boolean alternarEstado(int id) {
+        try {
+            FileLock bloqueo = bloquearCabecera();
+            try {
+                int ranura = (int) indice.obtener(id, -1);
+                if (ranura < 0) {
+                    indexarNuevas();
+                    ranura = (int) indice.obtener(id, -1);
+                }
+                if (ranura < 0 || ranuras.get(base(ranura) + R_BORRADO) != 0) {
+                    return null;
+                }
+                boolean estado = ranuras.get(base(ranura) + R_ESTADO) == 0;
+                ranuras.put(base(ranura) + R_ESTADO, (byte) (estado ? 1 : 0));
+                bytesEscritos.increment();
+                incrementarSecuencia();
+                return estado;
+            } finally {
+                bloqueo.release();
+            }
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized boolean borrar(int id) {
+        try {
+            FileLock bloqueo = bloquearCabecera();
+            try {
+                int ranura = (int) indice.obtener(id, -1);
+                if (ranura < 0) {
+                    indexarNuevas();  // Otro proceso puede haberlo guardado
+                    ranura = (int) indice.obtener(id, -1);
+                }
+                if (ranura < 0) {
+                    return false;
+                }
+                ranuras.put(base(ranura) + R_BORRADO, (byte) 1);
+                bytesEscritos.increment();
+                incrementarSecuencia();
+                return true;
+            } finally {
+                bloqueo.release();
+            }
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized Dispositivo cargar(int id) {
+        try {
+            abrir();
+            int ranura = (int) indice.obtener(id, -1);
+            if (ranura < 0 || ranuras.get(base(ranura) + R_BORRADO) != 0) {
+                return null;
+            }
+            return leerRanura(ranura);
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized ArrayList<Dispositivo> cargarTodos() {
+        try {
+            abrir();
+            int usadas = ranuras.getInt(C_USADAS);
+            ArrayList<Dispositivo> lista = new ArrayList<>(usadas);
+            for (int i = 0; i < usadas; i++) {
+                lista.add(leerRanura(i));
+            }
+            return lista;
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public synchronized int idMaximo() {
+        try {
+            abrir();
+            indexarNuevas();
+            return indice.maximaClave(GeneradorIds.ID_MAXIMO);
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return -1;
+        }
+    }
+
+    /**
+     * Recorre las ranuras ocupadas al empezar, leyendo cada dispositivo cuando se consume. El
+     * filtro se evalúa directamente sobre los campos fijos de la ranura, sin leer las cadenas.
+     */
+    @Override
+    public Stream<Dispositivo> recorrer(FiltroCabecera filtro) {
+        int usadas;
+        synchronized (this) {
+            try {
+                abrir();
+                usadas = ranuras.getInt(C_USADAS);
+            } catch (IOException e) {
+                errores.increment();
+                e.printStackTrace(); // Log error for debugging
+                return Stream.empty();
+            }
+        }
+        return IntStream.range(0, usadas)
+                .filter(ranura -> filtro == null || aceptaRanura(ranura, filtro))
+                .mapToObj(this::leerRanuraSincronizada);
+    }
+
+    @Override
+    public synchronized boolean comprobarCambiosExternos() {
+        if (ranuras == null || ranuras.getLong(C_SECUENCIA) == secuenciaConocida) {
+            return false;
+        }
+        cerrar();
+        return true;
+    }
+
+    @Override
+    public synchronized void invalidar() {
+        cerrar();
+    }
+
+    @Override
+    public synchronized void setDurabilidad(Durabilidad durabilidad) {
+        this.durabilidad = durabilidad;
+    }
+
+    /**
+     * Las ranuras de los dispositivos borrados no se reutilizan ni se liberan: este almacén no
+     * compacta.
+     *
+     * @return false siempre.
+     */
+    @Override
+    public boolean compactar() {
+        return false;
+    }
+
+    @Override
+    public EstadisticasCompactacion estadisticasCompactacion() {
+        return new EstadisticasCompactacion(0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Devuelve las estadísticas del almacén. Cada dispositivo ocupa una sola ranura, así que no hay
+     * registros obsoletos; los bytes cuentan las ranuras y cadenas leídas y escritas.
+     *
+     * @return Las estadísticas.
+     */
+    @Override
+    public synchronized EstadisticasAlmacen estadisticas() {
+        long dispositivos = 0;
+        long borrados = 0;
+        if (ranuras != null) {
+            dispositivos = usadasConocidas;
+            for (int ranura = 0; ranura < usadasConocidas; ranura++) {
+                if (ranuras.get(base(ranura) + R_BORRADO) != 0) {
+                    borrados++;
+                }
+            }
+        }
+        return new EstadisticasAlmacen(archivo.length() + archivoCadenas.length(), bytesLeidos.sum(),
+                bytesEscritos.sum(), dispositivos, dispositivos, borrados, errores.sum());
+    }
+
+    /**
+     * Fuerza a disco las páginas modificadas de las ranuras y el archivo de cadenas.
+     */
+    @Override
+    public synchronized boolean vaciar() {
+        try {
+            if (ranuras != null) {
+                ranuras.force();
+                canalCadenas.force(false);
+            }
+            return true;
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        }
+    }
+
+    /**
+     * Cierra los archivos. Se vuelven a abrir automáticamente en el próximo acceso.
+     */
+    public synchronized void cerrar() {
+        try {
+            if (canal != null) {
+                canal.close();
+            }
+            if (canalCadenas != null) {
+                canalCadenas.close();
+            }
+        } catch (IOException e) {
+            errores.increment();
+            e.printStackTrace(); // Log error for debugging
+        }
+        canal = null;
+        canalCadenas = null;
+        ranuras = null;
+        indice = null;
+        ubicaciones.clear();
+        leidas.clear();
+    }
+
+    /**
+     * Abre y mapea el archivo la primera vez que se usa, creando la cabecera si es nuevo, y
+     * construye el índice de ID a ranura leyendo solo el campo ID de cada ranura.
+     *
+     * <p>Todo se hace con la cabecera bloqueada, también la comprobación de si el archivo es nuevo:
+     * si dos procesos abren a la vez un archivo que no existe, solo el primero lo inicializa e
+     * importa el origen, y el segundo ya lo encuentra creado.</p>
+     */
+    private void abrir() throws IOException {
+        if (canal != null) {
+            return;
+        }
+        canal = new RandomAccessFile(archivo, "rw").getChannel();
+        try {
+            FileLock bloqueo = canal.lock(0, TAM_CABECERA, false);
+            try {
+                inicializar();
+            } finally {
+                bloqueo.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            cerrar();
+            throw e;
+        }
+    }
+
+    /**
+     * Mapea el archivo ya abierto y bloqueado, creando la cabecera si es nuevo.
+     */
+    private void inicializar() throws IOException {
+        boolean nuevo = canal.size() < TAM_CABECERA;
+        canalCadenas = FileChannel.open(archivoCadenas.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long tamaño = nuevo ? TAM_CABECERA + (long) RANURAS_INICIALES * TAM_RANURA : canal.size();
+        if (tamaño > TAM_CABECERA + (long) MAX_RANURAS * TAM_RANURA) {
+            throw new IOException("El archivo " + archivo + " supera el tamaño máximo de un mapeo (" + tamaño + " bytes)");
+        }
+        ranuras = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamaño);
+        indice = new IndiceIds();
+        usadasConocidas = 0;
+        if (nuevo) {
+            ranuras.putInt(C_MAGICO, MAGICO);
+            ranuras.putInt(C_VERSION, VERSION);
+            ranuras.putInt(C_USADAS, 0);
+            ranuras.putLong(C_SECUENCIA, 0);
+            secuenciaConocida = 0;
+            if (origen != null && origen.exists()) {
+                for (Dispositivo d : new AlmacenDispositivos(origen).cargarTodos()) {
+                    escribirRanura(d);
+                }
+            }
+            return;
+        }
+        if (ranuras.getInt(C_MAGICO) != MAGICO || ranuras.getInt(C_VERSION) != VERSION) {
+            throw new IOException("Formato de archivo no reconocido: " + archivo);
+        }
+        secuenciaConocida = ranuras.getLong(C_SECUENCIA);
+        indexarNuevas();
+    }
+
+    /**
+     * Añade al índice las ranuras ocupadas que todavía no conoce, incluidas las de otros procesos.
+     * Si el archivo ha crecido desde fuera, amplía antes el mapeo.
+     */
+    private void indexarNuevas() throws IOException {
+        int usadas = ranuras.getInt(C_USADAS);
+        asegurarCapacidad(usadas);
+        for (int i = usadasConocidas; i < usadas; i++) {
+            indice.poner(ranuras.getInt(base(i) + R_ID), i);
+        }
+        usadasConocidas = usadas;
+    }
+
+    /**
+     * Abre el almacén y bloquea la cabecera frente a otros procesos.
+     */
+    private FileLock bloquearCabecera() throws IOException {
+        abrir();
+        return canal.lock(0, TAM_CABECERA, false);
+    }
+
+    /**
+     * Escribe todos los campos de un dispositivo en su ranura, reservando una nueva si no tenía.
+     * Las cadenas solo se añaden al archivo de desbordamiento si han cambiado.
+     */
+    private void escribirRanura(Dispositivo d) throws IOException {
+        int ranura = (int) indice.obtener(d.getId(), -1);
+        if (ranura < 0) {
+            indexarNuevas();  // Otro proceso puede haber guardado ya este ID
+            ranura = (int) indice.obtener(d.getId(), -1);
+        }
+        boolean nueva = ranura < 0;
+        if (nueva) {
+            ranura = ranuras.getInt(C_USADAS);
+            asegurarCapacidad(ranura + 1);
+        }
+        int b = base(ranura);
+        ranuras.put(b + R_TIPO, CodecDispositivos.tipoDe(d));
+        ranuras.put(b + R_ESTADO, (byte) (d.isEstado() ? 1 : 0));
+        ranuras.put(b + R_BORRADO, (byte) (d.isBorrado() ? 1 : 0));
+        ranuras.putInt(b + R_ID, d.getId());
+        escribirCadena(b + R_MARCA, d.getMarca(), nueva);
+        escribirCadena(b + R_MODELO, d.getModelo(), nueva);
+        if (d instanceof Impresora) {
+            Impresora i = (Impresora) d;
+            ranuras.putInt(b + R_TIPO_IMPRESORA, i.getTipo());
+            ranuras.put(b + R_COLOR, (byte) (i.isColor() ? 1 : 0));
+            ranuras.put(b + R_SCANNER, (byte) (i.isScanner() ? 1 : 0));
+        } else if (d instanceof Ordenador) {
+            Ordenador o = (Ordenador) d;
+            ranuras.putInt(b + R_RAM, o.getRam());
+            ranuras.putInt(b + R_TAM_DISCO, o.getTamDisco());
+            ranuras.putInt(b + R_TIPO_DISCO, o.getTipoDisco());
+            escribirCadena(b + R_PROCESADOR, o.getProcesador(), nueva);
+        }
+        bytesEscritos.add(TAM_RANURA);
+        if (nueva) {
+            ranuras.putInt(C_USADAS, ranura + 1);  // La ranura solo cuenta cuando ya está completa
+            indice.poner(d.getId(), ranura);
+            usadasConocidas = ranura + 1;
+        }
+        incrementarSecuencia();
+    }
+
+    private synchronized boolean aceptaRanura(int ranura, FiltroCabecera filtro) {
+        try {
+            abrir();
+            int base = base(ranura);
+            return filtro.acepta(ranuras.get(base + R_TIPO), ranuras.getInt(base + R_ID),
+                    ranuras.get(base + R_ESTADO) != 0, ranuras.get(base + R_BORRADO) != 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized Dispositivo leerRanuraSincronizada(int ranura) {
+        try {
+            abrir();  // Puede haberse invalidado mientras se recorría
+            return leerRanura(ranura);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Dispositivo leerRanura(int ranura) throws IOException {
+        bytesLeidos.add(TAM_RANURA);
+        int b = base(ranura);
+        int id = ranuras.getInt(b + R_ID);
+        boolean estado = ranuras.get(b + R_ESTADO) != 0;
+        String marca = leerCadena(b + R_MARCA);
+        String modelo = leerCadena(b + R_MODELO);
+        Dispositivo d;
+        switch (ranuras.get(b + R_TIPO)) {
+            case CodecDispositivos.TIPO_IMPRESORA:
+                d = new Impresora(id, ranuras.getInt(b + R_TIPO_IMPRESORA), ranuras.get(b + R_COLOR) != 0,
+                        ranuras.get(b + R_SCANNER) != 0, marca, modelo, estado);
+                break;
+            case CodecDispositivos.TIPO_ORDENADOR:
+                d = new Ordenador(id, ranuras.getInt(b + R_RAM), leerCadena(b + R_PROCESADOR),
+                        ranuras.getInt(b + R_TAM_DISCO), ranuras.getInt(b + R_TIPO_DISCO), marca, modelo, estado);
+                break;
+            default:
+                d = new Dispositivo(id, marca, modelo, estado);
+        }
+        d.setBorrado(ranuras.get(b + R_BORRADO) != 0);
+        return d;
+    }
+
+    private void escribirCadena(int posicion, String s, boolean nueva) throws IOException {
+        if (!nueva && Objects.equals(s, leerCadena(posicion))) {
+            return;
+        }
+        if (s == null) {
+            ranuras.putLong(posicion, 0);
+            ranuras.putInt(posicion + 8, -1);
+            return;
+        }
+        Ubicacion ubicacion = ubicaciones.get(s);
+        if (ubicacion == null) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            ubicacion = new Ubicacion(canalCadenas.size(), bytes.length);
+            canalCadenas.write(ByteBuffer.wrap(bytes), ubicacion.posicion);
+            bytesEscritos.add(bytes.length);
+            recordar(s, ubicacion);
+        }
+        ranuras.putLong(posicion, ubicacion.posicion);
+        ranuras.putInt(posicion + 8, ubicacion.longitud);
+    }
+
+    private String leerCadena(int posicion) throws IOException {
+        long origenCadena = ranuras.getLong(posicion);
+        int longitud = ranuras.getInt(posicion + 8);
+        if (longitud < 0) {
+            return null;
+        }
+        String conocida = leidas.get(origenCadena);
+        if (conocida != null) {
+            return conocida;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(longitud);
+        while (buffer.hasRemaining()) {
+            if (canalCadenas.read(buffer, origenCadena + buffer.position()) < 0) {
+                throw new IOException("Archivo de cadenas incompleto: " + archivoCadenas);
+            }
+        }
+        bytesLeidos.add(longitud);
+        String cadena = DiccionarioCadenas.canonica(new String(buffer.array(), StandardCharsets.UTF_8));
+        recordar(cadena, new Ubicacion(origenCadena, longitud));
+        return cadena;
+    }
+
+    /**
+     * Recuerda dónde está escrita una cadena, si queda sitio en las tablas.
+     */
+    private void recordar(String cadena, Ubicacion ubicacion) {
+        if (leidas.size() < DiccionarioCadenas.MAXIMO) {
+            leidas.putIfAbsent(ubicacion.posicion, cadena);
+            ubicaciones.putIfAbsent(cadena, ubicacion);
+        }
+    }
+
+    /**
+     * Posición y longitud de una cadena en el archivo de cadenas.
+     */
+    private static final class Ubicacion {
+        final long posicion;
+        final int longitud;
+
+        Ubicacion(long posicion, int longitud) {
+            this.posicion = posicion;
+            this.longitud = longitud;
+        }
+    }
+
+    /**
+     * Amplía el mapeo (duplicando su tamaño, hasta el máximo de un mapeo) si no caben las ranuras
+     * indicadas.
+     *
+     * @throws IOException Si no caben en un único mapeo.
+     */
+    private void asegurarCapacidad(int numRanuras) throws IOException {
+        long necesario = TAM_CABECERA + (long) numRanuras * TAM_RANURA;
+        if (necesario <= ranuras.capacity()) {
+            return;
+        }
+        if (numRanuras > MAX_RANURAS) {
+            throw new IOException("No caben más dispositivos en " + archivo + ": el máximo es " + MAX_RANURAS
+                    + " ranuras, incluidas las de los borrados");
+        }
+        long tamaño = Math.min(Math.max(necesario, 2L * ranuras.capacity()), TAM_CABECERA + (long) MAX_RANURAS * TAM_RANURA);
+        ranuras.force();
+        ranuras = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamaño);
+    }
+
+    /**
+     * Aumenta el contador de secuencia de la cabecera, forzando los cambios a disco si la política
+     * es {@link Durabilidad#SINCRONA}. Debe llamarse con la cabecera bloqueada, tras cada escritura.
+     */
+    private void incrementarSecuencia() throws IOException {
+        secuenciaConocida = ranuras.getLong(C_SECUENCIA) + 1;
+        ranuras.putLong(C_SECUENCIA, secuenciaConocida);
+        if (durabilidad == Durabilidad.SINCRONA) {
+            ranuras.force();
+            canalCadenas.force(false);
+        }
+    }
+
+    /**
+     * Devuelve la posición de una ranura en el mapeo. Se calcula como {@code long} para que una
+     * ranura fuera del mapeo falle en lugar de dar una posición negativa o de otra ranura.
+     */
+    private static int base(int ranura) {
+        return Math.toIntExact(TAM_CABECERA + (long) ranura * TAM_RANURA);
+    }
+}
@@ -0,0 +1,334 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Publicación de los cambios de un {@link RepositorioDispositivos} (change data capture): cada
+ * alta, modificación, cambio de estado y borrado genera un {@link EventoDispositivo} con el
+ * dispositivo antes y después.
+ *
+ * <p>Los eventos se dejan en un búfer circular de {@code dispositivos.cambios.capacidad} eventos
+ * (8192 por defecto, redondeado a potencia de 2) sin cerrojos: cada escritura toma el siguiente
+ * número de secuencia con una operación atómica y publica el evento en su hueco, y cada
+ * {@link Suscripcion} lo lee con su propio cursor. Las escrituras nunca esperan a los
+ * suscriptores: si uno se queda más de una vuelta atrás, pierde los eventos más antiguos y lo
+ * indica {@link Suscripcion#getPerdidos()}.</p>
+ *
+ * <p>Con {@code -Ddispositivos.cambios.diario=true} los eventos se guardan además en un
+ * {@link DiarioCambios} ({@code .cambios} junto al archivo de datos), que otros sistemas pueden
+ * leer desde la última posición que leyeron. Lo escribe un hilo propio por lotes, como suscriptor
+ * que no puede perder eventos: si va una vuelta entera por detrás, las escrituras del repositorio
+ * esperan. Con {@link RepositorioDispositivos#vaciar()} y al cerrar la JVM se escriben y se
+ * fuerzan a disco los eventos pendientes; si el programa termina de forma abrupta se pueden
+ * perder los últimos, como con {@link Durabilidad#LOTE}. Las secuencias continúan las del
+ * diario; sin él, empiezan en 0 en cada ejecución. Si el diario no se puede abrir (por ejemplo,
+ * porque lo está escribiendo otro proceso), se informa del error y se sigue sin él.</p>
+ *
+ * <p>Sin suscriptores ni diario no se genera ningún evento, así que las escrituras no cuestan
+ * nada más. Los cambios hechos por otros procesos sobre el mismo archivo no generan eventos.</p>
+ *
+ * @author Frxnker
+ */
+public class CambiosDispositivos {
+
+    public static final String PROPIEDAD_DIARIO = "dispositivos.cambios.diario";
+
+    private static final int CAPACIDAD = Integer.highestOneBit(Math.max(2, Integer.getInteger("dispositivos.cambios.capacidad", 8192)));
+    private static final int MAXIMO_LOTE = 1024;  // Eventos por escritura del diario
+    private static final long ESPERA_DIARIO = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long ESPERA_VACIADO = TimeUnit.SECONDS.toNanos(10);
+
+    private final File archivoDiario;
+    private final AtomicReferenceArray<EventoDispositivo> anillo = new AtomicReferenceArray<>(CAPACIDAD);
+    private final AtomicLong siguiente;  // Secuencia del siguiente evento
+    private final CopyOnWriteArrayList<Suscripcion> suscripciones = new CopyOnWriteArrayList<>();
+    private final DiarioCambios diario;
+    private final Suscripcion escritor;  // Cursor del hilo que escribe el diario
+    private volatile boolean diarioActivo;
+    private volatile long escritos;  // Secuencia del primer evento que no está en el diario
+
+    /**
+     * Constructor. Abre el diario si está activado con {@code dispositivos.cambios.diario}.
+     *
+     * @param archivoDiario Archivo del diario de cambios.
+     */
+    CambiosDispositivos(File archivoDiario) {
+        this.archivoDiario = archivoDiario;
+        DiarioCambios abierto = null;
+        if (Boolean.getBoolean(PROPIEDAD_DIARIO)) {
+            try {
+                abierto = new DiarioCambios(archivoDiario);
+            } catch (IOException e) {
+                e.printStackTrace(); // Log error for debugging
+            }
+        }
+        this.diario = abierto;
+        this.siguiente = new AtomicLong(diario == null ? 0 : diario.ultimaSecuencia() + 1);
+        this.escritos = siguiente.get();
+        if (diario == null) {
+            this.escritor = null;
+            return;
+        }
+        this.escritor = suscribir();
+        this.diarioActivo = true;
+        Thread hilo = new Thread(this::escribirDiario, "diario-cambios");
+        hilo.setDaemon(true);
+        hilo.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::vaciar, "diario-cambios-final"));
+    }
+
+    /**
+     * @return true si hay algún suscriptor o diario, es decir, si se deben generar eventos.
+     */
+    boolean activo() {
+        return diarioActivo || !suscripciones.isEmpty();
+    }
+
+    /**
+     * Publica un evento. Se llama con el cerrojo del ID en el repositorio, así que los eventos de
+     * un mismo dispositivo se publican en el orden de los cambios.
+     *
+     * @param tipo Tipo de cambio.
+     * @param id ID del dispositivo.
+     * @param antes El dispositivo antes del cambio codificado, o null.
+     * @param despues El dispositivo después del cambio codificado, o null.
+     */
+    void publicar(EventoDispositivo.Tipo tipo, int id, byte[] antes, byte[] despues) {
+        long secuencia = siguiente.getAndIncrement();
+        while (diarioActivo && secuencia - escritor.cursor >= CAPACIDAD) {
+            LockSupport.parkNanos(ESPERA_DIARIO);  // El diario no puede perder eventos
+        }
+        EventoDispositivo evento = new EventoDispositivo(secuencia, System.currentTimeMillis(), tipo, id, antes, despues);
+        int hueco = (int) secuencia & (CAPACIDAD - 1);
+        EventoDispositivo anterior = anillo.get(hueco);
+        while ((anterior == null || anterior.getSecuencia() < secuencia) && !anillo.compareAndSet(hueco, anterior, evento)) {
+            anterior = anillo.get(hueco);  // Si ya hay uno posterior, este se ha perdido para todos
+        }
+        for (Suscripcion suscripcion : suscripciones) {
+            LockSupport.unpark(suscripcion.esperando);
+        }
+    }
+
+    /**
+     * Crea una suscripción que recibe los eventos publicados a partir de ahora. La debe leer un
+     * solo hilo.
+     *
+     * @return La suscripción; hay que cerrarla cuando ya no se use.
+     */
+    public Suscripcion suscribir() {
+        Suscripcion suscripcion = new Suscripcion(siguiente.get());
+        suscripciones.add(suscripcion);
+        return suscripcion;
+    }
+
+    /**
+     * Entrega los eventos publicados a partir de ahora a una función, en un hilo propio y en orden.
+     * Si la función lanza una excepción, se informa y se sigue con el siguiente evento.
+     *
+     * @param destino Función que recibe los eventos.
+     * @return La suscripción; al cerrarla termina el hilo.
+     */
+    public Suscripcion suscribir(Consumer<EventoDispositivo> destino) {
+        Suscripcion suscripcion = suscribir();
+        Thread hilo = new Thread(() -> {
+            try {
+                while (!suscripcion.cerrada) {
+                    EventoDispositivo evento = suscripcion.esperar(1, TimeUnit.SECONDS);
+                    if (evento != null) {
+                        try {
+                            destino.accept(evento);
+                        } catch (RuntimeException e) {
+                            e.printStackTrace(); // Log error for debugging
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "suscriptor-cambios");
+        hilo.setDaemon(true);
+        hilo.start();
+        return suscripcion;
+    }
+
+    /**
+     * @return El diario de cambios de este proceso, o null si no está activado.
+     */
+    public DiarioCambios diario() {
+        return diario;
+    }
+
+    /**
+     * Lee eventos del diario a partir de una posición: del de este proceso si está activado o, si
+     * no, del archivo que escribe otro proceso.
+     *
+     * @param posicion Posición devuelta por una lectura anterior, o 0 para empezar por el principio.
+     * @param maximo Número máximo de eventos.
+     * @return Los eventos y la posición desde la que seguir leyendo.
+     * @throws IOException Si no hay diario o se produce un error de lectura.
+     * @throws IllegalArgumentException Si la posición no es el principio de un evento.
+     */
+    public DiarioCambios.Tramo leerDiario(long posicion, int maximo) throws IOException {
+        return diario != null ? diario.leer(posicion, maximo) : DiarioCambios.leer(archivoDiario, posicion, maximo);
+    }
+
+    /**
+     * Espera a que los eventos publicados hasta ahora estén en el diario y lo fuerza a disco.
+     *
+     * @return true si no hay diario o se ha vaciado, false si ha fallado o no ha terminado a tiempo.
+     */
+    boolean vaciar() {
+        if (diario == null) {
+            return true;
+        }
+        long objetivo = siguiente.get();
+        long limite = System.nanoTime() + ESPERA_VACIADO;
+        while (diarioActivo && escritos < objetivo && System.nanoTime() < limite) {
+            LockSupport.parkNanos(ESPERA_DIARIO);
+        }
+        if (escritos < objetivo) {
+            return false;
+        }
+        try {
+            diario.forzar();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        }
+    }
+
+    /**
+     * Bucle del hilo del diario: escribe juntos todos los eventos disponibles, hasta
+     * {@code MAXIMO_LOTE}. Si falla una escritura deja de escribir el diario, para no bloquear las
+     * escrituras del repositorio.
+     */
+    private void escribirDiario() {
+        List<EventoDispositivo> lote = new ArrayList<>(MAXIMO_LOTE);
+        try {
+            while (true) {
+                EventoDispositivo evento = escritor.esperar(1, TimeUnit.SECONDS);
+                if (evento == null) {
+                    continue;
+                }
+                lote.add(evento);
+                while (lote.size() < MAXIMO_LOTE && (evento = escritor.siguiente()) != null) {
+                    lote.add(evento);
+                }
+                diario.añadir(lote);
+                escritos = escritor.cursor;
+                lote.clear();
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            diarioActivo = false;
+            escritor.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lector de los eventos del búfer, con su propio cursor.
+     */
+    public final class Suscripcion implements AutoCloseable {
+
+        private volatile long cursor;  // Secuencia del siguiente evento que se entrega
+        private volatile long perdidos;
+        private volatile Thread esperando;
+        private volatile boolean cerrada;
+
+        private Suscripcion(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Devuelve el siguiente evento sin esperar.
+         *
+         * @return El evento, o null si todavía no se ha publicado o la suscripción está cerrada.
+         */
+        public EventoDispositivo siguiente() {
+            while (!cerrada) {
+                long esperado = cursor;
+                EventoDispositivo evento = anillo.get((int) esperado & (CAPACIDAD - 1));
+                if (evento == null || evento.getSecuencia() < esperado) {
+                    return null;
+                }
+                if (evento.getSecuencia() == esperado) {
+                    cursor = esperado + 1;
+                    return evento;
+                }
+                // El hueco ya tiene un evento de otra vuelta: se salta a los que quedan en el búfer
+                long primero = Math.max(esperado + 1, siguiente.get() - CAPACIDAD);
+                perdidos += primero - esperado;
+                cursor = primero;
+            }
+            return null;
+        }
+
+        /**
+         * Devuelve el siguiente evento, esperando a que se publique.
+         *
+         * @param tiempo Tiempo máximo de espera.
+         * @param unidad Unidad del tiempo.
+         * @return El evento, o null si no se ha publicado ninguno a tiempo o la suscripción está
+         *         cerrada.
+         * @throws InterruptedException Si se interrumpe el hilo mientras espera.
+         */
+        public EventoDispositivo esperar(long tiempo, TimeUnit unidad) throws InterruptedException {
+            long limite = System.nanoTime() + unidad.toNanos(tiempo);
+            EventoDispositivo evento;
+            while ((evento = siguiente()) == null && !cerrada) {
+                long restante = limite - System.nanoTime();
+                if (restante <= 0) {
+                    return null;
+                }
+                esperando = Thread.currentThread();
+                evento = siguiente();  // Por si se ha publicado antes de anotar el hilo
+                if (evento != null) {
+                    esperando = null;
+                    return evento;
+                }
+                LockSupport.parkNanos(this, restante);
+                esperando = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return evento;
+        }
+
+        /**
+         * @return Secuencia del siguiente evento que se entregará.
+         */
+        public long getSecuencia() {
+            return cursor;
+        }
+
+        /**
+         * @return Número de eventos que se han perdido por no leerlos a tiempo.
+         */
+        public long getPerdidos() {
+            return perdidos;
+        }
+
+        /**
+         * Deja de recibir eventos.
+         */
+        @Override
+        public void close() {
+            cerrada = true;
+            suscripciones.remove(this);
+            LockSupport.unpark(esperando);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codificación binaria compacta de dispositivos, usada por {@link AlmacenDispositivos} en lugar de
+ * la serialización de Java.
+ *
+ * <p>Cada dispositivo se escribe como una etiqueta de tipo seguida de sus campos fijos y de las
+ * cadenas con longitud previa en UTF-8:</p>
+ * <ul>
+ *   <li>Común: tipo (byte), id (int), estado (boolean), borrado (boolean), marca, modelo.</li>
+ *   <li>{@link Impresora}: tipo (int), color (boolean), scanner (boolean).</li>
+ *   <li>{@link Ordenador}: ram (int), procesador, tamDisco (int), tipoDisco (int).</li>
+ * </ul>
+ *
+ * <p>Con una {@link TablaCadenas} (formato 4 de {@link AlmacenDispositivos}), cada cadena se
+ * escribe como un entero: su código en la tabla si es 0 o más, -1 si es null y, si no está en la
+ * tabla, {@code -2 - longitud} seguido de sus bytes en UTF-8.</p>
+ *
+ * @author Frxnker
+ */
+public class CodecDispositivos {
+
+    public static final byte TIPO_DISPOSITIVO = 0;
+    public static final byte TIPO_IMPRESORA = 1;
+    public static final byte TIPO_ORDENADOR = 2;
+
+    private CodecDispositivos() {
+        // Clase de utilidades, no se instancia
+    }
+
+    /**
+     * Codifica un dispositivo en un array de bytes.
+     *
+     * @param d Dispositivo a codificar.
+     * @return Los bytes del dispositivo.
+     * @throws IOException Si se produce un error de escritura.
+     */
+    public static byte[] codificar(Dispositivo d) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        escribir(new DataOutputStream(buffer), d);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Decodifica un dispositivo a partir de un array de bytes.
+     *
+     * @param datos Los bytes del dispositivo.
+     * @return El dispositivo decodificado.
+     * @throws IOException Si los datos no son válidos.
+     */
+    public static Dispositivo decodificar(byte[] datos) throws IOException {
+        return leer(new DataInputStream(new ByteArrayInputStream(datos)));
+    }
+
+    /**
+     * Codifica un dispositivo usando los códigos de una tabla de cadenas para las cadenas que
+     * están en ella.
+     *
+     * @param d Dispositivo a codificar.
+     * @param tabla Tabla de cadenas del archivo.
+     * @return Los bytes del dispositivo.
+     * @throws IOException Si se produce un error de escritura.
+     */
+    static byte[] codificar(Dispositivo d, TablaCadenas tabla) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(32);
+        escribir(new DataOutputStream(buffer), d, tabla);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Decodifica un dispositivo codificado con {@link #codificar(Dispositivo, TablaCadenas)}.
+     *
+     * @param datos Los bytes del dispositivo.
+     * @param tabla Tabla de cadenas del archivo.
+     * @return El dispositivo decodificado, con las cadenas de la tabla compartidas.
+     * @throws IOException Si los datos no son válidos o usan un código que no está en la tabla.
+     */
+    static Dispositivo decodificar(byte[] datos, TablaCadenas tabla) throws IOException {
+        return leer(new DataInputStream(new ByteArrayInputStream(datos)), tabla);
+    }
+
+    /**
+     * Evalúa un filtro sobre los campos fijos del principio de un dispositivo codificado (tipo, id,
+     * estado y borrado), sin decodificar el resto.
+     *
+     * @param datos Los bytes del dispositivo.
+     * @param borrado true si el dispositivo está borrado por otra vía (una marca de borrado en el
+     *                almacén), aunque sus datos no lo indiquen.
+     * @param filtro El filtro.
+     * @return El resultado del filtro.
+     */
+    public static boolean aceptaCabecera(byte[] datos, boolean borrado, FiltroCabecera filtro) {
+        ByteBuffer campos = ByteBuffer.wrap(datos);
+        return filtro.acepta(campos.get(0), campos.getInt(1), campos.get(5) != 0, borrado || campos.get(6) != 0);
+    }
+
+    /**
+     * Escribe un dispositivo en la salida indicada.
+     *
+     * @param out Salida de datos.
+     * @param d Dispositivo a escribir.
+     * @throws IOException Si se produce un error de escritura.
+     */
+    public static void escribir(DataOutput out, Dispositivo d) throws IOException {
+        escribir(out, d, null);
+    }
+
+    private static void escribir(DataOutput out, Dispositivo d, TablaCadenas tabla) throws IOException {
+        out.writeByte(tipoDe(d));
+        out.writeInt(d.getId());
+        out.writeBoolean(d.isEstado());
+        out.writeBoolean(d.isBorrado());
+        escribirCadena(out, d.getMarca(), tabla);
+        escribirCadena(out, d.getModelo(), tabla);
+        if (d instanceof Impresora) {
+            Impresora i = (Impresora) d;
+            out.writeInt(i.getTipo());
+            out.writeBoolean(i.isColor());
+            out.writeBoolean(i.isScanner());
+        } else if (d instanceof Ordenador) {
+            Ordenador o = (Ordenador) d;
+            out.writeInt(o.getRam());
+            escribirCadena(out, o.getProcesador(), tabla);
+            out.writeInt(o.getTamDisco());
+            out.writeInt(o.getTipoDisco());
+        }
+    }
+
+    /**
+     * Lee un dispositivo de la entrada indicada.
+     *
+     * @param in Entrada de datos.
+     * @return El dispositivo leído, del tipo indicado por su etiqueta.
+     * @throws IOException Si los datos no son válidos.
+     */
+    public static Dispositivo leer(DataInput in) throws IOException {
+        return leer(in, null);
+    }
+
+    private static Dispositivo leer(DataInput in, TablaCadenas tabla) throws IOException {
+        byte tipo = in.readByte();
+        int id = in.readInt();
+        boolean estado = in.readBoolean();
+        boolean borrado = in.readBoolean();
+        String marca = leerCadena(in, tabla);
+        String modelo = leerCadena(in, tabla);
+        Dispositivo d;
+        switch (tipo) {
+            case TIPO_DISPOSITIVO:
+                d = new Dispositivo(id, marca, modelo, estado);
+                break;
+            case TIPO_IMPRESORA:
+                d = new Impresora(id, in.readInt(), in.readBoolean(), in.readBoolean(), marca, modelo, estado);
+                break;
+            case TIPO_ORDENADOR:
+                d = new Ordenador(id, in.readInt(), leerCadena(in, tabla), in.readInt(), in.readInt(), marca, modelo, estado);
+                break;
+            default:
+                throw new IOException("Tipo de dispositivo desconocido: " + tipo);
+        }
+        d.setBorrado(borrado);
+        return d;
+    }
+
+    /**
+     * Devuelve la etiqueta de tipo de un dispositivo.
+     *
+     * @param d El dispositivo.
+     * @return {@link #TIPO_IMPRESORA}, {@link #TIPO_ORDENADOR} o {@link #TIPO_DISPOSITIVO}.
+     */
+    public static byte tipoDe(Dispositivo d) {
+        if (d instanceof Impresora) {
+            return TIPO_IMPRESORA;
+        } else if (d instanceof Ordenador) {
+            return TIPO_ORDENADOR;
+        }
+        return TIPO_DISPOSITIVO;
+    }
+
+    /**
+     * Escribe una cadena: sin tabla, su longitud (o -1 si es null) y sus bytes; con tabla, como se
+     * describe en la clase.
+     */
+    private static void escribirCadena(DataOutput out, String s, TablaCadenas tabla) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        int codigo = tabla == null ? TablaCadenas.SIN_CODIGO : tabla.codigo(s);
+        if (codigo >= 0) {
+            out.writeInt(codigo);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(tabla == null ? bytes.length : -2 - bytes.length);
+        out.write(bytes);
+    }
+
+    private static String leerCadena(DataInput in, TablaCadenas tabla) throws IOException {
+        int valor = in.readInt();
+        if (valor == -1) {
+            return null;
+        }
+        if (tabla != null && valor >= 0) {
+            return tabla.cadena(valor);
+        }
+        int longitud = tabla == null ? valor : -2 - valor;
+        if (longitud < 0) {
+            throw new IOException("Longitud de cadena no válida: " + longitud);
+        }
+        byte[] bytes = new byte[longitud];
+        in.readFully(bytes);
+        return DiccionarioCadenas.canonica(new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,419 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Consulta sobre los dispositivos de un {@link RepositorioDispositivos}, construida encadenando
+ * condiciones, tipo, orden, límite y proyección:
+ *
+ * <pre>
+ * ArrayList&lt;String&gt; modelos = Ordenador.consultar()
+ *         .estado(true).ramEntre(16, 64)
+ *         .ordenarPor(Comparator.comparing(Dispositivo::getMarca)).limite(10)
+ *         .seleccionar(Dispositivo::getModelo);
+ * </pre>
+ *
+ * <p>Plan de ejecución (ver {@link #plan()}):</p>
+ * <ul>
+ *   <li>Si la caché del repositorio está completa, los candidatos se obtienen combinando los
+ *   {@link IndicesSecundarios} de las condiciones que tienen índice, sin recorrer el resto.</li>
+ *   <li>Si no, se recorre el almacén pasándole un {@link FiltroCabecera} con el tipo, el estado y
+ *   el borrado, que se evalúa antes de decodificar cada registro.</li>
+ * </ul>
+ * <p>En ambos casos los candidatos se comprueban después con todas las condiciones, incluidas las
+ * de {@link #donde(Predicate)}. Salvo que se indique un orden, los resultados salen por ID con los
+ * índices o en el orden del archivo al recorrerlo. Los dispositivos borrados se excluyen salvo que
+ * se llame a {@link #incluirBorrados()}.</p>
+ *
+ * @author Frxnker
+ */
+public class ConsultaDispositivos {
+
+    private final RepositorioDispositivos repositorio;
+    private Class<? extends Dispositivo> tipo;  // null para cualquier tipo
+    private String marca;
+    private String modelo;
+    private int claveMarca;   // Código de DiccionarioCadenas de cada filtro, para comparar enteros
+    private int claveModelo;
+    private Boolean estado;
+    private Boolean color;
+    private Boolean scanner;
+    private Integer tipoDisco;
+    private int ramMinima = Integer.MIN_VALUE;
+    private int ramMaxima = Integer.MAX_VALUE;
+    private int discoMinimo = Integer.MIN_VALUE;
+    private int discoMaximo = Integer.MAX_VALUE;
+    private boolean filtraRam = false;
+    private boolean filtraDisco = false;
+    private boolean incluirBorrados = false;
+    private final List<Predicate<Dispositivo>> condiciones = new ArrayList<>();
+    private Comparator<Dispositivo> orden;
+    private long limite = Long.MAX_VALUE;
+
+    /**
+     * Constructor de la consulta, usar {@link RepositorioDispositivos#consulta()}.
+     *
+     * @param repositorio Repositorio consultado.
+     */
+    ConsultaDispositivos(RepositorioDispositivos repositorio) {
+        this.repositorio = repositorio;
+    }
+
+    /**
+     * Limita la consulta a un tipo exacto: {@link Impresora}, {@link Ordenador} o
+     * {@link Dispositivo} (los que no son de ningún subtipo).
+     *
+     * @param tipo El tipo.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos tipo(Class<? extends Dispositivo> tipo) {
+        this.tipo = tipo;
+        return this;
+    }
+
+    /**
+     * Filtra por marca, sin distinguir mayúsculas.
+     *
+     * @param marca La marca.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos marca(String marca) {
+        this.marca = marca;
+        this.claveMarca = DiccionarioCadenas.clave(marca);
+        return this;
+    }
+
+    /**
+     * Filtra por modelo, sin distinguir mayúsculas.
+     *
+     * @param modelo El modelo.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos modelo(String modelo) {
+        this.modelo = modelo;
+        this.claveModelo = DiccionarioCadenas.clave(modelo);
+        return this;
+    }
+
+    /**
+     * Filtra por estado.
+     *
+     * @param estado true para los encendidos, false para los apagados.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos estado(boolean estado) {
+        this.estado = estado;
+        return this;
+    }
+
+    /**
+     * Filtra impresoras por color. Solo devuelve impresoras.
+     *
+     * @param color true para las de color, false para las de blanco y negro.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos color(boolean color) {
+        this.color = color;
+        return this;
+    }
+
+    /**
+     * Filtra impresoras por escáner. Solo devuelve impresoras.
+     *
+     * @param scanner true para las que tienen escáner.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos scanner(boolean scanner) {
+        this.scanner = scanner;
+        return this;
+    }
+
+    /**
+     * Filtra ordenadores por tipo de disco. Solo devuelve ordenadores.
+     *
+     * @param tipoDisco El tipo de disco (0 para HDD, 1 para SSD).
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos tipoDisco(int tipoDisco) {
+        this.tipoDisco = tipoDisco;
+        return this;
+    }
+
+    /**
+     * Filtra ordenadores por RAM. Solo devuelve ordenadores.
+     *
+     * @param minima RAM mínima en GB, incluida.
+     * @param maxima RAM máxima en GB, incluida.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos ramEntre(int minima, int maxima) {
+        this.ramMinima = minima;
+        this.ramMaxima = maxima;
+        this.filtraRam = true;
+        return this;
+    }
+
+    /**
+     * Filtra ordenadores por tamaño de disco. Solo devuelve ordenadores.
+     *
+     * @param minimo Tamaño mínimo en GB, incluido.
+     * @param maximo Tamaño máximo en GB, incluido.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos tamDiscoEntre(int minimo, int maximo) {
+        this.discoMinimo = minimo;
+        this.discoMaximo = maximo;
+        this.filtraDisco = true;
+        return this;
+    }
+
+    /**
+     * Incluye también los dispositivos marcados como borrados.
+     *
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos incluirBorrados() {
+        this.incluirBorrados = true;
+        return this;
+    }
+
+    /**
+     * Añade una condición cualquiera, que se evalúa sobre los candidatos ya decodificados.
+     *
+     * @param condicion La condición.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos donde(Predicate<Dispositivo> condicion) {
+        condiciones.add(condicion);
+        return this;
+    }
+
+    /**
+     * Ordena los resultados.
+     *
+     * @param orden El criterio de orden.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos ordenarPor(Comparator<Dispositivo> orden) {
+        this.orden = orden;
+        return this;
+    }
+
+    /**
+     * Limita el número de resultados. Sin orden, el recorrido se detiene al alcanzar el límite.
+     *
+     * @param limite Número máximo de resultados.
+     * @return Esta consulta.
+     */
+    public ConsultaDispositivos limite(long limite) {
+        this.limite = limite;
+        return this;
+    }
+
+    /**
+     * Ejecuta la consulta.
+     *
+     * @return Los dispositivos que cumplen las condiciones.
+     */
+    public ArrayList<Dispositivo> ejecutar() {
+        try (Stream<Dispositivo> resultados = flujo()) {
+            return resultados.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    /**
+     * Ejecuta la consulta y devuelve solo la parte de cada dispositivo indicada.
+     *
+     * @param <T> Tipo de la proyección.
+     * @param proyeccion Función que extrae el valor de cada dispositivo.
+     * @return Los valores, en el orden de los resultados.
+     */
+    public <T> ArrayList<T> seleccionar(Function<? super Dispositivo, ? extends T> proyeccion) {
+        try (Stream<Dispositivo> resultados = flujo()) {
+            return resultados.map(proyeccion).collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    /**
+     * Cuenta los resultados de la consulta, respetando el límite.
+     *
+     * @return El número de resultados.
+     */
+    public long contar() {
+        try (Stream<Dispositivo> resultados = flujo()) {
+            return resultados.count();
+        }
+    }
+
+    /**
+     * Describe cómo se ejecutaría la consulta en este momento.
+     *
+     * @return La descripción del plan.
+     */
+    public String plan() {
+        StringBuilder plan = new StringBuilder();
+        if (repositorio.cacheCompleta()) {
+            plan.append("índices secundarios");
+        } else {
+            plan.append("recorrido del almacén con filtro de cabecera");
+        }
+        plan.append(", comprobación de condiciones");
+        if (orden != null) {
+            plan.append(", ordenación");
+        }
+        if (limite != Long.MAX_VALUE) {
+            plan.append(", límite ").append(limite);
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Construye el flujo de resultados según el plan. Debe cerrarse al terminar.
+     */
+    private Stream<Dispositivo> flujo() {
+        Stream<Dispositivo> candidatos;
+        if (repositorio.cacheCompleta()) {
+            candidatos = repositorio.recorrerDe(candidatosPorIndices());
+        } else {
+            candidatos = repositorio.recorrer(filtroCabecera());
+        }
+        Stream<Dispositivo> resultados = candidatos.filter(this::cumple);
+        if (orden != null) {
+            resultados = resultados.sorted(orden);
+        }
+        return resultados.limit(limite);
+    }
+
+    /**
+     * Combina los índices de las condiciones que tienen uno.
+     */
+    private BitSet candidatosPorIndices() {
+        IndicesSecundarios indices = repositorio.indices();
+        BitSet ids = incluirBorrados ? indices.todos() : indices.vigentes();
+        if (tipo != null) {
+            ids.and(indices.porClase(tipo));
+        }
+        if (marca != null) {
+            ids.and(indices.porMarca(marca));
+        }
+        if (modelo != null) {
+            ids.and(indices.porModelo(modelo));
+        }
+        if (estado != null) {
+            ids.and(indices.porEstado(estado));
+        }
+        if (color != null || scanner != null) {
+            ids.and(indices.porClase(Impresora.class));
+            filtrarIndicador(ids, color, indices.conColor());
+            filtrarIndicador(ids, scanner, indices.conScanner());
+        }
+        if (tipoDisco != null) {
+            ids.and(indices.porTipoDisco(tipoDisco));
+        }
+        if (filtraRam) {
+            ids.and(indices.porRam(ramMinima, ramMaxima));
+        }
+        if (filtraDisco) {
+            ids.and(indices.porTamDisco(discoMinimo, discoMaximo));
+        }
+        return ids;
+    }
+
+    private static void filtrarIndicador(BitSet ids, Boolean valor, BitSet conIndicador) {
+        if (valor == null) {
+            return;
+        }
+        if (valor) {
+            ids.and(conIndicador);
+        } else {
+            ids.andNot(conIndicador);
+        }
+    }
+
+    /**
+     * Filtro de los campos fijos que el almacén evalúa antes de decodificar.
+     */
+    private FiltroCabecera filtroCabecera() {
+        byte tipoRequerido = tipoRequerido();
+        return (tipoLeido, id, estadoLeido, borrado) -> (incluirBorrados || !borrado)
+                && (estado == null || estadoLeido == estado)
+                && (tipoRequerido < 0 || tipoLeido == tipoRequerido);
+    }
+
+    /**
+     * Devuelve la etiqueta del tipo indicado o implícito en las condiciones, o -1 si es cualquiera.
+     */
+    private byte tipoRequerido() {
+        if (tipo == Impresora.class || (tipo == null && (color != null || scanner != null))) {
+            return CodecDispositivos.TIPO_IMPRESORA;
+        }
+        if (tipo == Ordenador.class || (tipo == null && (tipoDisco != null || filtraRam || filtraDisco))) {
+            return CodecDispositivos.TIPO_ORDENADOR;
+        }
+        if (tipo == Dispositivo.class) {
+            return CodecDispositivos.TIPO_DISPOSITIVO;
+        }
+        return -1;
+    }
+
+    /**
+     * Comprueba todas las condiciones sobre un dispositivo decodificado.
+     */
+    private boolean cumple(Dispositivo d) {
+        if ((!incluirBorrados && d.isBorrado())
+                || (tipo != null && d.getClass() != tipo)
+                || (marca != null && !igual(marca, claveMarca, d.getMarca()))
+                || (modelo != null && !igual(modelo, claveModelo, d.getModelo()))
+                || (estado != null && d.isEstado() != estado)) {
+            return false;
+        }
+        if (color != null || scanner != null) {
+            if (!(d instanceof Impresora)) {
+                return false;
+            }
+            Impresora i = (Impresora) d;
+            if ((color != null && i.isColor() != color) || (scanner != null && i.isScanner() != scanner)) {
+                return false;
+            }
+        }
+        if (tipoDisco != null || filtraRam || filtraDisco) {
+            if (!(d instanceof Ordenador)) {
+                return false;
+            }
+            Ordenador o = (Ordenador) d;
+            if ((tipoDisco != null && o.getTipoDisco() != tipoDisco)
+                    || o.getRam() < ramMinima || o.getRam() > ramMaxima
+                    || o.getTamDisco() < discoMinimo || o.getTamDisco() > discoMaximo) {
+                return false;
+            }
+        }
+        for (Predicate<Dispositivo> condicion : condiciones) {
+            if (!condicion.test(d)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compara sin distinguir mayúsculas: si las dos cadenas tienen código en
+     * {@link DiccionarioCadenas}, compara los códigos; si no, sus claves.
+     */
+    private static boolean igual(String buscado, int claveBuscada, String valor) {
+        if (valor == null) {
+            return false;
+        }
+        int claveValor = DiccionarioCadenas.clave(valor);
+        if (claveBuscada != DiccionarioCadenas.SIN_CLAVE && claveValor != DiccionarioCadenas.SIN_CLAVE) {
+            return claveBuscada == claveValor;
+        }
+        return IndicesSecundarios.clave(buscado).equals(IndicesSecundarios.clave(valor));
+    }
+}
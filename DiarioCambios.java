@@ -0,0 +1,292 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de cambios: archivo de solo escritura al final con los {@link EventoDispositivo} de un
+ * repositorio, para que otros sistemas se sincronicen leyendo solo los cambios desde la última
+ * vez en lugar de todo el inventario.
+ *
+ * <p>Un consumidor guarda la posición que le devuelve {@link #leer(long, int)} (un desplazamiento
+ * en bytes, {@link Tramo#getSiguiente()}) y en la siguiente lectura continúa desde ella; la
+ * posición 0 es el principio del diario. Leer cuesta lo mismo sea cual sea el tamaño del diario o
+ * del inventario, solo depende del número de eventos leídos.</p>
+ *
+ * <p>Formato: cabecera ({@code MAGICO}, {@code VERSION}) seguida de registros
+ * {@code [longitud (int), CRC32 (int), datos]}, donde los datos son un evento escrito con
+ * {@link EventoDispositivo#escribir(java.io.DataOutput)}. Al abrirlo para escribir se descarta el
+ * final incompleto o dañado de una escritura interrumpida. Solo un proceso a la vez puede
+ * escribirlo: lo bloquea hasta que termina. Cualquiera puede leerlo con
+ * {@link #leer(File, long, int)}.</p>
+ *
+ * <p>El diario no se compacta ni se rota: crece con cada cambio.</p>
+ *
+ * @author Frxnker
+ */
+public class DiarioCambios {
+
+    private static final int MAGICO = 0x47444343;  // "GDCC"
+    private static final int VERSION = 1;
+    private static final int TAM_CABECERA = 8;
+    private static final int TAM_CABECERA_REGISTRO = 8;  // Longitud y CRC32
+    private static final int MAXIMO_REGISTRO = 1 << 20;
+    private static final int TAM_LECTURA = 1 << 16;
+
+    private final FileChannel canal;
+    private volatile long longitud;  // Hasta donde hay registros completos
+    private long ultimaSecuencia = -1;
+
+    /**
+     * Abre el diario para escribir, creándolo si no existe.
+     *
+     * @param archivo Archivo del diario.
+     * @throws IOException Si no se puede abrir, no es un diario o otro proceso lo está escribiendo.
+     */
+    DiarioCambios(File archivo) throws IOException {
+        canal = FileChannel.open(archivo.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (canal.tryLock() == null) {
+                throw new IOException("Otro proceso está escribiendo el diario " + archivo);
+            }
+            if (canal.size() < TAM_CABECERA) {
+                ByteBuffer cabecera = ByteBuffer.allocate(TAM_CABECERA).putInt(MAGICO).putInt(VERSION).flip();
+                canal.truncate(0);
+                escribirCompleto(cabecera, 0);
+                canal.force(true);
+                longitud = TAM_CABECERA;
+            } else {
+                comprobarCabecera(canal);
+                long fin = recorrer(canal, TAM_CABECERA, canal.size(), Integer.MAX_VALUE, e -> ultimaSecuencia = e.getSecuencia());
+                if (fin < canal.size()) {
+                    canal.truncate(fin);  // Final de una escritura interrumpida
+                }
+                longitud = fin;
+            }
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Secuencia del último evento del diario, o -1 si está vacío.
+     */
+    long ultimaSecuencia() {
+        return ultimaSecuencia;
+    }
+
+    /**
+     * @return Posición del final del diario, donde se escribirá el siguiente evento.
+     */
+    public long getLongitud() {
+        return longitud;
+    }
+
+    /**
+     * Añade eventos al final del diario con una sola escritura. Los lectores no los ven hasta que
+     * se han escrito todos.
+     *
+     * @param eventos Los eventos, en orden de secuencia.
+     * @throws IOException Si se produce un error de escritura.
+     */
+    synchronized void añadir(List<EventoDispositivo> eventos) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(eventos.size() * 128);
+        DataOutputStream out = new DataOutputStream(buffer);
+        ByteArrayOutputStream registro = new ByteArrayOutputStream(128);
+        CRC32 crc = new CRC32();
+        for (EventoDispositivo evento : eventos) {
+            registro.reset();
+            evento.escribir(new DataOutputStream(registro));
+            byte[] datos = registro.toByteArray();
+            crc.reset();
+            crc.update(datos);
+            out.writeInt(datos.length);
+            out.writeInt((int) crc.getValue());
+            out.write(datos);
+        }
+        long posicion = longitud;
+        escribirCompleto(ByteBuffer.wrap(buffer.toByteArray()), posicion);
+        longitud = posicion + buffer.size();
+        ultimaSecuencia = eventos.get(eventos.size() - 1).getSecuencia();
+    }
+
+    /**
+     * Fuerza a disco lo escrito.
+     *
+     * @throws IOException Si se produce un error de escritura.
+     */
+    void forzar() throws IOException {
+        canal.force(false);
+    }
+
+    /**
+     * Lee eventos del diario a partir de una posición.
+     *
+     * @param posicion Posición devuelta por una lectura anterior, o 0 para empezar por el principio.
+     * @param maximo Número máximo de eventos.
+     * @return Los eventos y la posición desde la que seguir leyendo.
+     * @throws IOException Si se produce un error de lectura.
+     * @throws IllegalArgumentException Si la posición no es el principio de un evento.
+     */
+    public Tramo leer(long posicion, int maximo) throws IOException {
+        return leer(canal, posicion, longitud, true, maximo);
+    }
+
+    /**
+     * Lee eventos de un diario sin abrirlo para escribir, por ejemplo desde otro proceso. Si el
+     * último evento se está escribiendo, termina antes de él.
+     *
+     * @param archivo Archivo del diario.
+     * @param posicion Posición devuelta por una lectura anterior, o 0 para empezar por el principio.
+     * @param maximo Número máximo de eventos.
+     * @return Los eventos y la posición desde la que seguir leyendo.
+     * @throws IOException Si no existe, no es un diario o se produce un error de lectura.
+     * @throws IllegalArgumentException Si la posición no es el principio de un evento.
+     */
+    public static Tramo leer(File archivo, long posicion, int maximo) throws IOException {
+        try (FileChannel lectura = FileChannel.open(archivo.toPath(), StandardOpenOption.READ)) {
+            comprobarCabecera(lectura);
+            return leer(lectura, posicion, lectura.size(), false, maximo);
+        }
+    }
+
+    /**
+     * @param finCompleto true si {@code fin} es el final de un registro, de modo que cualquier
+     *                    registro que no se pueda leer antes de él indica una posición errónea.
+     */
+    private static Tramo leer(FileChannel canal, long posicion, long fin, boolean finCompleto, int maximo) throws IOException {
+        long desde = Math.max(posicion, TAM_CABECERA);
+        if (desde > fin) {
+            throw new IllegalArgumentException("posición fuera del diario: " + posicion);
+        }
+        List<EventoDispositivo> eventos = new ArrayList<>(Math.min(maximo, 1024));
+        long siguiente = recorrer(canal, desde, fin, maximo, eventos::add);
+        if (maximo > 0 && siguiente == desde && desde < fin
+                && (finCompleto || fin - desde >= TAM_CABECERA_REGISTRO && noEsRegistro(canal, desde, fin))) {
+            throw new IllegalArgumentException("la posición no es el principio de un evento: " + posicion);
+        }
+        return new Tramo(eventos, siguiente);
+    }
+
+    /**
+     * Lee registros desde una posición hasta el final, el máximo de eventos o el primer registro
+     * incompleto o dañado.
+     *
+     * @return La posición siguiente al último registro leído.
+     */
+    private static long recorrer(FileChannel canal, long posicion, long fin, int maximo,
+            Consumer<EventoDispositivo> destino) throws IOException {
+        ByteBuffer bloque = ByteBuffer.allocate(0);
+        long inicioBloque = posicion;
+        CRC32 crc = new CRC32();
+        int leidos = 0;
+        while (leidos < maximo && fin - posicion >= TAM_CABECERA_REGISTRO) {
+            int relativa = (int) (posicion - inicioBloque);
+            if (bloque.limit() - relativa < TAM_CABECERA_REGISTRO) {
+                bloque = leerBloque(canal, posicion, fin, TAM_CABECERA_REGISTRO);
+                inicioBloque = posicion;
+                relativa = 0;
+            }
+            int longitud = bloque.getInt(relativa);
+            if (longitud <= 0 || longitud > MAXIMO_REGISTRO || fin - posicion < TAM_CABECERA_REGISTRO + longitud) {
+                break;
+            }
+            if (bloque.limit() - relativa < TAM_CABECERA_REGISTRO + longitud) {
+                bloque = leerBloque(canal, posicion, fin, TAM_CABECERA_REGISTRO + longitud);
+                inicioBloque = posicion;
+                relativa = 0;
+            }
+            int inicioDatos = relativa + TAM_CABECERA_REGISTRO;
+            crc.reset();
+            crc.update(bloque.array(), inicioDatos, longitud);
+            if ((int) crc.getValue() != bloque.getInt(relativa + 4)) {
+                break;
+            }
+            destino.accept(EventoDispositivo.leer(new DataInputStream(new ByteArrayInputStream(bloque.array(), inicioDatos, longitud))));
+            posicion += TAM_CABECERA_REGISTRO + longitud;
+            leidos++;
+        }
+        return posicion;
+    }
+
+    /**
+     * Distingue una posición que no es el principio de un registro de un registro que todavía se
+     * está escribiendo, cuya longitud es válida pero no está entero.
+     */
+    private static boolean noEsRegistro(FileChannel canal, long posicion, long fin) throws IOException {
+        int longitud = leerBloque(canal, posicion, fin, TAM_CABECERA_REGISTRO).getInt(0);
+        return longitud <= 0 || longitud > MAXIMO_REGISTRO || fin - posicion >= TAM_CABECERA_REGISTRO + longitud;
+    }
+
+    private static ByteBuffer leerBloque(FileChannel canal, long posicion, long fin, int minimo) throws IOException {
+        ByteBuffer bloque = ByteBuffer.allocate((int) Math.min(fin - posicion, Math.max(minimo, TAM_LECTURA)));
+        while (bloque.hasRemaining()) {
+            if (canal.read(bloque, posicion + bloque.position()) < 0) {
+                break;
+            }
+        }
+        return bloque.flip();
+    }
+
+    private static void comprobarCabecera(FileChannel canal) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(TAM_CABECERA);
+        while (cabecera.hasRemaining()) {
+            if (canal.read(cabecera, cabecera.position()) < 0) {
+                break;
+            }
+        }
+        if (cabecera.position() < TAM_CABECERA || cabecera.getInt(0) != MAGICO) {
+            throw new IOException("No es un diario de cambios");
+        }
+        if (cabecera.getInt(4) != VERSION) {
+            throw new IOException("Versión del diario de cambios no soportada: " + cabecera.getInt(4));
+        }
+    }
+
+    private void escribirCompleto(ByteBuffer buffer, long posicion) throws IOException {
+        while (buffer.hasRemaining()) {
+            posicion += canal.write(buffer, posicion);
+        }
+    }
+
+    /**
+     * Resultado de una lectura del diario.
+     */
+    public static final class Tramo {
+
+        private final List<EventoDispositivo> eventos;
+        private final long siguiente;
+
+        Tramo(List<EventoDispositivo> eventos, long siguiente) {
+            this.eventos = Collections.unmodifiableList(eventos);
+            this.siguiente = siguiente;
+        }
+
+        /**
+         * @return Los eventos leídos, en orden; vacía si no hay eventos nuevos.
+         */
+        public List<EventoDispositivo> getEventos() {
+            return eventos;
+        }
+
+        /**
+         * @return Posición desde la que seguir leyendo.
+         */
+        public long getSiguiente() {
+            return siguiente;
+        }
+    }
+}
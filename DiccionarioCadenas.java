@@ -0,0 +1,98 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cadenas compartidas de los dispositivos en memoria ({@code marca}, {@code modelo} y
+ * {@code procesador}).
+ *
+ * <p>En un inventario real estos campos toman pocos valores distintos, así que
+ * {@link Dispositivo}, {@link Ordenador} y {@link TablaCadenas} guardan la instancia canónica de
+ * cada cadena en lugar de una copia por dispositivo. Además, cada cadena canónica tiene un código
+ * entero de su clave de búsqueda (sin espacios alrededor ni mayúsculas, como
+ * {@link IndicesSecundarios#clave(String)}), de modo que comparar dos valores sin distinguir
+ * mayúsculas es comparar dos enteros.</p>
+ *
+ * <p>Para que los campos con muchos valores distintos (por ejemplo, un modelo por dispositivo) no
+ * hagan crecer el diccionario sin límite, solo admite {@code dispositivos.cadenas.maximo} cadenas
+ * (65536 por defecto); a partir de ahí las cadenas nuevas se usan tal cual y no tienen código.
+ * Las cadenas no se eliminan nunca.</p>
+ *
+ * @author Frxnker
+ */
+final class DiccionarioCadenas {
+
+    static final int MAXIMO = Integer.getInteger("dispositivos.cadenas.maximo", 1 << 16);
+
+    /**
+     * Código de las cadenas que no están en el diccionario y de null.
+     */
+    static final int SIN_CLAVE = -1;
+
+    private static final ConcurrentHashMap<String, Entrada> ENTRADAS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> CLAVES = new ConcurrentHashMap<>();
+    private static final AtomicInteger SIGUIENTE_CLAVE = new AtomicInteger();
+
+    private DiccionarioCadenas() {
+        // Clase de utilidades, no se instancia
+    }
+
+    /**
+     * Devuelve la instancia compartida de una cadena, añadiéndola al diccionario si no estaba y
+     * queda sitio.
+     *
+     * @param cadena La cadena, o null.
+     * @return La instancia compartida, o la propia cadena si el diccionario está lleno.
+     */
+    static String canonica(String cadena) {
+        if (cadena == null) {
+            return null;
+        }
+        Entrada entrada = ENTRADAS.get(cadena);
+        if (entrada != null) {
+            return entrada.cadena;
+        }
+        if (ENTRADAS.size() >= MAXIMO) {
+            return cadena;
+        }
+        return ENTRADAS.computeIfAbsent(cadena, c -> new Entrada(c,
+                CLAVES.computeIfAbsent(IndicesSecundarios.clave(c), k -> SIGUIENTE_CLAVE.getAndIncrement()))).cadena;
+    }
+
+    /**
+     * Devuelve el código de la clave de búsqueda de una cadena: dos cadenas tienen el mismo código
+     * si y solo si sus claves son iguales.
+     *
+     * @param cadena La cadena, o null.
+     * @return El código, o {@link #SIN_CLAVE} si ninguna cadena del diccionario tiene esa clave.
+     */
+    static int clave(String cadena) {
+        if (cadena == null) {
+            return SIN_CLAVE;
+        }
+        Entrada entrada = ENTRADAS.get(cadena);
+        if (entrada != null) {
+            return entrada.clave;
+        }
+        Integer clave = CLAVES.get(IndicesSecundarios.clave(cadena));
+        return clave == null ? SIN_CLAVE : clave;
+    }
+
+    /**
+     * @return Número de cadenas del diccionario.
+     */
+    static int tamaño() {
+        return ENTRADAS.size();
+    }
+
+    private static final class Entrada {
+        final String cadena;
+        final int clave;
+
+        Entrada(String cadena, int clave) {
+            this.cadena = cadena;
+            this.clave = clave;
+        }
+    }
+}
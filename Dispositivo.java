@@ -2,6 +2,7 @@ package Programación.Trim2.Tema6.PracticaObligatoria;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 /**
  * Clase que representa un dispositivo genérico. Puede ser utilizado como base
@@ -11,8 +12,10 @@ import java.util.ArrayList;
  */
 public class Dispositivo implements Serializable {
 
-    public static final String ARCHIVO_DATOS = "Lista.dat";  // Ruta del archivo para guardar los dispositivos
-    private static int contador = 0;
+    private static final long serialVersionUID = -2785480909225279201L;  // Valor original, para leer archivos antiguos
+    public static final String ARCHIVO_DATOS = "Lista.dat";  // Ruta del archivo para guardar los dispositivos (de todos los tipos)
+    static final String ARCHIVO_SUBTIPOS = "dispositivos.dat";  // Archivo que usaban antes Impresora y Ordenador, lo fusiona Main al arrancar
+    static final RepositorioDispositivos REPOSITORIO = RepositorioDispositivos.de(ARCHIVO_DATOS);
     private int id;
     private String marca;
     private String modelo;
@@ -20,16 +23,17 @@ public class Dispositivo implements Serializable {
     private boolean borrado = false;  // Propiedad de borrado
 
     /**
-     * Constructor para crear un dispositivo con marca, modelo y estado.
+     * Constructor para crear un dispositivo con marca, modelo y estado. El ID se obtiene del
+     * generador del repositorio, por lo que no se repite aunque se reinicie el programa.
      * 
      * @param marca  Marca del dispositivo.
      * @param modelo Modelo del dispositivo.
      * @param estado Estado del dispositivo (encendido/apagado).
      */
     public Dispositivo(String marca, String modelo, boolean estado) {
-        this.id = contador++;
-        this.marca = marca;
-        this.modelo = modelo;
+        this.id = REPOSITORIO.nuevoId();
+        this.marca = DiccionarioCadenas.canonica(marca);  // Instancia compartida, ver DiccionarioCadenas
+        this.modelo = DiccionarioCadenas.canonica(modelo);
         this.estado = estado;
     }
 
@@ -45,16 +49,42 @@ public class Dispositivo implements Serializable {
         this.estado = false;
     }
 
+    /**
+     * Constructor para reconstruir un dispositivo ya existente, sin consumir un nuevo ID.
+     * Lo usa {@link CodecDispositivos} al leer los datos.
+     * 
+     * @param id     ID del dispositivo.
+     * @param marca  Marca del dispositivo.
+     * @param modelo Modelo del dispositivo.
+     * @param estado Estado del dispositivo (encendido/apagado).
+     */
+    Dispositivo(int id, String marca, String modelo, boolean estado) {
+        this.id = id;
+        this.marca = DiccionarioCadenas.canonica(marca);
+        this.modelo = DiccionarioCadenas.canonica(modelo);
+        this.estado = estado;
+    }
+
     public int getId() {
         return id;
     }
 
+    /**
+     * Cambia el ID del dispositivo. Solo lo usa {@link MigradorDatos} al fusionar archivos cuyos
+     * IDs coinciden o al migrar archivos antiguos con IDs repetidos.
+     * 
+     * @param id El nuevo ID.
+     */
+    void reasignarId(int id) {
+        this.id = id;
+    }
+
     public String getMarca() {
         return marca;
     }
 
     public void setMarca(String marca) {
-        this.marca = marca;
+        this.marca = DiccionarioCadenas.canonica(marca);
     }
 
     public String getModelo() {
@@ -62,7 +92,7 @@ public class Dispositivo implements Serializable {
     }
 
     public void setModelo(String modelo) {
-        this.modelo = modelo;
+        this.modelo = DiccionarioCadenas.canonica(modelo);
     }
 
     public boolean isEstado() {
@@ -92,43 +122,38 @@ public class Dispositivo implements Serializable {
     }
 
     /**
-     * Guarda el dispositivo en el archivo de datos.
+     * Guarda el dispositivo en el archivo de datos añadiendo un único registro al final.
      * 
      * @return true si la operación fue exitosa, false en caso contrario.
      */
     public boolean save() {
-        ArrayList<Dispositivo> listaDispositivos = loadAll();
-
-        boolean encontrado = false;
-        for (int i = 0; i < listaDispositivos.size(); i++) {
-            if (listaDispositivos.get(i).getId() == this.id) {
-                listaDispositivos.set(i, this);
-                encontrado = true;
-                break;
-            }
-        }
-
-        if (!encontrado) {
-            listaDispositivos.add(this);
-        }
-
-        return guardarLista(listaDispositivos);
+        return REPOSITORIO.guardar(this);
     }
 
     /**
-     * Carga un dispositivo desde el archivo de datos usando su ID.
+     * Carga un dispositivo usando su ID. Si no está en la caché del repositorio, solo se lee el
+     * registro del dispositivo, localizado mediante el índice del almacén.
      * 
      * @param id El ID del dispositivo.
      * @return El dispositivo encontrado, o null si no existe.
      */
     public static Dispositivo load(int id) {
-        ArrayList<Dispositivo> listaDispositivos = loadAll();
-        for (Dispositivo d : listaDispositivos) {
-            if (d.getId() == id && !d.isBorrado()) {
-                return d;
-            }
+        return REPOSITORIO.buscar(id);
+    }
+
+    /**
+     * Devuelve una copia del dispositivo con el mismo ID y tipo. {@link #load(int)} devuelve la
+     * instancia de la caché, que comparten todos los que la leen; para modificar un dispositivo se
+     * cambia una copia y se guarda con {@link #save()}, y la caché solo cambia si se ha guardado.
+     *
+     * @return La copia.
+     */
+    public Dispositivo copia() {
+        try {
+            return CodecDispositivos.decodificar(CodecDispositivos.codificar(this));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // No ocurre en memoria
         }
-        return null;
     }
 
     /**
@@ -137,48 +162,46 @@ public class Dispositivo implements Serializable {
      * @return true si la operación fue exitosa, false en caso contrario.
      */
     public boolean delete() {
-        ArrayList<Dispositivo> listaDispositivos = loadAll();
-        for (Dispositivo d : listaDispositivos) {
-            if (d.getId() == this.id) {
-                d.setBorrado(true);
-                return guardarLista(listaDispositivos);
-            }
-        }
-        return false;
+        return REPOSITORIO.borrar(this.id);
+    }
+
+    /**
+     * Recorre todos los dispositivos sin cargarlos todos en memoria, decodificándolos a medida que
+     * se consumen. El flujo debe cerrarse al terminar, por ejemplo con try-with-resources.
+     * 
+     * @return Flujo de dispositivos, incluidos los borrados.
+     */
+    public static Stream<Dispositivo> recorrerTodos() {
+        return REPOSITORIO.recorrer();
+    }
+
+    /**
+     * Cambia el estado (encendido/apagado) de un dispositivo guardado. Con el almacén mapeado solo
+     * se escribe el byte del estado.
+     * 
+     * @param id El ID del dispositivo.
+     * @return true si el dispositivo existía y se guardó, false en caso contrario.
+     */
+    public static boolean cambiarEstado(int id) {
+        return REPOSITORIO.cambiarEstado(id);
     }
 
     /**
-     * Carga todos los dispositivos desde el archivo de datos.
+     * Carga todos los dispositivos. Tras la primera lectura se sirven desde la caché del repositorio.
      * 
      * @return Lista de dispositivos.
      */
     public static ArrayList<Dispositivo> loadAll() {
-        File archivo = new File(ARCHIVO_DATOS);
-        if (!archivo.exists()) {
-            return new ArrayList<>();
-        }
-
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(ARCHIVO_DATOS))) {
-            @SuppressWarnings("unchecked")
-            ArrayList<Dispositivo> dispositivos = (ArrayList<Dispositivo>) ois.readObject();
-            return dispositivos;
-        } catch (IOException | ClassNotFoundException e) {
-            return new ArrayList<>();
-        }
+        return REPOSITORIO.todos();
     }
 
     /**
-     * Guarda la lista de dispositivos en el archivo de datos.
+     * Crea una consulta sobre los dispositivos guardados.
      * 
-     * @param lista Lista de dispositivos.
-     * @return true si la operación fue exitosa, false en caso contrario.
+     * @return La consulta, sin condiciones.
      */
-    private static boolean guardarLista(ArrayList<Dispositivo> lista) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(ARCHIVO_DATOS))) {
-            oos.writeObject(lista);
-            return true;
-        } catch (IOException e) {
-            return false;
-        }
+    public static ConsultaDispositivos consultar() {
+        return REPOSITORIO.consulta();
     }
+
 }
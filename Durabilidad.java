@@ -0,0 +1,34 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+/**
+ * Política de durabilidad de las escrituras del almacén.
+ *
+ * <p>Se elige con la propiedad {@code -Ddispositivos.durabilidad} ({@code escritura},
+ * {@code sincrona} o {@code lote}) o con {@link RepositorioDispositivos#setDurabilidad(Durabilidad)}.</p>
+ *
+ * @author Frxnker
+ */
+public enum Durabilidad {
+
+    /**
+     * Cada cambio se escribe en el archivo al momento, sin forzar su paso a disco. Un fallo del
+     * sistema operativo puede perder los últimos cambios, pero no un cierre del programa. Es el
+     * modo por defecto.
+     */
+    ESCRITURA,
+
+    /**
+     * Cada cambio se escribe y se fuerza a disco ({@code fsync}) antes de devolver el control.
+     * Es el modo más seguro y el más lento.
+     */
+    SINCRONA,
+
+    /**
+     * Los cambios se acumulan en memoria y se escriben juntos en una sola escritura forzada a disco
+     * (group commit) cuando se alcanza un número de registros, pasa un tiempo máximo o se llama a
+     * {@link RepositorioDispositivos#vaciar()}. Si el programa termina de forma abrupta se pueden
+     * perder los cambios todavía no escritos, y otros procesos no ven los cambios hasta que se
+     * vacía el lote.
+     */
+    LOTE
+}
@@ -0,0 +1,94 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+/**
+ * Estado de un almacén en un momento dado: tamaño en disco, bytes leídos y escritos desde que se
+ * abrió, dispositivos guardados y errores de entrada/salida.
+ *
+ * @author Frxnker
+ */
+public class EstadisticasAlmacen {
+
+    private final long tamañoArchivo;
+    private final long bytesLeidos;
+    private final long bytesEscritos;
+    private final long registros;
+    private final long dispositivos;
+    private final long borrados;
+    private final long errores;
+
+    /**
+     * Constructor de las estadísticas.
+     *
+     * @param tamañoArchivo Bytes que ocupan en disco los archivos del almacén.
+     * @param bytesLeidos Bytes leídos de los archivos desde que se abrió.
+     * @param bytesEscritos Bytes escritos en los archivos desde que se abrió.
+     * @param registros Registros en el archivo, incluidas versiones antiguas y marcas de borrado.
+     * @param dispositivos Dispositivos distintos guardados, incluidos los borrados.
+     * @param borrados Dispositivos marcados como borrados.
+     * @param errores Operaciones que han fallado por un error de entrada/salida.
+     */
+    public EstadisticasAlmacen(long tamañoArchivo, long bytesLeidos, long bytesEscritos, long registros,
+            long dispositivos, long borrados, long errores) {
+        this.tamañoArchivo = tamañoArchivo;
+        this.bytesLeidos = bytesLeidos;
+        this.bytesEscritos = bytesEscritos;
+        this.registros = registros;
+        this.dispositivos = dispositivos;
+        this.borrados = borrados;
+        this.errores = errores;
+    }
+
+    public long getTamañoArchivo() {
+        return tamañoArchivo;
+    }
+
+    public long getBytesLeidos() {
+        return bytesLeidos;
+    }
+
+    public long getBytesEscritos() {
+        return bytesEscritos;
+    }
+
+    public long getRegistros() {
+        return registros;
+    }
+
+    public long getDispositivos() {
+        return dispositivos;
+    }
+
+    public long getBorrados() {
+        return borrados;
+    }
+
+    public long getErrores() {
+        return errores;
+    }
+
+    /**
+     * Proporción de dispositivos marcados como borrados.
+     *
+     * @return Valor entre 0 y 1.
+     */
+    public double getProporcionBorrados() {
+        return dispositivos == 0 ? 0 : (double) borrados / dispositivos;
+    }
+
+    /**
+     * Proporción de registros que no son la versión vigente de un dispositivo no borrado, es decir,
+     * lo que eliminaría una compactación.
+     *
+     * @return Valor entre 0 y 1.
+     */
+    public double getProporcionObsoletos() {
+        return registros == 0 ? 0 : (double) (registros - (dispositivos - borrados)) / registros;
+    }
+
+    @Override
+    public String toString() {
+        return "EstadisticasAlmacen{tamañoArchivo=" + tamañoArchivo + ", bytesLeidos=" + bytesLeidos
+                + ", bytesEscritos=" + bytesEscritos + ", registros=" + registros + ", dispositivos=" + dispositivos
+                + ", borrados=" + borrados + ", errores=" + errores + "}";
+    }
+}
@@ -0,0 +1,60 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+/**
+ * Resumen de las compactaciones hechas por un almacén desde que se abrió.
+ *
+ * @author Frxnker
+ */
+public class EstadisticasCompactacion {
+
+    private final long compactaciones;
+    private final long bytesRecuperados;
+    private final long registrosEliminados;
+    private final long nanosTotales;
+    private final long nanosUltima;
+
+    /**
+     * Constructor de las estadísticas.
+     *
+     * @param compactaciones Número de compactaciones completadas.
+     * @param bytesRecuperados Bytes liberados en total.
+     * @param registrosEliminados Registros obsoletos o borrados eliminados en total.
+     * @param nanosTotales Tiempo total compactando, en nanosegundos.
+     * @param nanosUltima Duración de la última compactación, en nanosegundos.
+     */
+    public EstadisticasCompactacion(long compactaciones, long bytesRecuperados, long registrosEliminados,
+            long nanosTotales, long nanosUltima) {
+        this.compactaciones = compactaciones;
+        this.bytesRecuperados = bytesRecuperados;
+        this.registrosEliminados = registrosEliminados;
+        this.nanosTotales = nanosTotales;
+        this.nanosUltima = nanosUltima;
+    }
+
+    public long getCompactaciones() {
+        return compactaciones;
+    }
+
+    public long getBytesRecuperados() {
+        return bytesRecuperados;
+    }
+
+    public long getRegistrosEliminados() {
+        return registrosEliminados;
+    }
+
+    public long getNanosTotales() {
+        return nanosTotales;
+    }
+
+    public long getNanosUltima() {
+        return nanosUltima;
+    }
+
+    @Override
+    public String toString() {
+        return "EstadisticasCompactacion{compactaciones=" + compactaciones + ", bytesRecuperados=" + bytesRecuperados
+                + ", registrosEliminados=" + registrosEliminados + ", msTotales=" + nanosTotales / 1_000_000
+                + ", msUltima=" + nanosUltima / 1_000_000 + "}";
+    }
+}
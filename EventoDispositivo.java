@@ -0,0 +1,189 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Cambio de un dispositivo publicado por {@link CambiosDispositivos}.
+ *
+ * <p>Guarda el dispositivo antes y después del cambio codificados con {@link CodecDispositivos},
+ * no los objetos de la caché, que pueden seguir cambiando; {@link #getAntes()} y
+ * {@link #getDespues()} devuelven cada vez una copia nueva. Los eventos no se modifican, así que
+ * se pueden compartir entre hilos.</p>
+ *
+ * @author Frxnker
+ */
+public final class EventoDispositivo {
+
+    /**
+     * Tipo de cambio.
+     */
+    public enum Tipo {
+        /** Se ha guardado un dispositivo que no existía o estaba borrado. Sin valor anterior. */
+        CREADO,
+        /** Se ha guardado un dispositivo que ya existía, con algún campo distinto. */
+        MODIFICADO,
+        /** Solo ha cambiado el estado (encendido/apagado). */
+        ESTADO,
+        /** Se ha marcado como borrado. Sin valor posterior. */
+        BORRADO
+    }
+
+    private static final Tipo[] TIPOS = Tipo.values();
+
+    private final long secuencia;
+    private final long instante;
+    private final Tipo tipo;
+    private final int id;
+    private final byte[] antes;
+    private final byte[] despues;
+
+    /**
+     * Constructor del evento.
+     *
+     * @param secuencia Número de orden del evento.
+     * @param instante Momento del cambio, en milisegundos desde la época.
+     * @param tipo Tipo de cambio.
+     * @param id ID del dispositivo.
+     * @param antes El dispositivo antes del cambio codificado, o null si no existía.
+     * @param despues El dispositivo después del cambio codificado, o null si se ha borrado.
+     */
+    EventoDispositivo(long secuencia, long instante, Tipo tipo, int id, byte[] antes, byte[] despues) {
+        this.secuencia = secuencia;
+        this.instante = instante;
+        this.tipo = tipo;
+        this.id = id;
+        this.antes = antes;
+        this.despues = despues;
+    }
+
+    /**
+     * @return Número de orden del evento. Los eventos de un mismo dispositivo tienen números
+     *         crecientes en el orden en que se hicieron los cambios.
+     */
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    /**
+     * @return Momento del cambio, en milisegundos desde la época.
+     */
+    public long getInstante() {
+        return instante;
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return Una copia del dispositivo antes del cambio, o null si no existía.
+     */
+    public Dispositivo getAntes() {
+        return decodificar(antes);
+    }
+
+    /**
+     * @return Una copia del dispositivo después del cambio, o null si se ha borrado.
+     */
+    public Dispositivo getDespues() {
+        return decodificar(despues);
+    }
+
+    /**
+     * Devuelve el evento como objeto JSON, con los dispositivos como en
+     * {@link IntercambioDispositivos}.
+     *
+     * @return El objeto JSON, en una sola línea.
+     */
+    public String json() {
+        StringBuilder sb = new StringBuilder(400);
+        sb.append("{\"secuencia\":").append(secuencia)
+                .append(",\"instante\":").append(instante)
+                .append(",\"tipo\":\"").append(tipo.name().toLowerCase()).append('"')
+                .append(",\"id\":").append(id);
+        Dispositivo anterior = getAntes();
+        Dispositivo posterior = getDespues();
+        sb.append(",\"antes\":").append(anterior == null ? "null" : IntercambioDispositivos.json(anterior));
+        sb.append(",\"despues\":").append(posterior == null ? "null" : IntercambioDispositivos.json(posterior));
+        return sb.append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "EventoDispositivo{secuencia=" + secuencia + ", tipo=" + tipo + ", id=" + id
+                + ", antes=" + getAntes() + ", despues=" + getDespues() + "}";
+    }
+
+    /**
+     * Escribe el evento en el formato del {@link DiarioCambios}.
+     *
+     * @param out Salida de datos.
+     * @throws IOException Si se produce un error de escritura.
+     */
+    void escribir(DataOutput out) throws IOException {
+        out.writeLong(secuencia);
+        out.writeLong(instante);
+        out.writeByte(tipo.ordinal());
+        out.writeInt(id);
+        escribirDatos(out, antes);
+        escribirDatos(out, despues);
+    }
+
+    /**
+     * Lee un evento escrito con {@link #escribir(DataOutput)}.
+     *
+     * @param in Entrada de datos.
+     * @return El evento.
+     * @throws IOException Si los datos no son válidos.
+     */
+    static EventoDispositivo leer(DataInput in) throws IOException {
+        long secuencia = in.readLong();
+        long instante = in.readLong();
+        int tipo = in.readByte();
+        if (tipo < 0 || tipo >= TIPOS.length) {
+            throw new IOException("Tipo de evento desconocido: " + tipo);
+        }
+        int id = in.readInt();
+        return new EventoDispositivo(secuencia, instante, TIPOS[tipo], id, leerDatos(in), leerDatos(in));
+    }
+
+    private static void escribirDatos(DataOutput out, byte[] datos) throws IOException {
+        if (datos == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(datos.length);
+            out.write(datos);
+        }
+    }
+
+    private static byte[] leerDatos(DataInput in) throws IOException {
+        int longitud = in.readInt();
+        if (longitud < -1) {
+            throw new IOException("Longitud de datos no válida: " + longitud);
+        }
+        if (longitud == -1) {
+            return null;
+        }
+        byte[] datos = new byte[longitud];
+        in.readFully(datos);
+        return datos;
+    }
+
+    private static Dispositivo decodificar(byte[] datos) {
+        if (datos == null) {
+            return null;
+        }
+        try {
+            return CodecDispositivos.decodificar(datos);
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            return null;
+        }
+    }
+}
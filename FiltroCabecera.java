@@ -0,0 +1,34 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+/**
+ * Filtro sobre los campos fijos del principio de cada dispositivo guardado (tipo, ID, estado y
+ * borrado), que los almacenes evalúan antes de decodificar el resto del registro. Los registros
+ * rechazados se saltan sin leer sus cadenas ni crear el objeto.
+ *
+ * @author Frxnker
+ */
+@FunctionalInterface
+public interface FiltroCabecera {
+
+    /**
+     * Indica si un dispositivo debe decodificarse.
+     *
+     * @param tipo Etiqueta de tipo ({@link CodecDispositivos#TIPO_DISPOSITIVO},
+     *             {@link CodecDispositivos#TIPO_IMPRESORA} o {@link CodecDispositivos#TIPO_ORDENADOR}).
+     * @param id ID del dispositivo.
+     * @param estado Estado (encendido/apagado).
+     * @param borrado true si está marcado como borrado.
+     * @return true para decodificarlo, false para saltarlo.
+     */
+    boolean acepta(byte tipo, int id, boolean estado, boolean borrado);
+
+    /**
+     * Evalúa el filtro sobre un dispositivo ya decodificado.
+     *
+     * @param d El dispositivo.
+     * @return El resultado de {@link #acepta(byte, int, boolean, boolean)} con sus campos.
+     */
+    default boolean acepta(Dispositivo d) {
+        return acepta(CodecDispositivos.tipoDe(d), d.getId(), d.isEstado(), d.isBorrado());
+    }
+}
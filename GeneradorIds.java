@@ -0,0 +1,135 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntSupplier;
+
+/**
+ * Generador de IDs únicos que se conserva entre ejecuciones.
+ *
+ * <p>El siguiente ID libre (la marca de nivel máximo) se guarda en un archivo junto a los datos.
+ * Los IDs se reservan por bloques: cada proceso reserva {@code TAM_BLOQUE} IDs de una vez con el
+ * archivo bloqueado, y los va entregando desde memoria sin escribir en disco por cada dispositivo.
+ * Así, dos procesos que crean dispositivos a la vez nunca reciben el mismo ID. Al reiniciar se
+ * pierden los IDs reservados y no usados, lo que solo deja huecos en la numeración.</p>
+ *
+ * <p>Si el archivo de la marca no existe (datos anteriores a este generador), la primera reserva
+ * parte del mayor ID guardado en el almacén.</p>
+ *
+ * <p>Los IDs van de 0 a {@link #ID_MAXIMO}, que se puede cambiar con {@code dispositivos.id.maximo}
+ * ({@code 2^26 - 1} por defecto). El límite protege a las estructuras indexadas por ID, como
+ * {@link IndicesSecundarios}, de un único ID enorme leído de un archivo importado, y deja margen
+ * para que la marca guardada no se desborde nunca.</p>
+ *
+ * @author Frxnker
+ */
+public class GeneradorIds {
+
+    /**
+     * Mayor ID que se entrega o se admite.
+     */
+    public static final int ID_MAXIMO = Math.min(Integer.getInteger("dispositivos.id.maximo", (1 << 26) - 1), Integer.MAX_VALUE - 1);
+
+    private static final int TAM_BLOQUE = 1000;
+
+    private final File archivo;
+    private final IntSupplier idMaximo;
+    private boolean recuperado = false;  // true cuando ya se ha tenido en cuenta el mayor ID guardado
+    private int siguiente = 0;           // IDs reservados en memoria: [siguiente, limite)
+    private int limite = 0;
+
+    /**
+     * Constructor del generador.
+     *
+     * @param archivo Archivo donde se guarda la marca de nivel máximo.
+     * @param idMaximo Devuelve el mayor ID ya guardado en el almacén; se consulta una sola vez.
+     */
+    public GeneradorIds(File archivo, IntSupplier idMaximo) {
+        this.archivo = archivo;
+        this.idMaximo = idMaximo;
+    }
+
+    /**
+     * Devuelve un ID nuevo, reservando otro bloque si se ha agotado el actual.
+     *
+     * @return El ID.
+     * @throws UncheckedIOException Si no se puede reservar un bloque en el archivo.
+     * @throws IllegalStateException Si ya se han entregado todos los IDs hasta {@link #ID_MAXIMO}.
+     */
+    public synchronized int siguiente() {
+        if (siguiente >= limite) {
+            reservarBloque(siguiente);
+            if (siguiente >= limite) {
+                throw new IllegalStateException("No quedan IDs libres (máximo " + ID_MAXIMO + ")");
+            }
+        }
+        return siguiente++;
+    }
+
+    /**
+     * Tiene en cuenta un ID asignado por otra vía (por ejemplo con {@link Dispositivo#Dispositivo(int)})
+     * para no entregarlo más adelante.
+     *
+     * @param id El ID usado.
+     * @throws IllegalArgumentException Si el ID es negativo o mayor que {@link #ID_MAXIMO}.
+     */
+    public synchronized void observar(int id) {
+        if (!valido(id)) {
+            throw new IllegalArgumentException("ID fuera de rango (máximo " + ID_MAXIMO + "): " + id);
+        }
+        if (id >= limite) {
+            reservarBloque(Math.addExact(id, 1));
+        } else if (id >= siguiente) {
+            siguiente = id + 1;
+        }
+    }
+
+    /**
+     * @param id Un ID.
+     * @return true si está entre 0 y {@link #ID_MAXIMO}.
+     */
+    public static boolean valido(int id) {
+        return id >= 0 && id <= ID_MAXIMO;
+    }
+
+    /**
+     * Reserva un bloque de IDs a partir de la marca guardada (y como mínimo desde {@code minimo})
+     * y guarda la nueva marca en disco. El bloque se recorta para no pasar de {@link #ID_MAXIMO}
+     * y queda vacío si ya no quedan IDs. Una marca guardada fuera de rango (de versiones que no
+     * limitaban los IDs) se trata como agotada.
+     */
+    private void reservarBloque(int minimo) {
+        try (FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock bloqueo = canal.lock();
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+                long marca = canal.read(buffer, 0) == Integer.BYTES ? buffer.getInt(0) : 0;
+                if (marca < 0) {
+                    marca = (long) ID_MAXIMO + 1;
+                }
+                if (!recuperado) {
+                    marca = Math.max(marca, (long) idMaximo.getAsInt() + 1);
+                    recuperado = true;
+                }
+                long inicio = Math.min(Math.max(marca, minimo), (long) ID_MAXIMO + 1);
+                long fin = Math.min(inicio + TAM_BLOQUE, (long) ID_MAXIMO + 1);
+                buffer.clear();
+                buffer.putInt((int) fin).flip();
+                canal.write(buffer, 0);
+                canal.force(false);
+                siguiente = (int) inicio;
+                limite = (int) fin;
+            } finally {
+                bloqueo.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pueden reservar IDs en " + archivo, e);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package Programación.Trim2.Tema6.PracticaObligatoria;
 
-import java.io.*;
 import java.util.ArrayList;
 
 /**
@@ -12,10 +11,7 @@ import java.util.ArrayList;
  */
 public class Impresora extends Dispositivo {
 
-    /**
-     * El archivo donde se almacenan los dispositivos.
-     */
-    private static final String ARCHIVO_DATOS = "dispositivos.dat";  // Definimos la constante de archivo
+    private static final long serialVersionUID = -2734798873019826270L;  // Valor original, para leer archivos antiguos
 
     private int tipo;
     private boolean color;
@@ -49,6 +45,25 @@ public class Impresora extends Dispositivo {
         this.scanner = false;
     }
 
+    /**
+     * Constructor para reconstruir una impresora ya existente, sin consumir un nuevo ID.
+     * Lo usa {@link CodecDispositivos} al leer los datos.
+     * 
+     * @param id El ID de la impresora.
+     * @param tipo El tipo de impresora.
+     * @param color {@code true} si la impresora puede imprimir a color.
+     * @param scanner {@code true} si la impresora tiene función de escáner.
+     * @param marca La marca del dispositivo.
+     * @param modelo El modelo del dispositivo.
+     * @param estado El estado del dispositivo.
+     */
+    Impresora(int id, int tipo, boolean color, boolean scanner, String marca, String modelo, boolean estado) {
+        super(id, marca, modelo, estado);
+        this.tipo = tipo;
+        this.color = color;
+        this.scanner = scanner;
+    }
+
     /**
      * Obtiene el tipo de la impresora.
      * 
@@ -114,29 +129,14 @@ public class Impresora extends Dispositivo {
     }
 
     /**
-     * Guarda el objeto {@link Impresora} en un archivo. Si ya existe un objeto con el mismo ID, lo actualiza.
-     * Si no existe, lo agrega a la lista de dispositivos.
+     * Guarda el objeto {@link Impresora} en un archivo añadiendo un registro al final. Si ya existe un
+     * objeto con el mismo ID, la nueva versión sustituye a la anterior al cargar.
      * 
      * @return {@code true} si el objeto se guardó correctamente, {@code false} en caso contrario.
      */
     @Override
     public boolean save() {
-        ArrayList<Dispositivo> listaDispositivos = loadAll();
-
-        boolean encontrado = false;
-        for (int i = 0; i < listaDispositivos.size(); i++) {
-            if (listaDispositivos.get(i).getId() == this.getId()) {
-                listaDispositivos.set(i, this);
-                encontrado = true;
-                break;
-            }
-        }
-
-        if (!encontrado) {
-            listaDispositivos.add(this);
-        }
-
-        return guardarLista(listaDispositivos);
+        return REPOSITORIO.guardar(this);
     }
 
     /**
@@ -146,51 +146,28 @@ public class Impresora extends Dispositivo {
      * @return El objeto {@link Impresora} si se encuentra en el archivo, {@code null} en caso contrario.
      */
     public static Impresora load(int id) {
-        ArrayList<Dispositivo> listaDispositivos = loadAll();
-        for (Dispositivo d : listaDispositivos) {
-            if (d.getId() == id && !d.isBorrado()) {  // Verifica que no esté borrado
-                if (d instanceof Impresora) {
-                    return (Impresora) d;
-                }
-            }
+        Dispositivo d = REPOSITORIO.buscar(id);  // El almacén ya descarta los borrados
+        if (d instanceof Impresora) {
+            return (Impresora) d;
         }
         return null;
     }
 
     /**
-     * Carga todos los dispositivos desde el archivo.
+     * Carga todos las impresoras del archivo de dispositivos, incluidos los borrados.
      * 
-     * @return Una lista de todos los dispositivos cargados desde el archivo. Si el archivo no existe o hay un error, devuelve una lista vacía.
+     * @return Una lista con las impresoras. Si el archivo no existe o hay un error, devuelve una lista vacía.
      */
     public static ArrayList<Dispositivo> loadAll() {
-        File archivo = new File(ARCHIVO_DATOS);
-        if (!archivo.exists()) {
-            return new ArrayList<>();
-        }
-
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(ARCHIVO_DATOS))) {
-            @SuppressWarnings("unchecked")
-            ArrayList<Dispositivo> dispositivos = (ArrayList<Dispositivo>) ois.readObject();
-            return dispositivos;
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace(); // Log error for debugging
-            return new ArrayList<>();
-        }
+        return REPOSITORIO.consulta().tipo(Impresora.class).incluirBorrados().ejecutar();
     }
 
     /**
-     * Guarda la lista de dispositivos en el archivo.
+     * Crea una consulta sobre las impresoras del archivo de dispositivos.
      * 
-     * @param lista La lista de dispositivos a guardar.
-     * @return {@code true} si la lista se guarda correctamente, {@code false} en caso contrario.
+     * @return La consulta, limitada a impresoras.
      */
-    private static boolean guardarLista(ArrayList<Dispositivo> lista) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(ARCHIVO_DATOS))) {
-            oos.writeObject(lista);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace(); // Log error for debugging
-            return false;
-        }
+    public static ConsultaDispositivos consultar() {
+        return REPOSITORIO.consulta().tipo(Impresora.class);
     }
 }
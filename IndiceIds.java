@@ -0,0 +1,208 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mapa de claves {@code int} a valores {@code long} con direccionamiento abierto.
+ *
+ * <p>Se usa como índice de ID a posición en el archivo de datos. Trabaja directamente con tipos
+ * primitivos para no crear un objeto {@code Integer}/{@code Long} por cada dispositivo.</p>
+ *
+ * @author Frxnker
+ */
+public class IndiceIds {
+
+    private static final int CAPACIDAD_INICIAL = 64;
+
+    private int[] claves;
+    private long[] valores;
+    private boolean[] usados;
+    private int tamaño;
+
+    /**
+     * Constructor que crea un índice vacío.
+     */
+    public IndiceIds() {
+        claves = new int[CAPACIDAD_INICIAL];
+        valores = new long[CAPACIDAD_INICIAL];
+        usados = new boolean[CAPACIDAD_INICIAL];
+    }
+
+    /**
+     * Asocia un valor a una clave, sustituyendo el anterior si existía.
+     *
+     * @param clave La clave.
+     * @param valor El valor.
+     */
+    public void poner(int clave, long valor) {
+        if ((tamaño + 1) * 4 > claves.length * 3) {  // Factor de carga máximo del 75%
+            redimensionar(claves.length * 2);
+        }
+        int i = buscar(clave);
+        if (!usados[i]) {
+            usados[i] = true;
+            claves[i] = clave;
+            tamaño++;
+        }
+        valores[i] = valor;
+    }
+
+    /**
+     * Obtiene el valor asociado a una clave.
+     *
+     * @param clave La clave.
+     * @param porDefecto Valor devuelto si la clave no existe.
+     * @return El valor asociado, o {@code porDefecto} si no existe.
+     */
+    public long obtener(int clave, long porDefecto) {
+        int i = buscar(clave);
+        return usados[i] ? valores[i] : porDefecto;
+    }
+
+    /**
+     * Comprueba si una clave existe en el índice.
+     *
+     * @param clave La clave.
+     * @return {@code true} si existe, {@code false} en caso contrario.
+     */
+    public boolean contiene(int clave) {
+        return usados[buscar(clave)];
+    }
+
+    /**
+     * Devuelve el número de claves del índice.
+     *
+     * @return El número de claves.
+     */
+    public int tamaño() {
+        return tamaño;
+    }
+
+    /**
+     * Devuelve la mayor clave del índice que no pasa de {@code tope}.
+     *
+     * @param tope La mayor clave que se tiene en cuenta.
+     * @return La mayor clave entre 0 y {@code tope}, o -1 si no hay ninguna.
+     */
+    public int maximaClave(int tope) {
+        int maxima = -1;
+        for (int i = 0; i < claves.length; i++) {
+            if (usados[i] && claves[i] > maxima && claves[i] <= tope) {
+                maxima = claves[i];
+            }
+        }
+        return maxima;
+    }
+
+    /**
+     * Devuelve los valores del índice, sin las claves y en un orden cualquiera.
+     *
+     * @return Un array nuevo con un valor por clave.
+     */
+    public long[] valores() {
+        long[] resultado = new long[tamaño];
+        int n = 0;
+        for (int i = 0; i < claves.length; i++) {
+            if (usados[i]) {
+                resultado[n++] = valores[i];
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Escribe el número de claves y cada par clave-valor, en un orden cualquiera.
+     *
+     * @param out Salida de datos.
+     * @throws IOException Si se produce un error de escritura.
+     */
+    public void escribir(DataOutput out) throws IOException {
+        out.writeInt(tamaño);
+        for (int i = 0; i < claves.length; i++) {
+            if (usados[i]) {
+                out.writeInt(claves[i]);
+                out.writeLong(valores[i]);
+            }
+        }
+    }
+
+    /**
+     * Lee un índice escrito con {@link #escribir(DataOutput)}, avanzando la posición del buffer.
+     *
+     * @param in Buffer con los datos, en el orden de bytes por defecto (big-endian).
+     * @return El índice leído.
+     * @throws IOException Si los datos no son válidos.
+     */
+    public static IndiceIds leer(ByteBuffer in) throws IOException {
+        int tamaño = in.getInt();
+        if (tamaño < 0 || tamaño > in.remaining() / (Integer.BYTES + Long.BYTES)) {
+            throw new IOException("Tamaño de índice no válido: " + tamaño);
+        }
+        IndiceIds indice = new IndiceIds();
+        indice.redimensionar(Math.max(CAPACIDAD_INICIAL, Integer.highestOneBit(tamaño / 3 * 4 + 1) * 2));
+        for (int i = 0; i < tamaño; i++) {
+            indice.poner(in.getInt(), in.getLong());
+        }
+        return indice;
+    }
+
+    /**
+     * Devuelve una copia independiente del índice.
+     *
+     * @return La copia.
+     */
+    public IndiceIds copia() {
+        IndiceIds copia = new IndiceIds();
+        copia.claves = claves.clone();
+        copia.valores = valores.clone();
+        copia.usados = usados.clone();
+        copia.tamaño = tamaño;
+        return copia;
+    }
+
+    /**
+     * Elimina todas las claves del índice.
+     */
+    public void limpiar() {
+        Arrays.fill(usados, false);
+        tamaño = 0;
+    }
+
+    /**
+     * Devuelve la posición de la clave, o la primera posición libre donde debería insertarse.
+     */
+    private int buscar(int clave) {
+        int mascara = claves.length - 1;
+        int i = mezclar(clave) & mascara;
+        while (usados[i] && claves[i] != clave) {
+            i = (i + 1) & mascara;
+        }
+        return i;
+    }
+
+    private void redimensionar(int capacidad) {
+        int[] viejasClaves = claves;
+        long[] viejosValores = valores;
+        boolean[] viejosUsados = usados;
+        claves = new int[capacidad];
+        valores = new long[capacidad];
+        usados = new boolean[capacidad];
+        tamaño = 0;
+        for (int i = 0; i < viejasClaves.length; i++) {
+            if (viejosUsados[i]) {
+                poner(viejasClaves[i], viejosValores[i]);
+            }
+        }
+    }
+
+    /**
+     * Dispersa los bits de la clave para que IDs consecutivos no se agrupen.
+     */
+    private static int mezclar(int clave) {
+        int h = clave * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
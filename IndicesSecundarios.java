@@ -0,0 +1,464 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Índices secundarios de los dispositivos por sus atributos.
+ *
+ * <p>Cada índice es un {@link BitSet} donde el bit {@code i} indica que el dispositivo con ID
+ * {@code i} cumple la condición: uno por cada valor de {@code marca} y {@code modelo} (índices
+ * hash, sin distinguir mayúsculas), uno por cada indicador ({@code estado}, {@code borrado},
+ * {@code color}, {@code scanner}), uno por cada {@code tipoDisco} y uno por cada subtipo
+ * ({@link Impresora}, {@link Ordenador}). Una consulta con varias condiciones se resuelve con
+ * {@link BitSet#and(BitSet)} sobre los índices, sin recorrer los dispositivos.</p>
+ *
+ * <p>La {@code ram} y el {@code tamDisco} de los ordenadores tienen además índices ordenados
+ * ({@link TreeMap} de valor a {@link BitSet}) para consultas por rango y de los K mayores, que solo
+ * visitan los valores dentro del rango.</p>
+ *
+ * <p>Los conjuntos de cada valor de estos índices se guardan como lista ordenada de IDs mientras
+ * tienen pocos elementos en proporción al mayor ID, y como {@link BitSet} cuando es más compacto;
+ * así un atributo con muchos valores distintos (por ejemplo el modelo) no reserva un {@link BitSet}
+ * del tamaño de todo el rango de IDs por cada valor.</p>
+ *
+ * <p>Se mantienen de forma incremental desde {@link RepositorioDispositivos}: cada vez que se
+ * guarda un dispositivo se quitan sus valores anteriores y se ponen los actuales. Los métodos de
+ * consulta devuelven copias que el llamador puede modificar.</p>
+ *
+ * <p>Solo se indexan los IDs entre 0 y {@link GeneradorIds#ID_MAXIMO}. Los valores anteriores de
+ * cada ID se guardan en páginas de {@code TAM_PAGINA} IDs que se reservan al usarse, así que un ID
+ * aislado muy alto ocupa una página y no un array del tamaño de todo el rango.</p>
+ *
+ * @author Frxnker
+ */
+public class IndicesSecundarios {
+
+    private final BitSet todos = new BitSet();
+    private final BitSet encendidos = new BitSet();
+    private final BitSet borrados = new BitSet();
+    private final BitSet color = new BitSet();
+    private final BitSet scanner = new BitSet();
+    private final BitSet impresoras = new BitSet();
+    private final BitSet ordenadores = new BitSet();
+    private final Map<String, ConjuntoIds> porMarca = new HashMap<>();
+    private final Map<String, ConjuntoIds> porModelo = new HashMap<>();
+    private final Map<Integer, ConjuntoIds> porTipoDisco = new HashMap<>();
+    private final TreeMap<Integer, ConjuntoIds> porRam = new TreeMap<>();
+    private final TreeMap<Integer, ConjuntoIds> porTamDisco = new TreeMap<>();
+
+    // Valores indexados de cada ID, para quitarlos cuando cambian (los objetos se modifican en su sitio)
+    private Pagina[] paginas = new Pagina[0];
+
+    private static final int SIN_VALOR = Integer.MIN_VALUE;
+    private static final int BITS_PAGINA = 12;
+    private static final int TAM_PAGINA = 1 << BITS_PAGINA;
+
+    /**
+     * Añade o actualiza un dispositivo en los índices.
+     *
+     * @param d El dispositivo.
+     */
+    public synchronized void actualizar(Dispositivo d) {
+        int id = d.getId();
+        if (!GeneradorIds.valido(id)) {
+            return;
+        }
+        Pagina pagina = pagina(id);
+        int i = id & (TAM_PAGINA - 1);
+        pagina.marcas[i] = cambiarClave(porMarca, pagina.marcas[i], clave(d.getMarca()), id);
+        pagina.modelos[i] = cambiarClave(porModelo, pagina.modelos[i], clave(d.getModelo()), id);
+        todos.set(id);
+        encendidos.set(id, d.isEstado());
+        borrados.set(id, d.isBorrado());
+        impresoras.set(id, d instanceof Impresora);
+        ordenadores.set(id, d instanceof Ordenador);
+        color.set(id, d instanceof Impresora && ((Impresora) d).isColor());
+        scanner.set(id, d instanceof Impresora && ((Impresora) d).isScanner());
+        porTipoDisco.values().removeIf(ids -> ids.quitar(id) && ids.vacio());
+        boolean ordenador = d instanceof Ordenador;
+        if (ordenador) {
+            porTipoDisco.computeIfAbsent(((Ordenador) d).getTipoDisco(), k -> new ConjuntoIds()).añadir(id);
+        }
+        pagina.rams[i] = cambiarValor(porRam, pagina.rams[i], ordenador ? ((Ordenador) d).getRam() : SIN_VALOR, id);
+        pagina.tamañosDisco[i] = cambiarValor(porTamDisco, pagina.tamañosDisco[i], ordenador ? ((Ordenador) d).getTamDisco() : SIN_VALOR, id);
+    }
+
+    /**
+     * Devuelve la página de valores de un ID válido, reservándola si no existe.
+     */
+    private Pagina pagina(int id) {
+        int n = id >>> BITS_PAGINA;
+        if (n >= paginas.length) {
+            paginas = Arrays.copyOf(paginas, Math.max(n + 1, paginas.length * 2));
+        }
+        if (paginas[n] == null) {
+            paginas[n] = new Pagina();
+        }
+        return paginas[n];
+    }
+
+    /**
+     * Vacía todos los índices.
+     */
+    public synchronized void limpiar() {
+        todos.clear();
+        encendidos.clear();
+        borrados.clear();
+        color.clear();
+        scanner.clear();
+        impresoras.clear();
+        ordenadores.clear();
+        porMarca.clear();
+        porModelo.clear();
+        porTipoDisco.clear();
+        porRam.clear();
+        porTamDisco.clear();
+        paginas = new Pagina[0];
+    }
+
+    /**
+     * Devuelve los IDs de todos los dispositivos indexados, incluidos los borrados.
+     *
+     * @return Los IDs.
+     */
+    public synchronized BitSet todos() {
+        return (BitSet) todos.clone();
+    }
+
+    /**
+     * @param id Un ID.
+     * @return true si hay un dispositivo indexado con ese ID, aunque esté borrado.
+     */
+    public synchronized boolean contiene(int id) {
+        return id >= 0 && todos.get(id);
+    }
+
+    /**
+     * Devuelve los IDs de los dispositivos no borrados.
+     *
+     * @return Los IDs.
+     */
+    public synchronized BitSet vigentes() {
+        BitSet ids = (BitSet) todos.clone();
+        ids.andNot(borrados);
+        return ids;
+    }
+
+    /**
+     * Devuelve los IDs de los dispositivos borrados.
+     *
+     * @return Los IDs.
+     */
+    public synchronized BitSet borrados() {
+        return (BitSet) borrados.clone();
+    }
+
+    /**
+     * Devuelve los IDs de los dispositivos de una marca, sin distinguir mayúsculas.
+     *
+     * @param marca La marca.
+     * @return Los IDs.
+     */
+    public synchronized BitSet porMarca(String marca) {
+        return copia(porMarca.get(clave(marca)));
+    }
+
+    /**
+     * Devuelve los IDs de los dispositivos de un modelo, sin distinguir mayúsculas.
+     *
+     * @param modelo El modelo.
+     * @return Los IDs.
+     */
+    public synchronized BitSet porModelo(String modelo) {
+        return copia(porModelo.get(clave(modelo)));
+    }
+
+    /**
+     * Devuelve los IDs de los dispositivos encendidos o apagados.
+     *
+     * @param encendido true para los encendidos, false para los apagados.
+     * @return Los IDs.
+     */
+    public synchronized BitSet porEstado(boolean encendido) {
+        if (encendido) {
+            return (BitSet) encendidos.clone();
+        }
+        BitSet ids = (BitSet) todos.clone();
+        ids.andNot(encendidos);
+        return ids;
+    }
+
+    /**
+     * Devuelve los IDs de las impresoras a color.
+     *
+     * @return Los IDs.
+     */
+    public synchronized BitSet conColor() {
+        return (BitSet) color.clone();
+    }
+
+    /**
+     * Devuelve los IDs de las impresoras con escáner.
+     *
+     * @return Los IDs.
+     */
+    public synchronized BitSet conScanner() {
+        return (BitSet) scanner.clone();
+    }
+
+    /**
+     * Devuelve los IDs de los ordenadores con un tipo de disco.
+     *
+     * @param tipoDisco El tipo de disco.
+     * @return Los IDs.
+     */
+    public synchronized BitSet porTipoDisco(int tipoDisco) {
+        return copia(porTipoDisco.get(tipoDisco));
+    }
+
+    /**
+     * Devuelve los IDs de los dispositivos de un subtipo: {@link Impresora}, {@link Ordenador} o
+     * {@link Dispositivo} (los que no son de ningún subtipo).
+     *
+     * @param clase El subtipo.
+     * @return Los IDs.
+     */
+    public synchronized BitSet porClase(Class<? extends Dispositivo> clase) {
+        if (clase == Impresora.class) {
+            return (BitSet) impresoras.clone();
+        }
+        if (clase == Ordenador.class) {
+            return (BitSet) ordenadores.clone();
+        }
+        BitSet ids = (BitSet) todos.clone();
+        ids.andNot(impresoras);
+        ids.andNot(ordenadores);
+        return ids;
+    }
+
+    /**
+     * Devuelve los IDs de los ordenadores con la RAM dentro de un rango, incluidos los borrados.
+     *
+     * @param minimo RAM mínima en GB, incluida.
+     * @param maximo RAM máxima en GB, incluida.
+     * @return Los IDs.
+     */
+    public synchronized BitSet porRam(int minimo, int maximo) {
+        return unir(porRam, minimo, maximo);
+    }
+
+    /**
+     * Devuelve los IDs de los ordenadores con el tamaño de disco dentro de un rango, incluidos los
+     * borrados.
+     *
+     * @param minimo Tamaño mínimo en GB, incluido.
+     * @param maximo Tamaño máximo en GB, incluido.
+     * @return Los IDs.
+     */
+    public synchronized BitSet porTamDisco(int minimo, int maximo) {
+        return unir(porTamDisco, minimo, maximo);
+    }
+
+    /**
+     * Devuelve los IDs de los K ordenadores no borrados con más RAM, de mayor a menor. Los empates
+     * se ordenan por ID.
+     *
+     * @param k Número máximo de IDs.
+     * @return Los IDs, como mucho {@code k}.
+     */
+    public synchronized int[] mayoresPorRam(int k) {
+        return mayores(porRam, k);
+    }
+
+    /**
+     * Devuelve los IDs de los K ordenadores no borrados con más disco, de mayor a menor. Los
+     * empates se ordenan por ID.
+     *
+     * @param k Número máximo de IDs.
+     * @return Los IDs, como mucho {@code k}.
+     */
+    public synchronized int[] mayoresPorTamDisco(int k) {
+        return mayores(porTamDisco, k);
+    }
+
+    private static BitSet unir(TreeMap<Integer, ConjuntoIds> indice, int minimo, int maximo) {
+        BitSet ids = new BitSet();
+        if (minimo <= maximo) {
+            for (ConjuntoIds conValor : indice.subMap(minimo, true, maximo, true).values()) {
+                conValor.unirA(ids);
+            }
+        }
+        return ids;
+    }
+
+    private int[] mayores(TreeMap<Integer, ConjuntoIds> indice, int k) {
+        int[] ids = new int[Math.max(k, 0)];
+        int n = 0;
+        NavigableMap<Integer, ConjuntoIds> descendente = indice.descendingMap();
+        for (ConjuntoIds conValor : descendente.values()) {
+            for (int id = conValor.siguiente(0); id >= 0 && n < k; id = conValor.siguiente(id + 1)) {
+                if (!borrados.get(id)) {
+                    ids[n++] = id;
+                }
+            }
+            if (n == k) {
+                break;
+            }
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * Mueve un ID del conjunto de su valor anterior al del nuevo en un índice ordenado.
+     *
+     * @return El nuevo valor.
+     */
+    private static int cambiarValor(TreeMap<Integer, ConjuntoIds> indice, int anterior, int nuevo, int id) {
+        if (anterior != SIN_VALOR && anterior != nuevo) {
+            ConjuntoIds ids = indice.get(anterior);
+            ids.quitar(id);
+            if (ids.vacio()) {
+                indice.remove(anterior);
+            }
+        }
+        if (nuevo != SIN_VALOR) {
+            indice.computeIfAbsent(nuevo, k -> new ConjuntoIds()).añadir(id);
+        }
+        return nuevo;
+    }
+
+    /**
+     * Mueve un ID del conjunto de su clave anterior al de la nueva.
+     *
+     * @return La nueva clave.
+     */
+    private static String cambiarClave(Map<String, ConjuntoIds> indice, String anterior, String nueva, int id) {
+        if (anterior != null && !anterior.equals(nueva)) {
+            ConjuntoIds ids = indice.get(anterior);
+            ids.quitar(id);
+            if (ids.vacio()) {
+                indice.remove(anterior);
+            }
+        }
+        if (nueva != null) {
+            indice.computeIfAbsent(nueva, k -> new ConjuntoIds()).añadir(id);
+        }
+        return nueva;
+    }
+
+    static String clave(String valor) {
+        return valor == null ? null : valor.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static BitSet copia(ConjuntoIds ids) {
+        BitSet copia = new BitSet();
+        if (ids != null) {
+            ids.unirA(copia);
+        }
+        return copia;
+    }
+
+    /**
+     * Valores indexados de {@code TAM_PAGINA} IDs consecutivos.
+     */
+    private static final class Pagina {
+
+        final String[] marcas = new String[TAM_PAGINA];
+        final String[] modelos = new String[TAM_PAGINA];
+        final int[] rams = new int[TAM_PAGINA];  // SIN_VALOR si el ID no es un ordenador
+        final int[] tamañosDisco = new int[TAM_PAGINA];
+
+        Pagina() {
+            Arrays.fill(rams, SIN_VALOR);
+            Arrays.fill(tamañosDisco, SIN_VALOR);
+        }
+    }
+
+    /**
+     * Conjunto de IDs de un valor de un índice: una lista ordenada mientras ocupa menos que un
+     * {@link BitSet} hasta su mayor ID, y un {@link BitSet} a partir de ahí.
+     */
+    private static final class ConjuntoIds {
+
+        private int[] lista = new int[2];
+        private int tamaño = 0;
+        private BitSet bits;  // null mientras se usa la lista
+
+        void añadir(int id) {
+            if (bits != null) {
+                bits.set(id);
+                return;
+            }
+            int pos = Arrays.binarySearch(lista, 0, tamaño, id);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            if (tamaño == lista.length) {
+                lista = Arrays.copyOf(lista, tamaño * 2);
+            }
+            System.arraycopy(lista, pos, lista, pos + 1, tamaño - pos);
+            lista[pos] = id;
+            tamaño++;
+            if ((long) tamaño * Integer.SIZE > lista[tamaño - 1]) {  // La lista ya ocupa más que los bits
+                bits = new BitSet(lista[tamaño - 1] + 1);
+                for (int i = 0; i < tamaño; i++) {
+                    bits.set(lista[i]);
+                }
+                lista = null;
+            }
+        }
+
+        /**
+         * @return true si el ID estaba en el conjunto.
+         */
+        boolean quitar(int id) {
+            if (bits != null) {
+                boolean estaba = bits.get(id);
+                bits.clear(id);
+                return estaba;
+            }
+            int pos = Arrays.binarySearch(lista, 0, tamaño, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(lista, pos + 1, lista, pos, tamaño - pos - 1);
+            tamaño--;
+            return true;
+        }
+
+        boolean vacio() {
+            return bits != null ? bits.isEmpty() : tamaño == 0;
+        }
+
+        /**
+         * Devuelve el menor ID del conjunto mayor o igual que {@code desde}, o -1 si no hay.
+         */
+        int siguiente(int desde) {
+            if (bits != null) {
+                return bits.nextSetBit(desde);
+            }
+            int pos = Arrays.binarySearch(lista, 0, tamaño, desde);
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            return pos < tamaño ? lista[pos] : -1;
+        }
+
+        void unirA(BitSet destino) {
+            if (bits != null) {
+                destino.or(bits);
+                return;
+            }
+            for (int i = 0; i < tamaño; i++) {
+                destino.set(lista[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Copia por columnas de los dispositivos no borrados, fuera del heap, para informes que recorren
+ * todo el inventario (encendidos por marca, capacidad de disco por tipo de disco...).
+ *
+ * <p>Cada campo se guarda en su propia columna de valores primitivos en un {@link ByteBuffer}
+ * directo: {@code id}, tipo, estado, color, scanner, {@code ram}, {@code tamDisco},
+ * {@code tipoDisco} y el tipo de impresora. Las cadenas ({@code marca}, {@code modelo} y
+ * {@code procesador}) se codifican con un diccionario: la columna guarda un código y el heap solo
+ * las cadenas distintas. Un dispositivo ocupa 36 bytes fuera del heap, en lugar de los objetos y
+ * cadenas que mantiene la caché de {@link RepositorioDispositivos}. Los campos que no tiene un
+ * tipo de dispositivo valen 0 (o null en las cadenas).</p>
+ *
+ * <p>Los agregados recorren las columnas que necesitan en un único bucle sin objetos ni saltos
+ * por dispositivo, que el JIT puede desenrollar y vectorizar.</p>
+ *
+ * <p>La copia no cambia: refleja el repositorio en el momento de crearla. Si la caché del
+ * repositorio no está completa, se construye recorriendo el archivo sin llenar la caché, y las
+ * filas se ordenan después por ID.</p>
+ *
+ * @author Frxnker
+ */
+public class InstantaneaColumnar {
+
+    /**
+     * Columnas de cadenas, codificadas con diccionario.
+     */
+    public enum Texto { MARCA, MODELO, PROCESADOR }
+
+    /**
+     * Columnas numéricas.
+     */
+    public enum Numero { RAM, TAM_DISCO, TIPO_DISCO, TIPO_IMPRESORA }
+
+    private static final int CAPACIDAD_INICIAL = 1 << 12;
+    private static final int MAX_RANGO_DENSO = 1 << 20;  // Agrupaciones numéricas con array en lugar de mapa
+
+    private final int tamaño;
+    private final ByteBuffer ids;
+    private final ByteBuffer tipos;
+    private final ByteBuffer estados;
+    private final ByteBuffer colores;
+    private final ByteBuffer scanners;
+    private final ByteBuffer[] numeros = new ByteBuffer[Numero.values().length];
+    private final ByteBuffer[] textos = new ByteBuffer[Texto.values().length];
+    private final String[][] diccionarios = new String[Texto.values().length][];
+
+    /**
+     * Crea la copia por columnas de los dispositivos no borrados de un repositorio.
+     *
+     * @param repositorio El repositorio.
+     * @return La copia.
+     */
+    public static InstantaneaColumnar de(RepositorioDispositivos repositorio) {
+        Constructor constructor = new Constructor();
+        try (Stream<Dispositivo> dispositivos = repositorio.recorrer((tipo, id, estado, borrado) -> !borrado)) {
+            dispositivos.forEach(constructor::añadir);
+        }
+        constructor.ordenar();  // El recorrido del archivo no sigue el orden de ID
+        return new InstantaneaColumnar(constructor);
+    }
+
+    private InstantaneaColumnar(Constructor c) {
+        tamaño = c.tamaño;
+        ids = ajustar(c.ids, tamaño * Integer.BYTES);
+        tipos = ajustar(c.tipos, tamaño);
+        estados = ajustar(c.estados, tamaño);
+        colores = ajustar(c.colores, tamaño);
+        scanners = ajustar(c.scanners, tamaño);
+        for (int i = 0; i < numeros.length; i++) {
+            numeros[i] = ajustar(c.numeros[i], tamaño * Integer.BYTES);
+        }
+        for (int i = 0; i < textos.length; i++) {
+            textos[i] = ajustar(c.textos[i], tamaño * Integer.BYTES);
+            diccionarios[i] = c.valores.get(i).toArray(new String[0]);
+        }
+    }
+
+    /**
+     * @return Número de dispositivos de la copia.
+     */
+    public int tamaño() {
+        return tamaño;
+    }
+
+    /**
+     * @return Bytes que ocupan las columnas fuera del heap.
+     */
+    public long bytesColumnas() {
+        long total = ids.capacity() + tipos.capacity() + estados.capacity() + colores.capacity() + scanners.capacity();
+        for (ByteBuffer columna : numeros) {
+            total += columna.capacity();
+        }
+        for (ByteBuffer columna : textos) {
+            total += columna.capacity();
+        }
+        return total;
+    }
+
+    /**
+     * Devuelve el ID del dispositivo de una fila.
+     *
+     * @param fila Fila, de 0 a {@link #tamaño()} - 1, en orden de ID.
+     * @return El ID.
+     */
+    public int id(int fila) {
+        return ids.getInt(fila * Integer.BYTES);
+    }
+
+    /**
+     * Empieza una selección de filas sobre la que calcular agregados. Sin condiciones selecciona
+     * todos los dispositivos.
+     *
+     * @return La selección.
+     */
+    public Seleccion seleccionar() {
+        return new Seleccion();
+    }
+
+    /**
+     * Condiciones sobre las filas y agregados sobre las filas que las cumplen. Las condiciones se
+     * combinan con AND; una condición repetida sustituye a la anterior.
+     */
+    public class Seleccion {
+
+        private static final int CUALQUIERA = -1;
+        private static final int NINGUNO = -2;  // Código de una cadena que no está en el diccionario
+
+        private int tipo = CUALQUIERA;
+        private int estado = CUALQUIERA;
+        private int color = CUALQUIERA;
+        private int scanner = CUALQUIERA;
+        private final int[] codigos = {CUALQUIERA, CUALQUIERA, CUALQUIERA};
+
+        private Seleccion() {
+        }
+
+        /**
+         * Solo dispositivos de una clase exacta.
+         *
+         * @param clase {@link Dispositivo}, {@link Impresora} u {@link Ordenador}.
+         * @return Esta selección.
+         */
+        public Seleccion tipo(Class<? extends Dispositivo> clase) {
+            tipo = clase == Impresora.class ? CodecDispositivos.TIPO_IMPRESORA
+                    : clase == Ordenador.class ? CodecDispositivos.TIPO_ORDENADOR
+                    : CodecDispositivos.TIPO_DISPOSITIVO;
+            return this;
+        }
+
+        /**
+         * Solo dispositivos encendidos o apagados.
+         *
+         * @param estado true para los encendidos.
+         * @return Esta selección.
+         */
+        public Seleccion estado(boolean estado) {
+            this.estado = estado ? 1 : 0;
+            return this;
+        }
+
+        /**
+         * Solo impresoras con o sin color.
+         *
+         * @param color true para las de color.
+         * @return Esta selección.
+         */
+        public Seleccion color(boolean color) {
+            this.color = color ? 1 : 0;
+            return tipo(Impresora.class);
+        }
+
+        /**
+         * Solo impresoras con o sin scanner.
+         *
+         * @param scanner true para las que tienen scanner.
+         * @return Esta selección.
+         */
+        public Seleccion scanner(boolean scanner) {
+            this.scanner = scanner ? 1 : 0;
+            return tipo(Impresora.class);
+        }
+
+        /**
+         * Solo dispositivos con una cadena exacta en una columna de texto.
+         *
+         * @param columna La columna.
+         * @param valor El valor, distinguiendo mayúsculas.
+         * @return Esta selección.
+         */
+        public Seleccion igual(Texto columna, String valor) {
+            String[] diccionario = diccionarios[columna.ordinal()];
+            codigos[columna.ordinal()] = NINGUNO;
+            for (int codigo = 0; codigo < diccionario.length; codigo++) {
+                if (valor == null ? diccionario[codigo] == null : valor.equals(diccionario[codigo])) {
+                    codigos[columna.ordinal()] = codigo;
+                    break;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @return Número de dispositivos seleccionados.
+         */
+        public long contar() {
+            long total = 0;
+            for (int fila = 0; fila < tamaño; fila++) {
+                total += cumple(fila);
+            }
+            return total;
+        }
+
+        /**
+         * @param columna Columna sumada.
+         * @return Suma de la columna en los dispositivos seleccionados.
+         */
+        public long sumar(Numero columna) {
+            ByteBuffer valores = numeros[columna.ordinal()];
+            long total = 0;
+            for (int fila = 0; fila < tamaño; fila++) {
+                total += valores.getInt(fila * Integer.BYTES) & -cumple(fila);
+            }
+            return total;
+        }
+
+        /**
+         * @param grupo Columna por la que se agrupa.
+         * @return Número de dispositivos seleccionados por cada valor de la columna, en el orden en
+         *         que aparecieron los valores, sin los valores sin dispositivos.
+         */
+        public Map<String, Long> contarPor(Texto grupo) {
+            return sumarPor(grupo, null);
+        }
+
+        /**
+         * @param grupo Columna por la que se agrupa.
+         * @param columna Columna sumada, o null para contar.
+         * @return Suma de la columna en los dispositivos seleccionados por cada valor de la
+         *         columna de agrupación, en el orden en que aparecieron los valores, sin los
+         *         valores sin dispositivos.
+         */
+        public Map<String, Long> sumarPor(Texto grupo, Numero columna) {
+            ByteBuffer grupos = textos[grupo.ordinal()];
+            ByteBuffer valores = columna == null ? null : numeros[columna.ordinal()];
+            long[] totales = new long[diccionarios[grupo.ordinal()].length];
+            long[] cuenta = new long[totales.length];
+            for (int fila = 0; fila < tamaño; fila++) {
+                int codigo = grupos.getInt(fila * Integer.BYTES);
+                int cumple = cumple(fila);
+                cuenta[codigo] += cumple;
+                if (valores != null) {
+                    totales[codigo] += valores.getInt(fila * Integer.BYTES) & -cumple;
+                }
+            }
+            Map<String, Long> resultado = new LinkedHashMap<>();
+            String[] diccionario = diccionarios[grupo.ordinal()];
+            for (int codigo = 0; codigo < totales.length; codigo++) {
+                if (cuenta[codigo] > 0) {
+                    resultado.put(diccionario[codigo], valores == null ? cuenta[codigo] : totales[codigo]);
+                }
+            }
+            return resultado;
+        }
+
+        /**
+         * @param grupo Columna por la que se agrupa.
+         * @return Número de dispositivos seleccionados por cada valor de la columna, ordenados.
+         */
+        public TreeMap<Integer, Long> contarPor(Numero grupo) {
+            return sumarPor(grupo, null);
+        }
+
+        /**
+         * @param grupo Columna por la que se agrupa.
+         * @param columna Columna sumada, o null para contar.
+         * @return Suma de la columna en los dispositivos seleccionados por cada valor de la
+         *         columna de agrupación, ordenados.
+         */
+        public TreeMap<Integer, Long> sumarPor(Numero grupo, Numero columna) {
+            ByteBuffer grupos = numeros[grupo.ordinal()];
+            ByteBuffer valores = columna == null ? null : numeros[columna.ordinal()];
+            int minimo = Integer.MAX_VALUE;
+            int maximo = Integer.MIN_VALUE;
+            for (int fila = 0; fila < tamaño; fila++) {
+                if (cumple(fila) != 0) {
+                    int valor = grupos.getInt(fila * Integer.BYTES);
+                    minimo = Math.min(minimo, valor);
+                    maximo = Math.max(maximo, valor);
+                }
+            }
+            TreeMap<Integer, Long> resultado = new TreeMap<>();
+            if (minimo > maximo) {
+                return resultado;
+            }
+            if ((long) maximo - minimo < MAX_RANGO_DENSO) {
+                // Pocos valores distintos posibles: acumuladores por posición, como en los textos
+                long[] totales = new long[maximo - minimo + 1];
+                long[] cuenta = new long[totales.length];
+                for (int fila = 0; fila < tamaño; fila++) {
+                    int cumple = cumple(fila);
+                    int posicion = (grupos.getInt(fila * Integer.BYTES) - minimo) & -cumple;
+                    cuenta[posicion] += cumple;
+                    if (valores != null) {
+                        totales[posicion] += valores.getInt(fila * Integer.BYTES) & -cumple;
+                    }
+                }
+                for (int i = 0; i < totales.length; i++) {
+                    if (cuenta[i] > 0) {
+                        resultado.put(minimo + i, valores == null ? cuenta[i] : totales[i]);
+                    }
+                }
+            } else {
+                HashMap<Integer, long[]> totales = new HashMap<>();
+                for (int fila = 0; fila < tamaño; fila++) {
+                    if (cumple(fila) != 0) {
+                        long[] total = totales.computeIfAbsent(grupos.getInt(fila * Integer.BYTES), k -> new long[1]);
+                        total[0] += valores == null ? 1 : valores.getInt(fila * Integer.BYTES);
+                    }
+                }
+                totales.forEach((valor, total) -> resultado.put(valor, total[0]));
+            }
+            return resultado;
+        }
+
+        /**
+         * Evalúa las condiciones sobre una fila. Las condiciones sin fijar se saltan sin leer su
+         * columna (el salto es el mismo en todas las filas) y las fijadas se combinan sin saltos
+         * que dependan de los datos.
+         *
+         * @return 1 si la fila cumple las condiciones, 0 si no.
+         */
+        private int cumple(int fila) {
+            int posicion = fila * Integer.BYTES;
+            boolean cumple = (tipo == CUALQUIERA || tipos.get(fila) == tipo)
+                    & (estado == CUALQUIERA || estados.get(fila) == estado)
+                    & (color == CUALQUIERA || colores.get(fila) == color)
+                    & (scanner == CUALQUIERA || scanners.get(fila) == scanner)
+                    & (codigos[0] == CUALQUIERA || textos[0].getInt(posicion) == codigos[0])
+                    & (codigos[1] == CUALQUIERA || textos[1].getInt(posicion) == codigos[1])
+                    & (codigos[2] == CUALQUIERA || textos[2].getInt(posicion) == codigos[2]);
+            return cumple ? 1 : 0;
+        }
+    }
+
+    /**
+     * Devuelve un buffer directo con los primeros bytes de otro y la capacidad indicada.
+     */
+    private static ByteBuffer ajustar(ByteBuffer buffer, int capacidad) {
+        ByteBuffer nuevo = ByteBuffer.allocateDirect(capacidad).order(ByteOrder.nativeOrder());
+        if (buffer != null) {
+            nuevo.put(0, buffer, 0, Math.min(capacidad, buffer.capacity()));
+        }
+        return nuevo;
+    }
+
+    /**
+     * Columnas en construcción, que crecen al doble cuando se llenan.
+     */
+    private static class Constructor {
+
+        private int tamaño = 0;
+        private int capacidad = CAPACIDAD_INICIAL;
+        private boolean ordenado = true;  // Si las filas añadidas hasta ahora están en orden de ID
+        private ByteBuffer ids = columna(Integer.BYTES);
+        private ByteBuffer tipos = columna(1);
+        private ByteBuffer estados = columna(1);
+        private ByteBuffer colores = columna(1);
+        private ByteBuffer scanners = columna(1);
+        private final ByteBuffer[] numeros = new ByteBuffer[Numero.values().length];
+        private final ByteBuffer[] textos = new ByteBuffer[Texto.values().length];
+        private final ArrayList<Map<String, Integer>> codigos = new ArrayList<>();
+        private final ArrayList<ArrayList<String>> valores = new ArrayList<>();
+
+        Constructor() {
+            for (int i = 0; i < numeros.length; i++) {
+                numeros[i] = columna(Integer.BYTES);
+            }
+            for (int i = 0; i < textos.length; i++) {
+                textos[i] = columna(Integer.BYTES);
+                codigos.add(new HashMap<>());
+                valores.add(new ArrayList<>());
+            }
+        }
+
+        private ByteBuffer columna(int bytesPorFila) {
+            return ajustar(null, capacidad * bytesPorFila);
+        }
+
+        void añadir(Dispositivo d) {
+            if (tamaño == capacidad) {
+                crecer();
+            }
+            int fila = tamaño++;
+            int posicion = fila * Integer.BYTES;
+            if (fila > 0 && d.getId() < ids.getInt(posicion - Integer.BYTES)) {
+                ordenado = false;
+            }
+            ids.putInt(posicion, d.getId());
+            tipos.put(fila, CodecDispositivos.tipoDe(d));
+            estados.put(fila, (byte) (d.isEstado() ? 1 : 0));
+            textos[Texto.MARCA.ordinal()].putInt(posicion, codigo(Texto.MARCA, d.getMarca()));
+            textos[Texto.MODELO.ordinal()].putInt(posicion, codigo(Texto.MODELO, d.getModelo()));
+            String procesador = null;
+            if (d instanceof Impresora) {
+                Impresora i = (Impresora) d;
+                colores.put(fila, (byte) (i.isColor() ? 1 : 0));
+                scanners.put(fila, (byte) (i.isScanner() ? 1 : 0));
+                numeros[Numero.TIPO_IMPRESORA.ordinal()].putInt(posicion, i.getTipo());
+            } else if (d instanceof Ordenador) {
+                Ordenador o = (Ordenador) d;
+                numeros[Numero.RAM.ordinal()].putInt(posicion, o.getRam());
+                numeros[Numero.TAM_DISCO.ordinal()].putInt(posicion, o.getTamDisco());
+                numeros[Numero.TIPO_DISCO.ordinal()].putInt(posicion, o.getTipoDisco());
+                procesador = o.getProcesador();
+            }
+            textos[Texto.PROCESADOR.ordinal()].putInt(posicion, codigo(Texto.PROCESADOR, procesador));
+        }
+
+        private int codigo(Texto columna, String valor) {
+            Integer codigo = codigos.get(columna.ordinal()).get(valor);
+            if (codigo == null) {
+                ArrayList<String> distintos = valores.get(columna.ordinal());
+                codigo = distintos.size();
+                distintos.add(valor);
+                codigos.get(columna.ordinal()).put(valor, codigo);
+            }
+            return codigo;
+        }
+
+        /**
+         * Reordena las filas por ID si no se añadieron en ese orden.
+         */
+        void ordenar() {
+            if (ordenado) {
+                return;
+            }
+            long[] claves = new long[tamaño];  // ID en la parte alta y fila en la baja
+            for (int fila = 0; fila < tamaño; fila++) {
+                claves[fila] = (long) ids.getInt(fila * Integer.BYTES) << 32 | fila;
+            }
+            Arrays.sort(claves);
+            int[] filas = new int[tamaño];
+            for (int i = 0; i < tamaño; i++) {
+                filas[i] = (int) claves[i];
+            }
+            ids = permutar(ids, filas, Integer.BYTES);
+            tipos = permutar(tipos, filas, 1);
+            estados = permutar(estados, filas, 1);
+            colores = permutar(colores, filas, 1);
+            scanners = permutar(scanners, filas, 1);
+            for (int i = 0; i < numeros.length; i++) {
+                numeros[i] = permutar(numeros[i], filas, Integer.BYTES);
+            }
+            for (int i = 0; i < textos.length; i++) {
+                textos[i] = permutar(textos[i], filas, Integer.BYTES);
+            }
+            ordenado = true;
+        }
+
+        /**
+         * Devuelve una columna nueva cuya fila {@code i} es la fila {@code filas[i]} de otra.
+         */
+        private ByteBuffer permutar(ByteBuffer columna, int[] filas, int bytesPorFila) {
+            ByteBuffer nueva = columna(bytesPorFila);
+            for (int i = 0; i < filas.length; i++) {
+                if (bytesPorFila == 1) {
+                    nueva.put(i, columna.get(filas[i]));
+                } else {
+                    nueva.putInt(i * Integer.BYTES, columna.getInt(filas[i] * Integer.BYTES));
+                }
+            }
+            return nueva;
+        }
+
+        private void crecer() {
+            capacidad *= 2;
+            ids = ajustar(ids, capacidad * Integer.BYTES);
+            tipos = ajustar(tipos, capacidad);
+            estados = ajustar(estados, capacidad);
+            colores = ajustar(colores, capacidad);
+            scanners = ajustar(scanners, capacidad);
+            for (int i = 0; i < numeros.length; i++) {
+                numeros[i] = ajustar(numeros[i], capacidad * Integer.BYTES);
+            }
+            for (int i = 0; i < textos.length; i++) {
+                textos[i] = ajustar(textos[i], capacidad * Integer.BYTES);
+            }
+        }
+    }
+}
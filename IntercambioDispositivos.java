@@ -0,0 +1,487 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Importación y exportación masiva de dispositivos en CSV o JSON Lines, según la extensión del
+ * archivo ({@code .csv}, o {@code .jsonl}/{@code .json}).
+ *
+ * <p>Los dos formatos tienen los mismos campos: {@code tipo} ({@code dispositivo},
+ * {@code impresora} u {@code ordenador}), {@code id}, {@code marca}, {@code modelo},
+ * {@code estado}, {@code borrado}, los de impresora ({@code tipoImpresora}, {@code color},
+ * {@code scanner}) y los de ordenador ({@code ram}, {@code procesador}, {@code tamDisco},
+ * {@code tipoDisco}). En CSV la primera línea es la cabecera con los nombres de las columnas, en
+ * cualquier orden; en JSON Lines cada línea es un objeto plano (ver {@link JsonPlano}). Solo son
+ * obligatorios {@code marca} y {@code modelo}.</p>
+ *
+ * <p>La importación lee el archivo por trozos de {@code TAM_TROZO} registros, que se analizan en
+ * paralelo en el {@link ForkJoinPool} común mientras se sigue leyendo, y guarda los dispositivos
+ * en orden con el repositorio en modo {@link Durabilidad#LOTE}, de modo que se escriben en pocas
+ * escrituras grandes en lugar de una por dispositivo. Solo hay en memoria unos pocos trozos a la
+ * vez, así que el tamaño del archivo no está limitado por la memoria. Las líneas no válidas se
+ * informan y se saltan.</p>
+ *
+ * <p>Si un dispositivo importado no tiene {@code id}, su ID ya está usado o está fuera de rango
+ * (negativo o mayor que {@link GeneradorIds#ID_MAXIMO}), recibe uno nuevo del generador del
+ * repositorio; así un archivo exportado se puede volver a importar en otro almacén conservando los
+ * IDs. Las líneas rechazadas se informan por la salida de errores.</p>
+ *
+ * @author Frxnker
+ */
+public class IntercambioDispositivos {
+
+    private static final int TAM_TROZO = 4096;  // Registros analizados por tarea
+    private static final int TROZOS_EN_CURSO = 2 * ForkJoinPool.getCommonPoolParallelism() + 2;
+    private static final int TAM_BUFFER = 1 << 16;
+    private static final int SIN_ID = -1;
+
+    private static final String[] CAMPOS = {"tipo", "id", "marca", "modelo", "estado", "borrado",
+            "tipoImpresora", "color", "scanner", "ram", "procesador", "tamDisco", "tipoDisco"};
+
+    private IntercambioDispositivos() {
+        // Clase de utilidades, no se instancia
+    }
+
+    /**
+     * Importa los dispositivos de un archivo CSV o JSON Lines.
+     *
+     * <p>Si se produce un error de escritura la importación se detiene, y los dispositivos ya
+     * guardados se quedan en el almacén.</p>
+     *
+     * @param archivo Archivo a importar.
+     * @param destino Repositorio donde se guardan.
+     * @return Número de dispositivos importados, o -1 si hubo un error de lectura o escritura.
+     */
+    public static int importar(File archivo, RepositorioDispositivos destino) {
+        boolean csv = esCsv(archivo);
+        IndicesSecundarios usados = destino.indices();
+        Durabilidad anterior = destino.getDurabilidad();
+        int importados = 0;
+        int rechazados = 0;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(archivo), StandardCharsets.UTF_8), TAM_BUFFER)) {
+            int[] linea = {0};
+            Map<String, Integer> columnas = null;
+            if (csv) {
+                String cabecera = leerRegistro(in, linea, true);
+                if (cabecera == null) {
+                    return 0;
+                }
+                columnas = columnasDe(cabecera);
+            }
+            Map<String, Integer> cabecera = columnas;
+            destino.setDurabilidad(Durabilidad.LOTE);
+            ArrayDeque<ForkJoinTask<Trozo>> enCurso = new ArrayDeque<>();
+            boolean fin = false;
+            while (!fin || !enCurso.isEmpty()) {
+                if (!fin) {
+                    Trozo trozo = leerTrozo(in, linea, csv);
+                    if (trozo == null) {
+                        fin = true;
+                    } else {
+                        enCurso.add(ForkJoinPool.commonPool().submit(() -> analizar(trozo, cabecera)));
+                    }
+                }
+                if (!enCurso.isEmpty() && (fin || enCurso.size() >= TROZOS_EN_CURSO)) {
+                    Trozo analizado = enCurso.poll().join();
+                    importados += guardar(analizado, destino, usados);
+                    rechazados += analizado.errores.size();
+                    for (String error : analizado.errores) {
+                        System.err.println(error);
+                    }
+                }
+            }
+            if (!destino.vaciar()) {
+                throw new IOException("No se han podido escribir los dispositivos importados");
+            }
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            e.printStackTrace(); // Log error for debugging
+            return -1;
+        } finally {
+            destino.setDurabilidad(anterior);
+        }
+        if (rechazados > 0) {
+            System.err.println(rechazados + " registros rechazados.");
+        }
+        return importados;
+    }
+
+    /**
+     * Exporta a un archivo CSV o JSON Lines los dispositivos no borrados, recorriéndolos sin
+     * cargarlos todos en memoria.
+     *
+     * @param archivo Archivo de destino, que se sobrescribe.
+     * @param origen Repositorio de donde se leen.
+     * @return Número de dispositivos exportados, o -1 si hubo un error de escritura.
+     */
+    public static int exportar(File archivo, RepositorioDispositivos origen) {
+        boolean csv = esCsv(archivo);
+        int exportados = 0;
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(archivo.toPath()), StandardCharsets.UTF_8), TAM_BUFFER);
+                Stream<Dispositivo> dispositivos = origen.recorrer((tipo, id, estado, borrado) -> !borrado)) {
+            StringBuilder sb = new StringBuilder(256);
+            if (csv) {
+                out.write(String.join(",", CAMPOS));
+                out.write('\n');
+            }
+            for (Dispositivo d : (Iterable<Dispositivo>) dispositivos::iterator) {
+                sb.setLength(0);
+                String[] valores = valoresDe(d);
+                if (csv) {
+                    escribirCsv(sb, valores);
+                } else {
+                    escribirJson(sb, valores);
+                }
+                sb.append('\n');
+                out.append(sb);
+                exportados++;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace(); // Log error for debugging
+            return -1;
+        }
+        return exportados;
+    }
+
+    /**
+     * Registros leídos del archivo y, una vez analizados, los dispositivos y errores resultantes.
+     */
+    private static final class Trozo {
+        final ArrayList<String> registros = new ArrayList<>(TAM_TROZO);
+        final ArrayList<Integer> lineas = new ArrayList<>(TAM_TROZO);
+        final ArrayList<Dispositivo> dispositivos = new ArrayList<>(TAM_TROZO);
+        final ArrayList<String> errores = new ArrayList<>();
+    }
+
+    private static Trozo leerTrozo(BufferedReader in, int[] linea, boolean csv) throws IOException {
+        Trozo trozo = new Trozo();
+        String registro;
+        while (trozo.registros.size() < TAM_TROZO && (registro = leerRegistro(in, linea, csv)) != null) {
+            trozo.registros.add(registro);
+            trozo.lineas.add(linea[0]);
+        }
+        return trozo.registros.isEmpty() ? null : trozo;
+    }
+
+    /**
+     * Lee el siguiente registro no vacío. En CSV un registro sigue en la línea siguiente mientras
+     * tenga unas comillas sin cerrar.
+     *
+     * @param linea Número de la última línea leída, que se actualiza.
+     * @return El registro, o null al final del archivo.
+     */
+    private static String leerRegistro(BufferedReader in, int[] linea, boolean csv) throws IOException {
+        String registro;
+        do {
+            registro = in.readLine();
+            if (registro == null) {
+                return null;
+            }
+            linea[0]++;
+        } while (registro.isBlank());
+        if (csv) {
+            while (comillasAbiertas(registro)) {
+                String siguiente = in.readLine();
+                if (siguiente == null) {
+                    break;  // Lo rechazará el análisis
+                }
+                linea[0]++;
+                registro = registro + "\n" + siguiente;
+            }
+        }
+        return registro;
+    }
+
+    private static boolean comillasAbiertas(String registro) {
+        int comillas = 0;
+        for (int i = 0; i < registro.length(); i++) {
+            if (registro.charAt(i) == '"') {
+                comillas++;
+            }
+        }
+        return comillas % 2 != 0;
+    }
+
+    /**
+     * Convierte los registros de un trozo en dispositivos. Se ejecuta en el pool de hilos.
+     */
+    private static Trozo analizar(Trozo trozo, Map<String, Integer> columnas) {
+        for (int i = 0; i < trozo.registros.size(); i++) {
+            try {
+                Function<String, String> campo;
+                if (columnas != null) {
+                    ArrayList<String> valores = dividirCsv(trozo.registros.get(i));
+                    campo = nombre -> {
+                        Integer columna = columnas.get(nombre);
+                        return columna == null || columna >= valores.size() ? null : valores.get(columna);
+                    };
+                } else {
+                    campo = JsonPlano.leer(trozo.registros.get(i))::get;
+                }
+                trozo.dispositivos.add(crear(campo));
+            } catch (IllegalArgumentException e) {
+                trozo.errores.add("Línea " + trozo.lineas.get(i) + ": " + e.getMessage());
+            }
+        }
+        trozo.registros.clear();
+        return trozo;
+    }
+
+    /**
+     * Guarda los dispositivos de un trozo, dando un ID nuevo a los que no tienen, lo tienen usado o
+     * fuera de rango.
+     *
+     * @return Número de dispositivos guardados.
+     */
+    private static int guardar(Trozo trozo, RepositorioDispositivos destino, IndicesSecundarios usados) throws IOException {
+        for (Dispositivo d : trozo.dispositivos) {
+            if (!GeneradorIds.valido(d.getId()) || usados.contiene(d.getId())) {
+                d.reasignarId(destino.nuevoId());
+            }
+            if (!destino.guardar(d)) {
+                throw new IOException("No se ha podido guardar el dispositivo " + d.getId());
+            }
+        }
+        return trozo.dispositivos.size();
+    }
+
+    /**
+     * Crea un dispositivo a partir de sus campos, sin consumir un ID del generador. Si no se indica
+     * {@code id}, el dispositivo queda con un ID negativo.
+     *
+     * @param campo Devuelve el valor de cada campo por su nombre, o null si no está.
+     * @return El dispositivo.
+     * @throws IllegalArgumentException Si falta un campo obligatorio o un valor no es válido.
+     */
+    static Dispositivo crear(Function<String, String> campo) {
+        String marca = obligatorio(campo, "marca");
+        String modelo = obligatorio(campo, "modelo");
+        int id = entero(campo, "id", SIN_ID);
+        boolean estado = booleano(campo, "estado");
+        String tipo = campo.apply("tipo");
+        Dispositivo d;
+        switch (tipo == null ? "dispositivo" : tipo.trim().toLowerCase(Locale.ROOT)) {
+            case "dispositivo":
+                d = new Dispositivo(id, marca, modelo, estado);
+                break;
+            case "impresora":
+                d = new Impresora(id, entero(campo, "tipoImpresora", 0), booleano(campo, "color"),
+                        booleano(campo, "scanner"), marca, modelo, estado);
+                break;
+            case "ordenador":
+                String procesador = campo.apply("procesador");
+                d = new Ordenador(id, entero(campo, "ram", 0), procesador == null ? "Desconocido" : procesador,
+                        entero(campo, "tamDisco", 0), entero(campo, "tipoDisco", 0), marca, modelo, estado);
+                break;
+            default:
+                throw new IllegalArgumentException("tipo de dispositivo desconocido: " + tipo);
+        }
+        d.setBorrado(booleano(campo, "borrado"));
+        return d;
+    }
+
+    private static String obligatorio(Function<String, String> campo, String nombre) {
+        String valor = campo.apply(nombre);
+        if (valor == null) {
+            throw new IllegalArgumentException("falta el campo " + nombre);
+        }
+        return valor;
+    }
+
+    static int entero(Function<String, String> campo, String nombre, int porDefecto) {
+        String valor = campo.apply(nombre);
+        if (valor == null) {
+            return porDefecto;
+        }
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("el campo " + nombre + " no es un número: " + valor);
+        }
+    }
+
+    static long enteroLargo(Function<String, String> campo, String nombre, long porDefecto) {
+        String valor = campo.apply(nombre);
+        if (valor == null) {
+            return porDefecto;
+        }
+        try {
+            return Long.parseLong(valor.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("el campo " + nombre + " no es un número: " + valor);
+        }
+    }
+
+    static boolean booleano(Function<String, String> campo, String nombre) {
+        String valor = campo.apply(nombre);
+        if (valor == null) {
+            return false;
+        }
+        switch (valor.trim().toLowerCase(Locale.ROOT)) {
+            case "true": case "1": case "si": case "sí":
+                return true;
+            case "false": case "0": case "no":
+                return false;
+            default:
+                throw new IllegalArgumentException("el campo " + nombre + " no es un booleano: " + valor);
+        }
+    }
+
+    /**
+     * Devuelve un dispositivo como objeto JSON, con los mismos campos que la exportación.
+     *
+     * @param d El dispositivo.
+     * @return El objeto JSON, en una sola línea.
+     */
+    static String json(Dispositivo d) {
+        StringBuilder sb = new StringBuilder(160);
+        escribirJson(sb, valoresDe(d));
+        return sb.toString();
+    }
+
+    /**
+     * Devuelve los valores de un dispositivo en el orden de {@link #CAMPOS}, con null en los que no
+     * corresponden a su tipo.
+     */
+    private static String[] valoresDe(Dispositivo d) {
+        String[] valores = new String[CAMPOS.length];
+        valores[0] = d instanceof Impresora ? "impresora" : d instanceof Ordenador ? "ordenador" : "dispositivo";
+        valores[1] = Integer.toString(d.getId());
+        valores[2] = d.getMarca();
+        valores[3] = d.getModelo();
+        valores[4] = Boolean.toString(d.isEstado());
+        valores[5] = Boolean.toString(d.isBorrado());
+        if (d instanceof Impresora) {
+            Impresora i = (Impresora) d;
+            valores[6] = Integer.toString(i.getTipo());
+            valores[7] = Boolean.toString(i.isColor());
+            valores[8] = Boolean.toString(i.isScanner());
+        } else if (d instanceof Ordenador) {
+            Ordenador o = (Ordenador) d;
+            valores[9] = Integer.toString(o.getRam());
+            valores[10] = o.getProcesador();
+            valores[11] = Integer.toString(o.getTamDisco());
+            valores[12] = Integer.toString(o.getTipoDisco());
+        }
+        return valores;
+    }
+
+    private static void escribirCsv(StringBuilder sb, String[] valores) {
+        for (int i = 0; i < valores.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            String valor = valores[i];
+            if (valor == null) {
+                continue;
+            }
+            if (valor.isEmpty() || valor.indexOf(',') >= 0 || valor.indexOf('"') >= 0
+                    || valor.indexOf('\n') >= 0 || valor.indexOf('\r') >= 0) {
+                sb.append('"').append(valor.replace("\"", "\"\"")).append('"');
+            } else {
+                sb.append(valor);
+            }
+        }
+    }
+
+    /**
+     * Escribe los valores como objeto JSON, omitiendo los null. Las cadenas de texto libre van
+     * entre comillas y el resto sin ellas.
+     */
+    private static void escribirJson(StringBuilder sb, String[] valores) {
+        sb.append('{');
+        boolean primero = true;
+        for (int i = 0; i < valores.length; i++) {
+            if (valores[i] == null) {
+                continue;
+            }
+            if (!primero) {
+                sb.append(',');
+            }
+            primero = false;
+            sb.append('"').append(CAMPOS[i]).append("\":");
+            if (i == 0 || i == 2 || i == 3 || i == 10) {
+                JsonPlano.escribirCadena(sb, valores[i]);
+            } else {
+                sb.append(valores[i]);
+            }
+        }
+        sb.append('}');
+    }
+
+    /**
+     * Divide un registro CSV en sus campos. Los campos entre comillas pueden contener comas, saltos
+     * de línea y comillas duplicadas ({@code ""}). Un campo vacío sin comillas se devuelve como
+     * null (campo ausente) y uno entre comillas ({@code ""}) como cadena vacía.
+     *
+     * @throws IllegalArgumentException Si hay unas comillas sin cerrar.
+     */
+    private static ArrayList<String> dividirCsv(String registro) {
+        ArrayList<String> campos = new ArrayList<>(CAMPOS.length);
+        StringBuilder campo = new StringBuilder();
+        boolean entreComillas = false;
+        boolean citado = false;
+        for (int i = 0; i < registro.length(); i++) {
+            char c = registro.charAt(i);
+            if (entreComillas) {
+                if (c != '"') {
+                    campo.append(c);
+                } else if (i + 1 < registro.length() && registro.charAt(i + 1) == '"') {
+                    campo.append('"');
+                    i++;
+                } else {
+                    entreComillas = false;
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+                citado = true;
+            } else if (c == ',') {
+                campos.add(citado || campo.length() > 0 ? campo.toString() : null);
+                campo.setLength(0);
+                citado = false;
+            } else if (c != '\r') {
+                campo.append(c);
+            }
+        }
+        if (entreComillas) {
+            throw new IllegalArgumentException("comillas sin cerrar");
+        }
+        campos.add(citado || campo.length() > 0 ? campo.toString() : null);
+        return campos;
+    }
+
+    /**
+     * Devuelve la posición de cada columna de la cabecera CSV por su nombre.
+     *
+     * @throws IllegalArgumentException Si falta alguna columna obligatoria.
+     */
+    private static Map<String, Integer> columnasDe(String cabecera) {
+        Map<String, Integer> columnas = new HashMap<>();
+        ArrayList<String> nombres = dividirCsv(cabecera.startsWith("\uFEFF") ? cabecera.substring(1) : cabecera);
+        for (int i = 0; i < nombres.size(); i++) {
+            if (nombres.get(i) != null) {
+                columnas.put(nombres.get(i).trim(), i);
+            }
+        }
+        if (!columnas.containsKey("marca") || !columnas.containsKey("modelo")) {
+            throw new IllegalArgumentException("La cabecera CSV debe incluir las columnas marca y modelo");
+        }
+        return columnas;
+    }
+
+    private static boolean esCsv(File archivo) {
+        return archivo.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+}
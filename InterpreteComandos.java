@@ -0,0 +1,537 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Modo de comandos de {@link Main}, para automatizar cambios sin pasar por el menú.
+ *
+ * <p>Un comando se puede dar en la línea de órdenes ({@code Main ver 12}) o, con
+ * {@code Main lote [archivo]}, varios comandos, uno por línea, leídos de un archivo o de la entrada
+ * estándar. En un lote se ignoran las líneas vacías y las que empiezan por {@code #}, y los valores
+ * con espacios se escriben entre comillas ({@code marca="HP Inc"}).</p>
+ *
+ * <p>Comandos:</p>
+ * <ul>
+ *   <li>{@code añadir campo=valor...}: añade un dispositivo, con los mismos campos que
+ *   {@link IntercambioDispositivos} salvo {@code id}, que se asigna automáticamente.</li>
+ *   <li>{@code ver <id> [formato=json]}: muestra un dispositivo.</li>
+ *   <li>{@code modificar <id> campo=valor...}: cambia los campos indicados.</li>
+ *   <li>{@code alternar <id>}: cambia el estado (encendido/apagado).</li>
+ *   <li>{@code borrar <id>}: marca un dispositivo como borrado.</li>
+ *   <li>{@code listar [filtro=valor...] [formato=json] [limite=N]}: muestra los dispositivos que
+ *   cumplen los filtros {@code tipo}, {@code marca}, {@code modelo}, {@code estado},
+ *   {@code color}, {@code scanner}, {@code tipoDisco}, {@code ramMin}, {@code ramMax},
+ *   {@code tamDiscoMin}, {@code tamDiscoMax} y {@code borrados=true}.</li>
+ *   <li>{@code importar <archivo>} y {@code exportar <archivo>}: ver {@link IntercambioDispositivos}.</li>
+ *   <li>{@code metricas}: muestra las {@link MetricasAlmacen}.</li>
+ *   <li>{@code informe}: muestra los dispositivos encendidos por marca y la capacidad total de
+ *   disco por tipo de disco, calculados sobre una {@link InstantaneaColumnar}.</li>
+ *   <li>{@code cambios [desde=posición] [limite=N]}: muestra los eventos del
+ *   {@link DiarioCambios} a partir de una posición, uno por línea en JSON, y por la salida de error
+ *   la posición desde la que seguir.</li>
+ *   <li>{@code servir [puerto] [direccion=interfaz]}: publica el inventario con
+ *   {@link ServidorDispositivos} hasta que se termina el proceso. Solo escucha en la interfaz de
+ *   bucle local salvo que se indique otra ({@code direccion=0.0.0.0} para todas). Solo desde la
+ *   línea de órdenes.</li>
+ *   <li>{@code ayuda}: muestra los comandos.</li>
+ * </ul>
+ *
+ * <p>Salvo que se indique otra política con {@code -Ddispositivos.durabilidad}, los cambios se
+ * escriben por lotes ({@link Durabilidad#LOTE}) y se vacían una vez al terminar, así que un lote
+ * de miles de comandos no hace una escritura por cada uno. Los errores se muestran por la salida
+ * de error con el número de línea y no detienen el lote.</p>
+ *
+ * @author Frxnker
+ */
+public class InterpreteComandos {
+
+    private static final String USO = String.join(System.lineSeparator(),
+            "Uso: Main <comando> [argumentos] | Main lote [archivo]",
+            "  añadir campo=valor...        (tipo, marca, modelo, estado, tipoImpresora, color, scanner,",
+            "                                ram, procesador, tamDisco, tipoDisco)",
+            "  ver <id> [formato=json]",
+            "  modificar <id> campo=valor...",
+            "  alternar <id>",
+            "  borrar <id>",
+            "  listar [filtro=valor...] [formato=json] [limite=N]",
+            "  importar <archivo.csv|archivo.jsonl>",
+            "  exportar <archivo.csv|archivo.jsonl>",
+            "  metricas",
+            "  informe                      (encendidos por marca y capacidad por tipo de disco)",
+            "  cambios [desde=N] [limite=N]  (eventos del diario de cambios)",
+            "  servir [puerto] [direccion=interfaz]",
+            "                               (API HTTP/JSON, en 127.0.0.1 salvo otra direccion)",
+            "  lote [archivo]               (comandos de un archivo o de la entrada estándar)");
+
+    private final RepositorioDispositivos repositorio;
+    private final PrintStream salida;
+    private int errores = 0;
+
+    /**
+     * Constructor del intérprete.
+     *
+     * @param repositorio Repositorio sobre el que se ejecutan los comandos.
+     * @param salida Destino de los resultados.
+     */
+    public InterpreteComandos(RepositorioDispositivos repositorio, PrintStream salida) {
+        this.repositorio = repositorio;
+        this.salida = salida;
+    }
+
+    /**
+     * Ejecuta los argumentos de la línea de órdenes como un comando y escribe los cambios
+     * pendientes al terminar.
+     *
+     * @param args El comando y sus argumentos.
+     * @return Número de errores.
+     */
+    public static int ejecutar(String[] args) {
+        RepositorioDispositivos repositorio = Dispositivo.REPOSITORIO;
+        if (args[0].equals("servir")) {
+            return servir(repositorio, Arrays.asList(args).subList(1, args.length));
+        }
+        if (System.getProperty(RepositorioDispositivos.PROPIEDAD_DURABILIDAD) == null) {
+            repositorio.setDurabilidad(Durabilidad.LOTE);
+        }
+        InterpreteComandos interprete = new InterpreteComandos(repositorio, System.out);
+        interprete.ejecutar(Arrays.asList(args), 0);
+        if (!repositorio.vaciar()) {
+            System.err.println("Error al guardar los datos.");
+            interprete.errores++;
+        }
+        return interprete.errores;
+    }
+
+    /**
+     * Ejecuta un lote de comandos, uno por línea.
+     *
+     * @param in Origen de los comandos.
+     * @return Número de errores.
+     * @throws IOException Si no se puede leer el origen.
+     */
+    public int ejecutarLote(BufferedReader in) throws IOException {
+        String linea;
+        int numero = 0;
+        while ((linea = in.readLine()) != null) {
+            numero++;
+            String comando = linea.trim();
+            if (comando.isEmpty() || comando.startsWith("#")) {
+                continue;
+            }
+            try {
+                List<String> palabras = dividir(comando);
+                if (palabras.get(0).equals("lote") || palabras.get(0).equals("servir")) {
+                    throw new IllegalArgumentException("el comando " + palabras.get(0) + " no se admite en un lote");
+                }
+                ejecutar(palabras, numero);
+            } catch (IllegalArgumentException e) {
+                error(numero, e.getMessage());
+            }
+        }
+        return errores;
+    }
+
+    /**
+     * Ejecuta un comando e informa de su error, si lo hay.
+     *
+     * @param palabras El comando y sus argumentos.
+     * @param linea Número de línea en el lote, o 0 si viene de la línea de órdenes.
+     */
+    private void ejecutar(List<String> palabras, int linea) {
+        try {
+            String comando = palabras.isEmpty() ? "ayuda" : palabras.get(0);
+            List<String> argumentos = palabras.subList(Math.min(1, palabras.size()), palabras.size());
+            switch (comando) {
+                case "añadir": añadir(campos(argumentos));
+                    break;
+                case "ver": ver(id(argumentos), campos(resto(argumentos)));
+                    break;
+                case "modificar": modificar(id(argumentos), campos(resto(argumentos)));
+                    break;
+                case "alternar": comprobar(repositorio.cambiarEstado(id(argumentos)), "No se ha encontrado el dispositivo con el id " + id(argumentos));
+                    break;
+                case "borrar": comprobar(repositorio.buscar(id(argumentos)) != null && repositorio.borrar(id(argumentos)),
+                        "No se ha encontrado el dispositivo con el id " + id(argumentos));
+                    break;
+                case "listar": listar(campos(argumentos));
+                    break;
+                case "importar": intercambiar(argumentos, true);
+                    break;
+                case "exportar": intercambiar(argumentos, false);
+                    break;
+                case "metricas": salida.print(repositorio.metricas().volcado());
+                    break;
+                case "informe": informe();
+                    break;
+                case "cambios": cambios(campos(argumentos));
+                    break;
+                case "lote": lote(argumentos);
+                    break;
+                case "ayuda": salida.println(USO);
+                    break;
+                default:
+                    throw new IllegalArgumentException("comando desconocido: " + comando + System.lineSeparator() + USO);
+            }
+        } catch (IllegalArgumentException e) {
+            error(linea, e.getMessage());
+        }
+    }
+
+    private void añadir(Map<String, String> campos) {
+        if (campos.containsKey("id")) {
+            throw new IllegalArgumentException("el id se asigna automáticamente");
+        }
+        Dispositivo d = IntercambioDispositivos.crear(campos::get);
+        d.reasignarId(repositorio.nuevoId());
+        comprobar(repositorio.guardar(d), "Error al guardar los datos.");
+        salida.println(d.getId());
+    }
+
+    private void ver(int id, Map<String, String> opciones) {
+        Dispositivo d = repositorio.buscar(id);
+        comprobar(d != null, "No se ha encontrado el dispositivo con el id " + id);
+        salida.println(json(opciones) ? IntercambioDispositivos.json(d) : d.toString());
+    }
+
+    /**
+     * Cambia los campos indicados de un dispositivo. Los campos de impresora u ordenador solo se
+     * admiten si el dispositivo es de ese tipo. Los cambios se hacen en una copia, que se guarda
+     * si todos los valores son válidos; el dispositivo de la caché del repositorio no se toca.
+     */
+    private void modificar(int id, Map<String, String> campos) {
+        Dispositivo encontrado = repositorio.buscar(id);
+        comprobar(encontrado != null, "No se ha encontrado el dispositivo con el id " + id);
+        Dispositivo d = encontrado.copia();
+        for (String nombre : campos.keySet()) {
+            String texto = campos.get(nombre);
+            switch (nombre) {
+                case "marca": d.setMarca(texto);
+                    break;
+                case "modelo": d.setModelo(texto);
+                    break;
+                case "estado": d.setEstado(IntercambioDispositivos.booleano(campos::get, nombre));
+                    break;
+                case "tipoImpresora": impresora(d, nombre).setTipo(IntercambioDispositivos.entero(campos::get, nombre, 0));
+                    break;
+                case "color": impresora(d, nombre).setColor(IntercambioDispositivos.booleano(campos::get, nombre));
+                    break;
+                case "scanner": impresora(d, nombre).setScanner(IntercambioDispositivos.booleano(campos::get, nombre));
+                    break;
+                case "ram": ordenador(d, nombre).setRam(IntercambioDispositivos.entero(campos::get, nombre, 0));
+                    break;
+                case "procesador": ordenador(d, nombre).setProcesador(texto);
+                    break;
+                case "tamDisco": ordenador(d, nombre).setTamDisco(IntercambioDispositivos.entero(campos::get, nombre, 0));
+                    break;
+                case "tipoDisco": ordenador(d, nombre).setTipoDisco(IntercambioDispositivos.entero(campos::get, nombre, 0));
+                    break;
+                default:
+                    throw new IllegalArgumentException("campo desconocido: " + nombre);
+            }
+        }
+        comprobar(repositorio.guardar(d), "Error al guardar los datos.");
+    }
+
+    private void listar(Map<String, String> filtros) {
+        boolean json = json(filtros);
+        for (Dispositivo d : consulta(repositorio, filtros).ejecutar()) {
+            salida.println(json ? IntercambioDispositivos.json(d) : d.toString());
+        }
+    }
+
+    /**
+     * Prepara una consulta a partir de filtros {@code nombre=valor}, los de {@code listar}. El
+     * filtro {@code formato} se ignora; lo interpreta quien muestra el resultado.
+     *
+     * @param repositorio Repositorio consultado.
+     * @param filtros Los filtros por nombre.
+     * @return La consulta, sin ejecutar.
+     * @throws IllegalArgumentException Si un filtro no existe o su valor no es válido.
+     */
+    static ConsultaDispositivos consulta(RepositorioDispositivos repositorio, Map<String, String> filtros) {
+        ConsultaDispositivos consulta = repositorio.consulta();
+        Integer ramMin = null, ramMax = null, discoMin = null, discoMax = null;
+        for (String nombre : filtros.keySet()) {
+            switch (nombre) {
+                case "tipo": consulta.tipo(clase(filtros.get(nombre)));
+                    break;
+                case "marca": consulta.marca(filtros.get(nombre));
+                    break;
+                case "modelo": consulta.modelo(filtros.get(nombre));
+                    break;
+                case "estado": consulta.estado(IntercambioDispositivos.booleano(filtros::get, nombre));
+                    break;
+                case "color": consulta.color(IntercambioDispositivos.booleano(filtros::get, nombre));
+                    break;
+                case "scanner": consulta.scanner(IntercambioDispositivos.booleano(filtros::get, nombre));
+                    break;
+                case "tipoDisco": consulta.tipoDisco(IntercambioDispositivos.entero(filtros::get, nombre, 0));
+                    break;
+                case "ramMin": ramMin = IntercambioDispositivos.entero(filtros::get, nombre, 0);
+                    break;
+                case "ramMax": ramMax = IntercambioDispositivos.entero(filtros::get, nombre, 0);
+                    break;
+                case "tamDiscoMin": discoMin = IntercambioDispositivos.entero(filtros::get, nombre, 0);
+                    break;
+                case "tamDiscoMax": discoMax = IntercambioDispositivos.entero(filtros::get, nombre, 0);
+                    break;
+                case "borrados":
+                    if (IntercambioDispositivos.booleano(filtros::get, nombre)) {
+                        consulta.incluirBorrados();
+                    }
+                    break;
+                case "limite": consulta.limite(IntercambioDispositivos.entero(filtros::get, nombre, 0));
+                    break;
+                case "formato":
+                    break;
+                default:
+                    throw new IllegalArgumentException("filtro desconocido: " + nombre);
+            }
+        }
+        if (ramMin != null || ramMax != null) {
+            consulta.ramEntre(ramMin == null ? Integer.MIN_VALUE : ramMin, ramMax == null ? Integer.MAX_VALUE : ramMax);
+        }
+        if (discoMin != null || discoMax != null) {
+            consulta.tamDiscoEntre(discoMin == null ? Integer.MIN_VALUE : discoMin, discoMax == null ? Integer.MAX_VALUE : discoMax);
+        }
+        return consulta;
+    }
+
+    private void informe() {
+        InstantaneaColumnar instantanea = InstantaneaColumnar.de(repositorio);
+        salida.println("Dispositivos encendidos por marca:");
+        instantanea.seleccionar().estado(true).contarPor(InstantaneaColumnar.Texto.MARCA)
+                .forEach((marca, total) -> salida.println("  " + marca + ": " + total));
+        salida.println("Capacidad de disco por tipo de disco:");
+        instantanea.seleccionar().tipo(Ordenador.class)
+                .sumarPor(InstantaneaColumnar.Numero.TIPO_DISCO, InstantaneaColumnar.Numero.TAM_DISCO)
+                .forEach((tipo, total) -> salida.println("  " + tipo + ": " + total));
+    }
+
+    private void cambios(Map<String, String> opciones) {
+        long desde = IntercambioDispositivos.enteroLargo(opciones::get, "desde", 0);
+        int limite = IntercambioDispositivos.entero(opciones::get, "limite", Integer.MAX_VALUE);
+        if (desde < 0 || limite < 1) {
+            throw new IllegalArgumentException("desde debe ser 0 o más y limite 1 o más");
+        }
+        try {
+            DiarioCambios.Tramo tramo = repositorio.cambios().leerDiario(desde, limite);
+            for (EventoDispositivo evento : tramo.getEventos()) {
+                salida.println(evento.json());
+            }
+            System.err.println("siguiente=" + tramo.getSiguiente());
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("No hay diario de cambios (-D" + CambiosDispositivos.PROPIEDAD_DIARIO + "=true)");
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            errores++;
+        }
+    }
+
+    private void intercambiar(List<String> argumentos, boolean importar) {
+        if (argumentos.size() != 1) {
+            throw new IllegalArgumentException("se esperaba un archivo");
+        }
+        File archivo = new File(argumentos.get(0));
+        if (importar && !archivo.exists()) {
+            throw new IllegalArgumentException("No existe el archivo " + archivo);
+        }
+        long inicio = System.nanoTime();
+        int total = importar
+                ? IntercambioDispositivos.importar(archivo, repositorio)
+                : IntercambioDispositivos.exportar(archivo, repositorio);
+        comprobar(total >= 0, "Error al " + (importar ? "importar" : "exportar") + " los datos.");
+        long ms = (System.nanoTime() - inicio) / 1_000_000;
+        System.err.println(total + " dispositivos " + (importar ? "importados" : "exportados") + " en " + ms + " ms.");
+    }
+
+    private void lote(List<String> argumentos) {
+        if (argumentos.size() > 1) {
+            throw new IllegalArgumentException("se esperaba como mucho un archivo");
+        }
+        boolean estandar = argumentos.isEmpty() || argumentos.get(0).equals("-");
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                estandar ? new FileInputStream(FileDescriptor.in) : new FileInputStream(argumentos.get(0)),
+                StandardCharsets.UTF_8))) {
+            ejecutarLote(in);
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            errores++;
+        }
+    }
+
+    /**
+     * Publica el repositorio con {@link ServidorDispositivos} hasta que se termina el proceso. A
+     * diferencia del resto de comandos, usa la política de durabilidad por defecto del
+     * repositorio, porque el servidor puede estar en marcha mucho tiempo.
+     *
+     * @return Número de errores.
+     */
+    private static int servir(RepositorioDispositivos repositorio, List<String> argumentos) {
+        int puerto = ServidorDispositivos.PUERTO_POR_DEFECTO;
+        String direccion = null;
+        List<String> posicionales = new ArrayList<>();
+        for (String argumento : argumentos) {
+            if (argumento.startsWith("direccion=")) {
+                direccion = argumento.substring("direccion=".length());
+            } else {
+                posicionales.add(argumento);
+            }
+        }
+        if (posicionales.size() > 1) {
+            System.err.println("se esperaba como mucho un puerto");
+            return 1;
+        }
+        if (!posicionales.isEmpty()) {
+            try {
+                puerto = Integer.parseInt(posicionales.get(0));
+            } catch (NumberFormatException e) {
+                System.err.println("el puerto no es un número: " + posicionales.get(0));
+                return 1;
+            }
+        }
+        try {
+            ServidorDispositivos servidor = new ServidorDispositivos(repositorio, direccion, puerto);
+            CountDownLatch parado = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (!servidor.detener()) {
+                    System.err.println("Error al guardar los datos.");
+                }
+                parado.countDown();
+            }));
+            servidor.iniciar();
+            System.err.println("Escuchando en " + servidor.getUrl());
+            parado.await();
+            return 0;
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    private void error(int linea, String mensaje) {
+        errores++;
+        System.err.println(linea > 0 ? "Línea " + linea + ": " + mensaje : mensaje);
+    }
+
+    private static void comprobar(boolean correcto, String mensaje) {
+        if (!correcto) {
+            throw new IllegalArgumentException(mensaje);
+        }
+    }
+
+    private static int id(List<String> argumentos) {
+        if (argumentos.isEmpty()) {
+            throw new IllegalArgumentException("falta el id");
+        }
+        try {
+            return Integer.parseInt(argumentos.get(0));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("el id no es un número: " + argumentos.get(0));
+        }
+    }
+
+    private static List<String> resto(List<String> argumentos) {
+        return argumentos.subList(Math.min(1, argumentos.size()), argumentos.size());
+    }
+
+    /**
+     * Convierte argumentos {@code campo=valor} en un mapa, en el orden dado.
+     */
+    private static Map<String, String> campos(List<String> argumentos) {
+        Map<String, String> campos = new LinkedHashMap<>();
+        for (String argumento : argumentos) {
+            int igual = argumento.indexOf('=');
+            if (igual <= 0) {
+                throw new IllegalArgumentException("se esperaba campo=valor: " + argumento);
+            }
+            campos.put(argumento.substring(0, igual), argumento.substring(igual + 1));
+        }
+        return campos;
+    }
+
+    private static boolean json(Map<String, String> opciones) {
+        String formato = opciones.getOrDefault("formato", "texto");
+        if (!formato.equals("texto") && !formato.equals("json")) {
+            throw new IllegalArgumentException("formato desconocido: " + formato);
+        }
+        return formato.equals("json");
+    }
+
+    private static Class<? extends Dispositivo> clase(String tipo) {
+        switch (tipo.toLowerCase()) {
+            case "impresora":
+                return Impresora.class;
+            case "ordenador":
+                return Ordenador.class;
+            case "dispositivo":
+                return Dispositivo.class;
+            default:
+                throw new IllegalArgumentException("tipo de dispositivo desconocido: " + tipo);
+        }
+    }
+
+    private static Impresora impresora(Dispositivo d, String campo) {
+        if (!(d instanceof Impresora)) {
+            throw new IllegalArgumentException("el campo " + campo + " solo existe en las impresoras");
+        }
+        return (Impresora) d;
+    }
+
+    private static Ordenador ordenador(Dispositivo d, String campo) {
+        if (!(d instanceof Ordenador)) {
+            throw new IllegalArgumentException("el campo " + campo + " solo existe en los ordenadores");
+        }
+        return (Ordenador) d;
+    }
+
+    /**
+     * Divide una línea en palabras separadas por espacios. Las comillas dobles agrupan espacios y
+     * no forman parte de la palabra; dentro de ellas {@code \"} es una comilla y {@code \\} una
+     * barra.
+     *
+     * @throws IllegalArgumentException Si hay unas comillas sin cerrar.
+     */
+    static List<String> dividir(String linea) {
+        List<String> palabras = new ArrayList<>();
+        StringBuilder palabra = new StringBuilder();
+        boolean entreComillas = false;
+        boolean hayPalabra = false;
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (entreComillas && c == '\\' && i + 1 < linea.length()) {
+                palabra.append(linea.charAt(++i));
+            } else if (c == '"') {
+                entreComillas = !entreComillas;
+                hayPalabra = true;
+            } else if (Character.isWhitespace(c) && !entreComillas) {
+                if (hayPalabra) {
+                    palabras.add(palabra.toString());
+                    palabra.setLength(0);
+                    hayPalabra = false;
+                }
+            } else {
+                palabra.append(c);
+                hayPalabra = true;
+            }
+        }
+        if (entreComillas) {
+            throw new IllegalArgumentException("comillas sin cerrar");
+        }
+        if (hayPalabra) {
+            palabras.add(palabra.toString());
+        }
+        return palabras;
+    }
+}
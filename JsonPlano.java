@@ -0,0 +1,203 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Lectura y escritura de objetos JSON planos: un objeto cuyos valores son cadenas, números,
+ * booleanos o {@code null}, sin objetos ni arrays anidados. Es el formato de cada línea de los
+ * archivos JSON Lines de {@link IntercambioDispositivos}.
+ *
+ * @author Frxnker
+ */
+public class JsonPlano {
+
+    private static final Pattern NUMERO = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+
+    private JsonPlano() {
+        // Clase de utilidades, no se instancia
+    }
+
+    /**
+     * Lee un objeto JSON plano.
+     *
+     * @param texto El texto del objeto, por ejemplo {@code {"marca":"HP","ram":16}}.
+     * @return Los valores por nombre, en el orden del texto. Los números y booleanos se devuelven
+     *         con su texto ({@code "16"}, {@code "true"}) y {@code null} como null.
+     * @throws IllegalArgumentException Si el texto no es un objeto JSON plano válido.
+     */
+    public static Map<String, String> leer(String texto) {
+        Map<String, String> valores = new LinkedHashMap<>();
+        int[] pos = {saltarEspacios(texto, 0)};
+        esperar(texto, pos, '{');
+        if (siguiente(texto, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                if (siguiente(texto, pos) != '"') {
+                    throw error(pos[0], "se esperaba un nombre");
+                }
+                String nombre = leerCadena(texto, pos);
+                esperar(texto, pos, ':');
+                valores.put(nombre, leerValor(texto, pos));
+                char c = siguiente(texto, pos);
+                pos[0]++;
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw error(pos[0] - 1, "se esperaba ',' o '}'");
+                }
+            }
+        }
+        if (saltarEspacios(texto, pos[0]) != texto.length()) {
+            throw error(pos[0], "texto sobrante");
+        }
+        return valores;
+    }
+
+    /**
+     * Añade una cadena como valor JSON, entre comillas y con los caracteres especiales escapados,
+     * o {@code null} si es null.
+     *
+     * @param sb Destino.
+     * @param valor La cadena.
+     */
+    public static void escribirCadena(StringBuilder sb, String valor) {
+        if (valor == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\"");
+                    break;
+                case '\\': sb.append("\\\\");
+                    break;
+                case '\n': sb.append("\\n");
+                    break;
+                case '\r': sb.append("\\r");
+                    break;
+                case '\t': sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static String leerValor(String texto, int[] pos) {
+        char c = siguiente(texto, pos);
+        if (c == '"') {
+            return leerCadena(texto, pos);
+        }
+        if (c == '{' || c == '[') {
+            throw error(pos[0], "no se admiten objetos ni arrays anidados");
+        }
+        int inicio = pos[0];
+        while (pos[0] < texto.length() && ",}".indexOf(texto.charAt(pos[0])) < 0
+                && !Character.isWhitespace(texto.charAt(pos[0]))) {
+            pos[0]++;
+        }
+        String literal = texto.substring(inicio, pos[0]);
+        if (literal.equals("null")) {
+            return null;
+        }
+        if (literal.equals("true") || literal.equals("false") || NUMERO.matcher(literal).matches()) {
+            return literal;
+        }
+        throw error(inicio, "valor no válido");
+    }
+
+    private static String leerCadena(String texto, int[] pos) {
+        int i = pos[0] + 1;  // Tras la comilla inicial
+        StringBuilder sb = null;
+        int inicio = i;
+        while (i < texto.length()) {
+            char c = texto.charAt(i);
+            if (c == '"') {
+                pos[0] = i + 1;
+                return sb == null ? texto.substring(inicio, i) : sb.append(texto, inicio, i).toString();
+            }
+            if (c == '\\') {
+                if (sb == null) {
+                    sb = new StringBuilder();
+                }
+                sb.append(texto, inicio, i);
+                if (i + 1 >= texto.length()) {
+                    break;
+                }
+                char e = texto.charAt(i + 1);
+                i += 2;
+                switch (e) {
+                    case '"': case '\\': case '/': sb.append(e);
+                        break;
+                    case 'n': sb.append('\n');
+                        break;
+                    case 'r': sb.append('\r');
+                        break;
+                    case 't': sb.append('\t');
+                        break;
+                    case 'b': sb.append('\b');
+                        break;
+                    case 'f': sb.append('\f');
+                        break;
+                    case 'u':
+                        if (i + 4 > texto.length()) {
+                            throw error(i, "escape \\u incompleto");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(texto.substring(i, i + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error(i, "escape \\u no válido");
+                        }
+                        i += 4;
+                        break;
+                    default:
+                        throw error(i - 1, "escape no válido");
+                }
+                inicio = i;
+            } else {
+                i++;
+            }
+        }
+        throw error(pos[0], "cadena sin cerrar");
+    }
+
+    private static void esperar(String texto, int[] pos, char esperado) {
+        if (siguiente(texto, pos) != esperado) {
+            throw error(pos[0], "se esperaba '" + esperado + "'");
+        }
+        pos[0]++;
+    }
+
+    /**
+     * Salta los espacios y devuelve el siguiente carácter, sin consumirlo.
+     */
+    private static char siguiente(String texto, int[] pos) {
+        pos[0] = saltarEspacios(texto, pos[0]);
+        if (pos[0] >= texto.length()) {
+            throw error(pos[0], "fin inesperado");
+        }
+        return texto.charAt(pos[0]);
+    }
+
+    private static int saltarEspacios(String texto, int pos) {
+        while (pos < texto.length() && Character.isWhitespace(texto.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static IllegalArgumentException error(int pos, String mensaje) {
+        return new IllegalArgumentException("JSON no válido en la posición " + pos + ": " + mensaje);
+    }
+}
@@ -1,6 +1,7 @@
 package Programación.Trim2.Tema6.PracticaObligatoria;
 
 import java.util.*;
+import java.util.stream.Stream;
 import java.io.*;
 
 /**
@@ -10,18 +11,31 @@ import java.io.*;
  */
 public class Main {
 
-    private static ArrayList<Dispositivo> listaDispositivos = new ArrayList<>();
     private static Scanner sc = new Scanner(System.in);
     private static int opcion = -1;
     private static final String RUTA_ARCHIVO = "./Lista.dat";
+    private static final int TAM_PAGINA = 20;  // Dispositivos mostrados antes de pedir continuar
+    private static final String PROPIEDAD_ARRANQUE = "dispositivos.arranque";
+    private static final String ARRANQUE_PRECARGA = "precarga";
+    private static final String ARRANQUE_BAJO_DEMANDA = "bajo-demanda";
+    private static final String ARRANQUE_COMPLETO = "completo";
 
 
     /**
-     * Método principal que gestiona el menú y las opciones del usuario.
+     * Método principal que gestiona el menú y las opciones del usuario. Con argumentos no muestra el
+     * menú y ejecuta un comando o un lote de comandos (ver {@link InterpreteComandos}); si alguno
+     * falla, termina con código 1.
      * 
-     * @param args Argumentos de línea de comandos (no utilizados).
+     * @param args Argumentos de línea de comandos.
      */
     public static void main(String[] args) {
+        MigradorDatos.unificar(Dispositivo.ARCHIVO_DATOS, Dispositivo.ARCHIVO_SUBTIPOS);  // Datos de versiones anteriores
+        if (args.length > 0) {
+            if (InterpreteComandos.ejecutar(args) > 0) {
+                System.exit(1);
+            }
+            return;
+        }
 
         // Cargamos los datos del archivo
         cargarDatos();
@@ -35,6 +49,8 @@ public class Main {
             System.out.println("4. Borrar dispositivos");
             System.out.println("5. Cambiar estado dispositivo");
             System.out.println("6. Modificar dispositivo");
+            System.out.println("7. Filtrar dispositivos");
+            System.out.println("8. Ver métricas");
             System.out.println("0. Salir");
 
             opcion = sc.nextInt();
@@ -53,9 +69,13 @@ public class Main {
                     break;
                 case 6: modificarDispositivo();
                     break;
+                case 7: filtrarDispositivos();
+                    break;
+                case 8: System.out.print(RepositorioDispositivos.de(RUTA_ARCHIVO).metricas().volcado());
+                    break;
                 case 0: 
-                    System.out.println("Guardando datos y saliendo...");
-                    guardarDatos(); // Guardar los datos antes de salir
+                    guardarDatos();
+                    System.out.println("Saliendo...");
                     break;
                 default: System.out.println("Opción no válida, intente de nuevo.");
             }
@@ -64,40 +84,38 @@ public class Main {
     }
 
     /**
-     * Carga los datos desde el archivo "Lista.dat".
+     * Prepara los datos del archivo "Lista.dat" según {@code -Ddispositivos.arranque}:
+     * {@code precarga} (por defecto) muestra el menú enseguida y carga los dispositivos en la caché
+     * compartida en segundo plano; {@code bajo-demanda} solo lee cada dispositivo la primera vez
+     * que se usa; {@code completo} los carga todos antes de mostrar el menú. Salvo que se indique
+     * otra política con {@code -Ddispositivos.durabilidad}, los cambios del menú se escriben por
+     * lotes (ver {@link Durabilidad#LOTE}).
      */
-    @SuppressWarnings("unchecked")
     private static void cargarDatos() {
+        RepositorioDispositivos repositorio = Dispositivo.REPOSITORIO;
+        if (System.getProperty(RepositorioDispositivos.PROPIEDAD_DURABILIDAD) == null) {
+            repositorio.setDurabilidad(Durabilidad.LOTE);
+        }
         File archivo = new File(RUTA_ARCHIVO);  // Usamos la ruta especificada en la constante
         if (!archivo.exists()) {
             return;
         }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(archivo))) {
-            listaDispositivos = (ArrayList<Dispositivo>) ois.readObject();
+        String arranque = System.getProperty(PROPIEDAD_ARRANQUE, ARRANQUE_PRECARGA);
+        if (ARRANQUE_COMPLETO.equals(arranque)) {
+            Dispositivo.loadAll();
             System.out.println("Datos cargados correctamente.");
-        } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Error al cargar los datos.");
-            e.printStackTrace();
+        } else if (!ARRANQUE_BAJO_DEMANDA.equals(arranque)) {
+            repositorio.precargar();
         }
     }
 
     /**
-     * Guarda los datos en el archivo "Lista.dat".
+     * Escribe en el archivo los cambios pendientes del lote.
      */
     private static void guardarDatos() {
-        File archivo = new File(RUTA_ARCHIVO);
-        try {
-            if (!archivo.exists()) {
-                archivo.createNewFile();  // Si el archivo no existe, lo crea
-            }
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(archivo))) {
-                oos.writeObject(listaDispositivos);
-                System.out.println("Datos guardados correctamente.");
-            }
-        } catch (IOException e) {
+        if (!RepositorioDispositivos.de(RUTA_ARCHIVO).vaciar()) {
             System.out.println("Error al guardar los datos.");
-            e.printStackTrace();
         }
     }
     
@@ -117,23 +135,35 @@ public class Main {
         sc.nextLine();  // Para consumir el salto de línea
 
         Dispositivo dispositivo = new Dispositivo(marca, modelo, estado);
-        listaDispositivos.add(dispositivo);
-        System.out.println("Dispositivo añadido correctamente.");
-        guardarDatos(); // Guardamos los datos después de añadir el dispositivo
+        if (dispositivo.save()) {
+            System.out.println("Dispositivo añadido correctamente.");
+        } else {
+            System.out.println("Error al guardar los datos.");
+        }
     }
 
     /**
-     * Muestra todos los dispositivos en la lista.
+     * Muestra todos los dispositivos por páginas. Los dispositivos se leen a medida que se
+     * muestran, así que se puede volver al menú sin recorrer el resto.
      */
     private static void mostrarDispositivos() {
-        if (listaDispositivos.isEmpty()) {
-            System.out.println("No hay dispositivos para mostrar.");
-            return;
-        } else {
-            for (Dispositivo d : listaDispositivos) {
-                System.out.println(d);
+        int mostrados = 0;
+        try (Stream<Dispositivo> dispositivos = Dispositivo.recorrerTodos()) {
+            Iterator<Dispositivo> it = dispositivos.filter(d -> !d.isBorrado()).iterator();
+            while (it.hasNext()) {
+                System.out.println(it.next());
+                mostrados++;
+                if (mostrados % TAM_PAGINA == 0 && it.hasNext()) {
+                    System.out.println("Pulse Enter para ver más o escriba 'q' para volver al menú");
+                    if (sc.nextLine().trim().equalsIgnoreCase("q")) {
+                        return;
+                    }
+                }
             }
         }
+        if (mostrados == 0) {
+            System.out.println("No hay dispositivos para mostrar.");
+        }
     }
 
     /**
@@ -144,11 +174,10 @@ public class Main {
         int id = sc.nextInt();
         sc.nextLine();
 
-        for (Dispositivo d : listaDispositivos) {
-            if (d.getId() == id) {
-                System.out.println(d);
-                return;
-            }
+        Dispositivo d = Dispositivo.load(id);
+        if (d != null) {
+            System.out.println(d);
+            return;
         }
         System.out.println("No se ha encontrado el dispositivo con el id " + id);
     }
@@ -161,13 +190,10 @@ public class Main {
         int id = sc.nextInt();
         sc.nextLine();
 
-        for (Dispositivo d : listaDispositivos) {
-            if (d.getId() == id) {
-                listaDispositivos.remove(d);
-                System.out.println("Dispositivo borrado correctamente.");
-                guardarDatos(); // Guardamos los datos después de borrar el dispositivo
-                return;
-            }
+        Dispositivo d = Dispositivo.load(id);
+        if (d != null && d.delete()) {
+            System.out.println("Dispositivo borrado correctamente.");
+            return;
         }
         System.out.println("No se ha encontrado el dispositivo con el id " + id);
     }
@@ -180,13 +206,9 @@ public class Main {
         int id = sc.nextInt();
         sc.nextLine();
 
-        for (Dispositivo d : listaDispositivos) {
-            if (d.getId() == id) {
-                d.setEstado(!d.isEstado());
-                System.out.println("Estado cambiado correctamente.");
-                guardarDatos(); // Guardamos los datos después de cambiar el estado
-                return;
-            }
+        if (Dispositivo.cambiarEstado(id)) {
+            System.out.println("Estado cambiado correctamente.");
+            return;
         }
         System.out.println("No se ha encontrado el dispositivo con el id " + id);
     }
@@ -199,25 +221,68 @@ public class Main {
         int id = sc.nextInt();
         sc.nextLine();
 
-        for (Dispositivo d : listaDispositivos) {
-            if (d.getId() == id) {
-                System.out.println("Ingrese la marca");
-                String marca = sc.nextLine();
-                d.setMarca(marca);
+        Dispositivo encontrado = Dispositivo.load(id);
+        if (encontrado != null) {
+            Dispositivo d = encontrado.copia();  // La instancia de la caché no cambia hasta guardar
+            System.out.println("Ingrese la marca");
+            String marca = sc.nextLine();
+            d.setMarca(marca);
 
-                System.out.println("Ingrese el modelo");
-                String modelo = sc.nextLine();
-                d.setModelo(modelo);
+            System.out.println("Ingrese el modelo");
+            String modelo = sc.nextLine();
+            d.setModelo(modelo);
 
-                System.out.println("Ingrese el estado (true/false)");
-                boolean estado = sc.nextBoolean();
-                d.setEstado(estado);
+            System.out.println("Ingrese el estado (true/false)");
+            boolean estado = sc.nextBoolean();
+            d.setEstado(estado);
 
+            if (d.save()) { // Guardamos el dispositivo después de modificarlo
                 System.out.println("Dispositivo modificado correctamente.");
-                guardarDatos(); // Guardamos los datos después de modificar el dispositivo
-                return;
+            } else {
+                System.out.println("Error al guardar los datos.");
             }
+            return;
         }
         System.out.println("No se ha encontrado el dispositivo con el id " + id);
     }
+
+    /**
+     * Muestra los dispositivos que cumplen los filtros indicados, usando una {@link ConsultaDispositivos}.
+     * Dejar un filtro en blanco equivale a no filtrar por él.
+     */
+    private static void filtrarDispositivos() {
+        ConsultaDispositivos consulta = Dispositivo.consultar();
+
+        System.out.println("Ingrese la marca (Enter para cualquiera)");
+        String marca = sc.nextLine().trim();
+        if (!marca.isEmpty()) {
+            consulta.marca(marca);
+        }
+
+        System.out.println("Ingrese el modelo (Enter para cualquiera)");
+        String modelo = sc.nextLine().trim();
+        if (!modelo.isEmpty()) {
+            consulta.modelo(modelo);
+        }
+
+        System.out.println("Ingrese el estado (true/false, Enter para cualquiera)");
+        String estado = sc.nextLine().trim();
+        if (!estado.isEmpty()) {
+            consulta.estado(Boolean.parseBoolean(estado));
+        }
+
+        System.out.println("Ingrese el tipo (impresora/ordenador, Enter para cualquiera)");
+        String tipo = sc.nextLine().trim();
+        if (tipo.equalsIgnoreCase("impresora")) {
+            consulta.tipo(Impresora.class);
+        } else if (tipo.equalsIgnoreCase("ordenador")) {
+            consulta.tipo(Ordenador.class);
+        }
+
+        ArrayList<Dispositivo> resultado = consulta.ejecutar();
+        for (Dispositivo d : resultado) {
+            System.out.println(d);
+        }
+        System.out.println(resultado.size() + " dispositivos encontrados.");
+    }
 }
@@ -0,0 +1,337 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métricas de las operaciones de un {@link RepositorioDispositivos}: número de llamadas e
+ * histograma de latencias por operación, aciertos de la caché y, leídas del {@link Almacen} en el
+ * momento de consultarlas, las {@link EstadisticasAlmacen} y las
+ * {@link EstadisticasCompactacion}.
+ *
+ * <p>Los contadores son {@link LongAdder}, así que registrar una operación no bloquea a otros
+ * hilos. Cada histograma tiene una cubeta por potencia de 2 de nanosegundos, de modo que los
+ * percentiles son aproximados (por exceso, como mucho el doble del valor real).</p>
+ *
+ * <p>Las métricas se publican por JMX (ver {@link MetricasAlmacenMXBean}) y, si se indica la
+ * propiedad {@code dispositivos.metricas.ms}, se escriben cada ese número de milisegundos en
+ * texto en el archivo {@code <archivo de datos>.metricas}, que se sustituye en cada volcado.</p>
+ *
+ * @author Frxnker
+ */
+public class MetricasAlmacen implements MetricasAlmacenMXBean {
+
+    public static final String PROPIEDAD_VOLCADO = "dispositivos.metricas.ms";
+
+    /**
+     * Operaciones medidas.
+     */
+    public enum Operacion {
+        CARGAR("cargar"),
+        GUARDAR("guardar"),
+        BORRAR("borrar"),
+        CARGAR_TODOS("cargarTodos"),
+        CAMBIAR_ESTADO("cambiarEstado"),
+        VACIAR("vaciar");
+
+        private final String nombre;
+
+        Operacion(String nombre) {
+            this.nombre = nombre;
+        }
+
+        @Override
+        public String toString() {
+            return nombre;
+        }
+    }
+
+    private static final ScheduledExecutorService PLANIFICADOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "volcado-metricas");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    private final File archivo;
+    private final Almacen almacen;
+    private final Histograma[] latencias = new Histograma[Operacion.values().length];
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    /**
+     * Crea las métricas de un repositorio, las registra en JMX y programa el volcado periódico si
+     * está configurado.
+     *
+     * @param archivo Archivo de datos del repositorio.
+     * @param almacen Almacén del que se leen el tamaño, los bytes y las compactaciones.
+     */
+    MetricasAlmacen(File archivo, Almacen almacen) {
+        this.archivo = archivo;
+        this.almacen = almacen;
+        for (int i = 0; i < latencias.length; i++) {
+            latencias[i] = new Histograma();
+        }
+        registrarJmx();
+        long periodo = Long.getLong(PROPIEDAD_VOLCADO, 0);
+        if (periodo > 0) {
+            PLANIFICADOR.scheduleAtFixedRate(this::volcarArchivo, periodo, periodo, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Registra una operación terminada.
+     *
+     * @param operacion La operación.
+     * @param inicio Valor de {@link System#nanoTime()} al empezar.
+     */
+    public void registrar(Operacion operacion, long inicio) {
+        latencias[operacion.ordinal()].registrar(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Registra una búsqueda por ID resuelta en la caché.
+     */
+    public void acierto() {
+        aciertos.increment();
+    }
+
+    /**
+     * Registra una búsqueda por ID que ha tenido que leer el archivo.
+     */
+    public void fallo() {
+        fallos.increment();
+    }
+
+    @Override
+    public Map<String, Long> getLlamadas() {
+        Map<String, Long> valores = new LinkedHashMap<>();
+        for (Operacion operacion : Operacion.values()) {
+            valores.put(operacion.toString(), latencias[operacion.ordinal()].llamadas());
+        }
+        return valores;
+    }
+
+    @Override
+    public Map<String, Double> getLatenciaMediaMicros() {
+        return porOperacion(Histograma::mediaMicros);
+    }
+
+    @Override
+    public Map<String, Double> getLatenciaP50Micros() {
+        return porOperacion(h -> h.percentilMicros(0.5));
+    }
+
+    @Override
+    public Map<String, Double> getLatenciaP99Micros() {
+        return porOperacion(h -> h.percentilMicros(0.99));
+    }
+
+    @Override
+    public Map<String, Double> getLatenciaMaximaMicros() {
+        return porOperacion(Histograma::maximoMicros);
+    }
+
+    @Override
+    public double getAciertosCache() {
+        long total = aciertos.sum() + fallos.sum();
+        return total == 0 ? 0 : (double) aciertos.sum() / total;
+    }
+
+    @Override
+    public long getBytesLeidos() {
+        return almacen.estadisticas().getBytesLeidos();
+    }
+
+    @Override
+    public long getBytesEscritos() {
+        return almacen.estadisticas().getBytesEscritos();
+    }
+
+    @Override
+    public long getTamañoArchivo() {
+        return almacen.estadisticas().getTamañoArchivo();
+    }
+
+    @Override
+    public long getDispositivos() {
+        return almacen.estadisticas().getDispositivos();
+    }
+
+    @Override
+    public double getProporcionBorrados() {
+        return almacen.estadisticas().getProporcionBorrados();
+    }
+
+    @Override
+    public double getProporcionObsoletos() {
+        return almacen.estadisticas().getProporcionObsoletos();
+    }
+
+    @Override
+    public long getErrores() {
+        return almacen.estadisticas().getErrores();
+    }
+
+    @Override
+    public long getCompactaciones() {
+        return almacen.estadisticasCompactacion().getCompactaciones();
+    }
+
+    @Override
+    public long getBytesRecuperados() {
+        return almacen.estadisticasCompactacion().getBytesRecuperados();
+    }
+
+    @Override
+    public String volcado() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Métricas de ").append(archivo).append(" a ").append(LocalDateTime.now().withNano(0)).append('\n');
+        sb.append(String.format(Locale.ROOT, "%-14s %10s %12s %12s %12s %12s%n",
+                "operacion", "llamadas", "media_us", "p50_us", "p99_us", "max_us"));
+        for (Operacion operacion : Operacion.values()) {
+            Histograma h = latencias[operacion.ordinal()];
+            sb.append(String.format(Locale.ROOT, "%-14s %10d %12.1f %12.1f %12.1f %12.1f%n", operacion,
+                    h.llamadas(), h.mediaMicros(), h.percentilMicros(0.5), h.percentilMicros(0.99), h.maximoMicros()));
+        }
+        EstadisticasAlmacen estadisticas = almacen.estadisticas();
+        EstadisticasCompactacion compactacion = almacen.estadisticasCompactacion();
+        sb.append(String.format(Locale.ROOT, "aciertos_cache=%.4f%n", getAciertosCache()));
+        sb.append("tamaño_archivo=").append(estadisticas.getTamañoArchivo()).append('\n');
+        sb.append("bytes_leidos=").append(estadisticas.getBytesLeidos()).append('\n');
+        sb.append("bytes_escritos=").append(estadisticas.getBytesEscritos()).append('\n');
+        sb.append("registros=").append(estadisticas.getRegistros()).append('\n');
+        sb.append("dispositivos=").append(estadisticas.getDispositivos()).append('\n');
+        sb.append("borrados=").append(estadisticas.getBorrados()).append('\n');
+        sb.append(String.format(Locale.ROOT, "proporcion_borrados=%.4f%n", estadisticas.getProporcionBorrados()));
+        sb.append(String.format(Locale.ROOT, "proporcion_obsoletos=%.4f%n", estadisticas.getProporcionObsoletos()));
+        sb.append("errores=").append(estadisticas.getErrores()).append('\n');
+        sb.append("compactaciones=").append(compactacion.getCompactaciones()).append('\n');
+        sb.append("bytes_recuperados=").append(compactacion.getBytesRecuperados()).append('\n');
+        sb.append("ms_compactando=").append(compactacion.getNanosTotales() / 1_000_000).append('\n');
+        return sb.toString();
+    }
+
+    private Map<String, Double> porOperacion(ToDoubleFunction<Histograma> valor) {
+        Map<String, Double> valores = new LinkedHashMap<>();
+        for (Operacion operacion : Operacion.values()) {
+            valores.put(operacion.toString(), valor.applyAsDouble(latencias[operacion.ordinal()]));
+        }
+        return valores;
+    }
+
+    private void registrarJmx() {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombre = new ObjectName("dispositivos:type=Almacen,archivo=" + ObjectName.quote(archivo.getPath()));
+            if (!servidor.isRegistered(nombre)) {
+                servidor.registerMBean(this, nombre);
+            }
+        } catch (JMException e) {
+            e.printStackTrace(); // Log error for debugging
+        }
+    }
+
+    /**
+     * Escribe el volcado en {@code .metricas} a través de un archivo temporal, para que quien lo lea
+     * no vea nunca un volcado a medias. Los errores se capturan todos para que el planificador no
+     * cancele los volcados siguientes.
+     */
+    private void volcarArchivo() {
+        File destino = new File(archivo.getPath() + ".metricas");
+        File temporal = new File(archivo.getPath() + ".metricas.tmp");
+        try {
+            Files.write(temporal.toPath(), volcado().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temporal.toPath(), destino.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal.toPath(), destino.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(); // Log error for debugging
+        }
+    }
+
+    /**
+     * Histograma de latencias con una cubeta por potencia de 2: la cubeta {@code c} cuenta las
+     * duraciones de {@code 2^(c-1)} a {@code 2^c - 1} nanosegundos.
+     */
+    private static final class Histograma {
+
+        private final LongAdder[] cubetas = new LongAdder[Long.SIZE + 1];
+        private final LongAdder suma = new LongAdder();
+        private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+        Histograma() {
+            for (int i = 0; i < cubetas.length; i++) {
+                cubetas[i] = new LongAdder();
+            }
+        }
+
+        void registrar(long nanos) {
+            nanos = Math.max(nanos, 0);
+            cubetas[Long.SIZE - Long.numberOfLeadingZeros(nanos)].increment();
+            suma.add(nanos);
+            maximo.accumulate(nanos);
+        }
+
+        long llamadas() {
+            long total = 0;
+            for (LongAdder cubeta : cubetas) {
+                total += cubeta.sum();
+            }
+            return total;
+        }
+
+        double mediaMicros() {
+            long llamadas = llamadas();
+            return llamadas == 0 ? 0 : suma.sum() / 1000.0 / llamadas;
+        }
+
+        double maximoMicros() {
+            return maximo.get() / 1000.0;
+        }
+
+        /**
+         * Devuelve el límite superior de la cubeta donde cae el percentil, sin pasar del máximo.
+         */
+        double percentilMicros(double percentil) {
+            long[] cuentas = new long[cubetas.length];
+            long total = 0;
+            for (int i = 0; i < cubetas.length; i++) {
+                cuentas[i] = cubetas[i].sum();
+                total += cuentas[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long objetivo = (long) Math.ceil(percentil * total);
+            long acumulado = 0;
+            for (int i = 0; i < cuentas.length; i++) {
+                acumulado += cuentas[i];
+                if (acumulado >= objetivo) {
+                    long limite = i == 0 ? 0 : i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(limite, maximo.get()) / 1000.0;
+                }
+            }
+            return maximoMicros();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.util.Map;
+
+/**
+ * Interfaz JMX de {@link MetricasAlmacen}. Cada repositorio se registra como
+ * {@code dispositivos:type=Almacen,archivo="<ruta>"} y se puede consultar con JConsole o
+ * VisualVM. Las latencias se dan por operación ({@code cargar}, {@code guardar}, {@code borrar},
+ * {@code cargarTodos}, {@code cambiarEstado} y {@code vaciar}).
+ *
+ * @author Frxnker
+ */
+public interface MetricasAlmacenMXBean {
+
+    /**
+     * @return Número de llamadas de cada operación.
+     */
+    Map<String, Long> getLlamadas();
+
+    /**
+     * @return Latencia media de cada operación, en microsegundos.
+     */
+    Map<String, Double> getLatenciaMediaMicros();
+
+    /**
+     * @return Percentil 50 de la latencia de cada operación, en microsegundos.
+     */
+    Map<String, Double> getLatenciaP50Micros();
+
+    /**
+     * @return Percentil 99 de la latencia de cada operación, en microsegundos.
+     */
+    Map<String, Double> getLatenciaP99Micros();
+
+    /**
+     * @return Latencia máxima de cada operación, en microsegundos.
+     */
+    Map<String, Double> getLatenciaMaximaMicros();
+
+    /**
+     * @return Proporción de búsquedas por ID resueltas sin leer el archivo, entre 0 y 1.
+     */
+    double getAciertosCache();
+
+    long getBytesLeidos();
+
+    long getBytesEscritos();
+
+    long getTamañoArchivo();
+
+    long getDispositivos();
+
+    /**
+     * @return Proporción de dispositivos marcados como borrados, entre 0 y 1.
+     */
+    double getProporcionBorrados();
+
+    /**
+     * @return Proporción del archivo que eliminaría una compactación, entre 0 y 1.
+     */
+    double getProporcionObsoletos();
+
+    /**
+     * @return Operaciones del almacén que han fallado por un error de entrada/salida.
+     */
+    long getErrores();
+
+    long getCompactaciones();
+
+    long getBytesRecuperados();
+
+    /**
+     * Devuelve todas las métricas en texto, en el mismo formato que el volcado periódico.
+     *
+     * @return El texto.
+     */
+    String volcado();
+}
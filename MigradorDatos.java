@@ -0,0 +1,370 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
+
+/**
+ * Migración de los archivos de datos guardados en formatos anteriores al formato binario actual
+ * de {@link AlmacenDispositivos}.
+ *
+ * <p>Formatos reconocidos:</p>
+ * <ul>
+ *   <li>Una {@code ArrayList<Dispositivo>} escrita con {@link ObjectOutputStream} (formato original
+ *   de {@code Lista.dat} y {@code dispositivos.dat}).</li>
+ *   <li>Registro en versión 1, con los datos de cada registro serializados con Java.</li>
+ *   <li>Registro en versión 2, con los datos codificados con {@link CodecDispositivos} pero sin
+ *   CRC32 por registro.</li>
+ *   <li>Registro en versión 3, con CRC32 por registro pero con las cadenas repetidas en cada
+ *   registro en lugar de en una tabla de cadenas.</li>
+ * </ul>
+ *
+ * <p>La migración se hace automáticamente la primera vez que se abre un archivo, pero también
+ * puede lanzarse a mano ejecutando esta clase con las rutas de los archivos como argumentos.</p>
+ *
+ * <p>Además, {@link #unificar(String, String)} fusiona en {@code Lista.dat} el archivo
+ * {@code dispositivos.dat} que usaban antes {@link Impresora} y {@link Ordenador}, de modo que
+ * todos los tipos de dispositivo quedan en un único almacén. La llama {@link Main} al arrancar,
+ * antes de usar {@link Dispositivo#REPOSITORIO}.</p>
+ *
+ * @author Frxnker
+ */
+public class MigradorDatos {
+
+    private static final byte VERSION_SERIALIZADA = 1;
+    private static final byte VERSION_SIN_CRC = 2;
+    private static final byte VERSION_CON_CRC = 3;
+
+    private MigradorDatos() {
+        // Clase de utilidades, no se instancia
+    }
+
+    /**
+     * Migra los archivos indicados, o {@code Lista.dat} y {@code dispositivos.dat} si no se
+     * indica ninguno.
+     *
+     * @param args Rutas de los archivos a migrar.
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            unificar(Dispositivo.ARCHIVO_DATOS, Dispositivo.ARCHIVO_SUBTIPOS);
+            int total = Dispositivo.loadAll().size();
+            System.out.println(Dispositivo.ARCHIVO_DATOS + ": " + total + " dispositivos en formato actual.");
+            return;
+        }
+        for (String ruta : args) {
+            if (!new File(ruta).exists()) {
+                System.out.println("No existe el archivo " + ruta);
+                continue;
+            }
+            int total = RepositorioDispositivos.de(ruta).todos().size();
+            System.out.println(ruta + ": " + total + " dispositivos en formato actual.");
+        }
+    }
+
+    /**
+     * Devuelve el repositorio de {@code ruta} después de fusionar en él los dispositivos de
+     * {@code rutaAntigua}, si ese archivo existe.
+     *
+     * <p>Los dispositivos se añaden en un solo lote. Si un ID ya está usado en el destino o está
+     * fuera de rango, el dispositivo recibe un ID nuevo. Al terminar, el archivo antiguo se
+     * renombra a {@code .fusionado} para no volver a fusionarlo. La fusión se hace con un bloqueo
+     * de archivo, así que si varios procesos arrancan a la vez solo uno la hace.</p>
+     *
+     * <p>Antes de guardar nada, el ID que tendrá cada dispositivo se escribe en el archivo
+     * {@code .fusion} (el mismo del bloqueo). Si la fusión se interrumpe, la siguiente vuelve a
+     * usar esos IDs y sobrescribe lo que ya se hubiera guardado en lugar de duplicarlo.</p>
+     *
+     * @param ruta Ruta del archivo unificado.
+     * @param rutaAntigua Ruta del archivo que se fusiona.
+     * @return El repositorio del archivo unificado.
+     */
+    static RepositorioDispositivos unificar(String ruta, String rutaAntigua) {
+        RepositorioDispositivos destino = RepositorioDispositivos.de(ruta);
+        File antiguo = new File(rutaAntigua);
+        if (!antiguo.exists()) {
+            return destino;
+        }
+        try (FileChannel canal = FileChannel.open(new File(rutaAntigua + ".fusion").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock bloqueo = canal.lock();
+            try {
+                if (antiguo.exists()) {  // Puede haberlo fusionado otro proceso mientras se esperaba
+                    ArrayList<Dispositivo> dispositivos = new AlmacenDispositivos(antiguo).cargarTodos();
+                    Map<Integer, Integer> plan = leerPlan(canal, dispositivos);
+                    if (plan == null) {
+                        IndicesSecundarios usados = destino.indices();
+                        int[] ids = planificar(dispositivos, usados::contiene, destino::nuevoId);
+                        plan = new HashMap<>();
+                        for (int i = 0; i < ids.length; i++) {
+                            plan.put(dispositivos.get(i).getId(), ids[i]);
+                        }
+                        escribirPlan(canal, plan);
+                    }
+                    int fusionados = fusionar(dispositivos, plan, destino);
+                    Files.move(antiguo.toPath(), new File(rutaAntigua + ".fusionado").toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    canal.truncate(0);
+                    System.err.println("Se han fusionado " + fusionados + " dispositivos de " + rutaAntigua + " en " + ruta + ".");
+                }
+            } finally {
+                bloqueo.release();
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+        }
+        return destino;
+    }
+
+    /**
+     * Decide el ID de cada dispositivo en el destino: el suyo si está libre, en rango y no lo ha
+     * conservado ya otro dispositivo anterior de la lista, y si no uno nuevo que tampoco coincida
+     * con ninguno de los que se conservan.
+     *
+     * @param dispositivos Los dispositivos, que pueden repetir ID.
+     * @param usado Dice si un ID ya está ocupado en el destino.
+     * @param nuevoId Da IDs nuevos.
+     * @return El ID en el destino de cada dispositivo, en el orden de la lista.
+     */
+    static int[] planificar(List<Dispositivo> dispositivos, IntPredicate usado, IntSupplier nuevoId) {
+        int[] ids = new int[dispositivos.size()];
+        Set<Integer> conservados = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) {
+            int id = dispositivos.get(i).getId();
+            ids[i] = GeneradorIds.valido(id) && !usado.test(id) && conservados.add(id) ? id : -1;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] < 0) {
+                int id;
+                do {
+                    id = nuevoId.getAsInt();
+                } while (conservados.contains(id) || usado.test(id));
+                ids[i] = id;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Da un ID nuevo a los dispositivos leídos de un formato anterior que repiten el ID de uno
+     * anterior de la lista o lo tienen fuera de rango, e informa de ellos por la salida de
+     * errores. El {@code Main} original empezaba a contar desde 0 en cada ejecución, así que una
+     * {@code ArrayList} serializada puede tener varios dispositivos con el mismo ID; sin esto, al
+     * indexarlos por ID solo quedaría el último. Los IDs nuevos siguen al mayor que se conserva,
+     * así que el {@link GeneradorIds} continúa después de ellos.
+     *
+     * @param dispositivos Los dispositivos leídos, que se modifican.
+     * @param archivo Archivo del que se han leído, para el mensaje.
+     * @return Número de dispositivos con ID nuevo.
+     * @throws IOException Si no quedan IDs libres para todos.
+     */
+    static int reasignarRepetidos(List<Dispositivo> dispositivos, File archivo) throws IOException {
+        int maximo = -1;
+        for (Dispositivo d : dispositivos) {
+            if (GeneradorIds.valido(d.getId())) {
+                maximo = Math.max(maximo, d.getId());
+            }
+        }
+        int[] siguiente = {maximo + 1};
+        int[] ids = planificar(dispositivos, id -> false, () -> siguiente[0]++);
+        StringBuilder cambios = new StringBuilder();
+        int reasignados = 0;
+        for (int i = 0; i < ids.length; i++) {
+            Dispositivo d = dispositivos.get(i);
+            if (ids[i] != d.getId()) {
+                if (!GeneradorIds.valido(ids[i])) {
+                    throw new IOException("No quedan IDs libres para migrar " + archivo);
+                }
+                cambios.append(reasignados++ == 0 ? "" : ", ").append(d.getId()).append(" -> ").append(ids[i]);
+                d.reasignarId(ids[i]);
+            }
+        }
+        if (reasignados > 0) {
+            System.err.println("Se han dado IDs nuevos a " + reasignados + " dispositivos con el ID repetido o fuera de rango al migrar "
+                    + archivo + ": " + cambios + ".");
+        }
+        return reasignados;
+    }
+
+    /**
+     * Escribe el plan en el archivo de la fusión con el formato {@code [n, (antiguo, nuevo) × n]}
+     * y lo fuerza a disco.
+     */
+    private static void escribirPlan(FileChannel canal, Map<Integer, Integer> plan) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * (1 + 2 * plan.size()));
+        buffer.putInt(plan.size());
+        for (Map.Entry<Integer, Integer> par : plan.entrySet()) {
+            buffer.putInt(par.getKey()).putInt(par.getValue());
+        }
+        buffer.flip();
+        canal.truncate(0);
+        while (buffer.hasRemaining()) {
+            canal.write(buffer, buffer.position());
+        }
+        canal.force(true);
+    }
+
+    /**
+     * Lee el plan de una fusión interrumpida.
+     *
+     * @return El plan, o null si no hay ninguno completo para exactamente estos dispositivos.
+     */
+    private static Map<Integer, Integer> leerPlan(FileChannel canal, ArrayList<Dispositivo> dispositivos) throws IOException {
+        long tamaño = canal.size();
+        if (tamaño != Integer.BYTES * (1 + 2L * dispositivos.size())) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) tamaño);
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer, buffer.position()) < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        if (buffer.getInt() != dispositivos.size()) {
+            return null;
+        }
+        Map<Integer, Integer> plan = new HashMap<>();
+        while (buffer.hasRemaining()) {
+            plan.put(buffer.getInt(), buffer.getInt());
+        }
+        for (Dispositivo d : dispositivos) {
+            if (!plan.containsKey(d.getId())) {
+                return null;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Guarda los dispositivos en el repositorio en un único lote, con los IDs del plan.
+     *
+     * @return Número de dispositivos guardados.
+     */
+    private static int fusionar(ArrayList<Dispositivo> dispositivos, Map<Integer, Integer> plan,
+            RepositorioDispositivos destino) throws IOException {
+        Durabilidad anterior = destino.getDurabilidad();
+        destino.setDurabilidad(Durabilidad.LOTE);
+        try {
+            for (Dispositivo d : dispositivos) {
+                int id = plan.get(d.getId());
+                if (id != d.getId()) {
+                    d.reasignarId(id);
+                }
+                if (!destino.guardar(d)) {
+                    throw new IOException("No se ha podido guardar el dispositivo " + d.getId());
+                }
+            }
+            if (!destino.vaciar()) {
+                throw new IOException("No se han podido escribir los dispositivos fusionados");
+            }
+        } finally {
+            destino.setDurabilidad(anterior);
+        }
+        return dispositivos.size();
+    }
+
+    /**
+     * Lee un archivo si está en un formato anterior al actual.
+     *
+     * @param archivo Archivo de datos.
+     * @return La lista de dispositivos del archivo, o null si el archivo no existe, está vacío o
+     *         ya está en el formato actual.
+     * @throws IOException Si el archivo no se puede leer o su formato no se reconoce.
+     */
+    static ArrayList<Dispositivo> leerFormatoAnterior(File archivo) throws IOException {
+        if (!archivo.exists() || archivo.length() < 2) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(archivo)))) {
+            in.mark(8);
+            if (in.readShort() == ObjectStreamConstants.STREAM_MAGIC) {
+                in.reset();
+                return leerListaSerializada(in);
+            }
+            in.reset();
+            if (in.readInt() != AlmacenDispositivos.MAGICO) {
+                throw new IOException("Formato de archivo no reconocido: " + archivo);
+            }
+            byte version = in.readByte();
+            if (version == AlmacenDispositivos.VERSION) {
+                return null;
+            }
+            if (version == VERSION_SERIALIZADA || version == VERSION_SIN_CRC || version == VERSION_CON_CRC) {
+                return leerRegistroAnterior(in, version);
+            }
+            throw new IOException("Versión de archivo no soportada: " + version);
+        }
+    }
+
+    /**
+     * Lee el formato original: una única {@code ArrayList} serializada.
+     */
+    private static ArrayList<Dispositivo> leerListaSerializada(InputStream in) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(in)) {
+            @SuppressWarnings("unchecked")
+            ArrayList<Dispositivo> lista = (ArrayList<Dispositivo>) ois.readObject();
+            return lista;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reproduce un registro en versión 1, donde cada dispositivo está serializado con Java, o en
+     * versiones 2 y 3, donde está codificado con {@link CodecDispositivos} con las cadenas en cada
+     * registro. Una cola incompleta o, en la versión 3, dañada, como la que deja una escritura
+     * interrumpida, se ignora.
+     */
+    private static ArrayList<Dispositivo> leerRegistroAnterior(DataInputStream in, byte version) throws IOException {
+        Map<Integer, Dispositivo> dispositivos = new LinkedHashMap<>();
+        while (true) {
+            byte op;
+            try {
+                op = in.readByte();
+            } catch (EOFException fin) {
+                break;
+            }
+            int id;
+            byte[] datos;
+            try {
+                id = in.readInt();
+                int longitud = in.readInt();
+                int suma = version >= VERSION_CON_CRC ? in.readInt() : 0;
+                datos = in.readNBytes(longitud);
+                if (datos.length < longitud) {
+                    break;
+                }
+                if (version >= VERSION_CON_CRC && AlmacenDispositivos.suma(op, id, datos) != suma) {
+                    break;
+                }
+            } catch (EOFException fin) {
+                break;
+            }
+            if (op == AlmacenDispositivos.OP_GUARDAR && version >= VERSION_SIN_CRC) {
+                dispositivos.put(id, CodecDispositivos.decodificar(datos));
+            } else if (op == AlmacenDispositivos.OP_GUARDAR) {
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(datos))) {
+                    dispositivos.put(id, (Dispositivo) ois.readObject());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            } else if (op == AlmacenDispositivos.OP_BORRAR && dispositivos.containsKey(id)) {
+                dispositivos.get(id).setBorrado(true);
+            }
+        }
+        return new ArrayList<>(dispositivos.values());
+    }
+}
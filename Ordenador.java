@@ -1,7 +1,7 @@
 package Programación.Trim2.Tema6.PracticaObligatoria;
 
-import java.io.*;
 import java.util.ArrayList;
+import java.util.BitSet;
 
 /**
  * Representa un ordenador, que es un tipo de dispositivo. Hereda de la clase {@link Dispositivo}.
@@ -12,10 +12,7 @@ import java.util.ArrayList;
  */
 public class Ordenador extends Dispositivo {
 
-    /**
-     * El archivo donde se almacenan los dispositivos.
-     */
-    private static final String ARCHIVO_DATOS = "dispositivos.dat";  // Definimos la constante de archivo
+    private static final long serialVersionUID = 3697237714193705416L;  // Valor original, para leer archivos antiguos
 
     private int ram;
     private String procesador;
@@ -36,7 +33,7 @@ public class Ordenador extends Dispositivo {
     public Ordenador(int ram, String procesador, int tamDisco, int tipoDisco, String marca, String modelo, boolean estado) {
         super(marca, modelo, estado);
         this.ram = ram;
-        this.procesador = procesador;
+        this.procesador = DiccionarioCadenas.canonica(procesador);
         this.tamDisco = tamDisco;
         this.tipoDisco = tipoDisco;
     }
@@ -53,6 +50,27 @@ public class Ordenador extends Dispositivo {
         this.tipoDisco = 0;
     }
 
+    /**
+     * Constructor para reconstruir un ordenador ya existente, sin consumir un nuevo ID.
+     * Lo usa {@link CodecDispositivos} al leer los datos.
+     * 
+     * @param id El ID del ordenador.
+     * @param ram La cantidad de memoria RAM en GB.
+     * @param procesador El nombre del procesador.
+     * @param tamDisco El tamaño del disco en GB.
+     * @param tipoDisco El tipo de disco (0 para HDD, 1 para SSD).
+     * @param marca La marca del dispositivo.
+     * @param modelo El modelo del dispositivo.
+     * @param estado El estado del dispositivo.
+     */
+    Ordenador(int id, int ram, String procesador, int tamDisco, int tipoDisco, String marca, String modelo, boolean estado) {
+        super(id, marca, modelo, estado);
+        this.ram = ram;
+        this.procesador = DiccionarioCadenas.canonica(procesador);
+        this.tamDisco = tamDisco;
+        this.tipoDisco = tipoDisco;
+    }
+
     /**
      * Obtiene la cantidad de memoria RAM del ordenador.
      * 
@@ -86,7 +104,7 @@ public class Ordenador extends Dispositivo {
      * @param procesador El nombre del procesador.
      */
     public void setProcesador(String procesador) {
-        this.procesador = procesador;
+        this.procesador = DiccionarioCadenas.canonica(procesador);
     }
 
     /**
@@ -136,29 +154,14 @@ public class Ordenador extends Dispositivo {
     }
 
     /**
-     * Guarda el objeto {@link Ordenador} en un archivo. Si ya existe un objeto con el mismo ID, lo actualiza.
-     * Si no existe, lo agrega a la lista de dispositivos.
+     * Guarda el objeto {@link Ordenador} en un archivo añadiendo un registro al final. Si ya existe un
+     * objeto con el mismo ID, la nueva versión sustituye a la anterior al cargar.
      * 
      * @return {@code true} si el objeto se guardó correctamente, {@code false} en caso contrario.
      */
     @Override
     public boolean save() {
-        ArrayList<Dispositivo> listaDispositivos = loadAll();
-
-        boolean encontrado = false;
-        for (int i = 0; i < listaDispositivos.size(); i++) {
-            if (listaDispositivos.get(i).getId() == this.getId()) {
-                listaDispositivos.set(i, this);
-                encontrado = true;
-                break;
-            }
-        }
-
-        if (!encontrado) {
-            listaDispositivos.add(this);
-        }
-
-        return guardarLista(listaDispositivos);
+        return REPOSITORIO.guardar(this);
     }
 
     /**
@@ -168,51 +171,66 @@ public class Ordenador extends Dispositivo {
      * @return El objeto {@link Ordenador} si se encuentra en el archivo, {@code null} en caso contrario.
      */
     public static Ordenador load(int id) {
-        ArrayList<Dispositivo> listaDispositivos = loadAll();
-        for (Dispositivo d : listaDispositivos) {
-            if (d.getId() == id && !d.isBorrado()) {
-                if (d instanceof Ordenador) {
-                    return (Ordenador) d;
-                }
-            }
+        Dispositivo d = REPOSITORIO.buscar(id);
+        if (d instanceof Ordenador) {
+            return (Ordenador) d;
         }
         return null;
     }
 
     /**
-     * Carga todos los dispositivos desde el archivo.
+     * Carga todos los ordenadores del archivo de dispositivos, incluidos los borrados.
      * 
-     * @return Una lista de todos los dispositivos cargados desde el archivo. Si el archivo no existe o hay un error, devuelve una lista vacía.
+     * @return Una lista con los ordenadores. Si el archivo no existe o hay un error, devuelve una lista vacía.
      */
     public static ArrayList<Dispositivo> loadAll() {
-        File archivo = new File(ARCHIVO_DATOS);
-        if (!archivo.exists()) {
-            return new ArrayList<>();
-        }
+        return REPOSITORIO.consulta().tipo(Ordenador.class).incluirBorrados().ejecutar();
+    }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(ARCHIVO_DATOS))) {
-            @SuppressWarnings("unchecked")
-            ArrayList<Dispositivo> listaDispositivos = (ArrayList<Dispositivo>) ois.readObject();
-            return listaDispositivos;
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace(); // Log error for debugging
-            return new ArrayList<>();
-        }
+    /**
+     * Busca los ordenadores no borrados con la RAM y el tamaño de disco dentro de los rangos
+     * indicados (ambos extremos incluidos), usando los índices ordenados del repositorio.
+     * 
+     * @param ramMinima RAM mínima en GB.
+     * @param ramMaxima RAM máxima en GB.
+     * @param discoMinimo Tamaño de disco mínimo en GB.
+     * @param discoMaximo Tamaño de disco máximo en GB.
+     * @return Los ordenadores encontrados, ordenados por ID.
+     */
+    public static ArrayList<Dispositivo> buscarPorRango(int ramMinima, int ramMaxima, int discoMinimo, int discoMaximo) {
+        IndicesSecundarios indices = REPOSITORIO.indices();
+        BitSet ids = indices.porRam(ramMinima, ramMaxima);
+        ids.and(indices.porTamDisco(discoMinimo, discoMaximo));
+        ids.andNot(indices.borrados());
+        return REPOSITORIO.dispositivosDe(ids);
     }
 
     /**
-     * Guarda la lista de dispositivos en el archivo.
+     * Devuelve los {@code k} ordenadores no borrados con más RAM, de mayor a menor.
      * 
-     * @param lista La lista de dispositivos a guardar.
-     * @return {@code true} si la lista se guarda correctamente, {@code false} en caso contrario.
+     * @param k Número máximo de ordenadores.
+     * @return Los ordenadores encontrados.
      */
-    private static boolean guardarLista(ArrayList<Dispositivo> lista) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(ARCHIVO_DATOS))) {
-            oos.writeObject(lista);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace(); // Log error for debugging
-            return false;
-        }
+    public static ArrayList<Dispositivo> mayoresPorRam(int k) {
+        return REPOSITORIO.dispositivosDe(REPOSITORIO.indices().mayoresPorRam(k));
+    }
+
+    /**
+     * Devuelve los {@code k} ordenadores no borrados con más disco, de mayor a menor.
+     * 
+     * @param k Número máximo de ordenadores.
+     * @return Los ordenadores encontrados.
+     */
+    public static ArrayList<Dispositivo> mayoresPorTamDisco(int k) {
+        return REPOSITORIO.dispositivosDe(REPOSITORIO.indices().mayoresPorTamDisco(k));
+    }
+
+    /**
+     * Crea una consulta sobre los ordenadores del archivo de dispositivos.
+     * 
+     * @return La consulta, limitada a ordenadores.
+     */
+    public static ConsultaDispositivos consultar() {
+        return REPOSITORIO.consulta().tipo(Ordenador.class);
     }
 }
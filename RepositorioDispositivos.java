@@ -0,0 +1,620 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Repositorio compartido de dispositivos con caché en memoria.
+ *
+ * <p>Todas las clases que trabajan con un mismo archivo de datos ({@link Dispositivo},
+ * {@link Impresora}, {@link Ordenador} y {@link Main}) usan la misma instancia, que mantiene los
+ * dispositivos ya decodificados en memoria. Las escrituras se aplican a la vez en la caché y en el
+ * {@link Almacen} (write-through), y las lecturas repetidas no acceden a disco. Si el archivo
+ * cambia desde fuera (según {@link Almacen#comprobarCambiosExternos()}), la caché se descarta.</p>
+ *
+ * <p>Es seguro usarlo desde varios hilos. Las operaciones sobre un dispositivo se serializan con
+ * un cerrojo por ID, repartido entre un número fijo de cerrojos (striping), de modo que hilos que
+ * trabajan con dispositivos distintos no se esperan entre sí salvo en la escritura en disco. Las
+ * operaciones que afectan a toda la caché (carga completa e invalidación) usan un cerrojo global
+ * de escritura.</p>
+ *
+ * <p>El motor de almacenamiento se elige con la propiedad {@code dispositivos.almacen}: por defecto
+ * {@link AlmacenDispositivos}, o {@link AlmacenMapeado} con el valor {@code mapeado}. La política
+ * de durabilidad de las escrituras se elige con {@code dispositivos.durabilidad} (ver
+ * {@link Durabilidad}).</p>
+ *
+ * <p>Además de la caché por ID mantiene {@link IndicesSecundarios} por atributos, que se
+ * actualizan en cada escritura y se reconstruyen al cargar la caché completa.</p>
+ *
+ * <p>La caché se llena bajo demanda: una búsqueda por ID lee solo ese dispositivo, y la primera
+ * operación que necesita todos los dispositivos los carga. La carga completa lee el almacén sin el
+ * cerrojo global, así que mientras tanto se siguen atendiendo búsquedas y escrituras; los
+ * dispositivos escritos durante la carga se vuelven a leer al final. {@link #precargar()} la
+ * lanza en segundo plano.</p>
+ *
+ * <p>Las operaciones se miden en {@link MetricasAlmacen}, publicadas por JMX.</p>
+ *
+ * <p>Los cambios se publican como {@link EventoDispositivo} en {@link #cambios()}, con el
+ * dispositivo antes y después, para quien se suscriba o en el diario de cambios. Un guardado que
+ * no cambia nada no genera evento, y uno que solo cambia el estado genera uno de tipo
+ * {@link EventoDispositivo.Tipo#ESTADO}, igual que {@link #cambiarEstado(int)}.</p>
+ *
+ * <p>Los objetos devueltos son los de la caché: cualquier cambio sobre ellos debe persistirse con
+ * {@link Dispositivo#save()}. Los dispositivos se devuelven ordenados por ID.</p>
+ *
+ * @author Frxnker
+ */
+public class RepositorioDispositivos {
+
+    public static final String PROPIEDAD_ALMACEN = "dispositivos.almacen";
+    public static final String ALMACEN_MAPEADO = "mapeado";
+    public static final String PROPIEDAD_DURABILIDAD = "dispositivos.durabilidad";
+
+    private static final int NUM_CERROJOS = 64;  // Potencia de 2
+
+    private static final Map<String, RepositorioDispositivos> REPOSITORIOS = new HashMap<>();
+
+    private final Almacen almacen;
+    private final GeneradorIds generador;
+    private final MetricasAlmacen metricas;
+    private final CambiosDispositivos cambios;
+    private final ConcurrentSkipListMap<Integer, Dispositivo> cache = new ConcurrentSkipListMap<>();
+    private final IndicesSecundarios indices = new IndicesSecundarios();
+    private volatile boolean completa = false;  // true si la caché contiene todos los dispositivos del archivo
+    private final ReentrantReadWriteLock cerrojoGlobal = new ReentrantReadWriteLock();
+    private final ReentrantLock[] cerrojos = new ReentrantLock[NUM_CERROJOS];
+    private final ReentrantLock cerrojoCarga = new ReentrantLock();  // Una sola carga completa a la vez
+    private volatile Set<Integer> escritosDuranteCarga;  // IDs escritos mientras se lee el almacén, null si no se lee
+    private int invalidaciones;  // Veces que se ha descartado la caché, con el cerrojo global de escritura
+    private volatile Durabilidad durabilidad = Durabilidad.ESCRITURA;
+
+    /**
+     * Constructor privado, usar {@link #de(String)} para obtener el repositorio de un archivo.
+     *
+     * @param archivo Archivo de datos.
+     */
+    private RepositorioDispositivos(File archivo) {
+        if (ALMACEN_MAPEADO.equals(System.getProperty(PROPIEDAD_ALMACEN))) {
+            this.almacen = new AlmacenMapeado(new File(archivo.getPath() + ".map"), archivo);
+        } else {
+            this.almacen = new AlmacenDispositivos(archivo);
+        }
+        String durabilidad = System.getProperty(PROPIEDAD_DURABILIDAD);
+        if (durabilidad != null) {
+            setDurabilidad(Durabilidad.valueOf(durabilidad.toUpperCase()));
+        }
+        this.generador = new GeneradorIds(new File(archivo.getPath() + ".ids"), almacen::idMaximo);
+        this.metricas = new MetricasAlmacen(archivo, almacen);
+        this.cambios = new CambiosDispositivos(new File(archivo.getPath() + ".cambios"));
+        for (int i = 0; i < NUM_CERROJOS; i++) {
+            cerrojos[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Devuelve el repositorio asociado a un archivo. Rutas distintas que apuntan al mismo archivo
+     * (por ejemplo {@code "Lista.dat"} y {@code "./Lista.dat"}) comparten repositorio.
+     *
+     * @param ruta Ruta del archivo de datos.
+     * @return El repositorio del archivo.
+     */
+    public static synchronized RepositorioDispositivos de(String ruta) {
+        File archivo = new File(ruta).getAbsoluteFile().toPath().normalize().toFile();
+        return REPOSITORIOS.computeIfAbsent(archivo.getPath(), clave -> new RepositorioDispositivos(archivo));
+    }
+
+    /**
+     * Devuelve un ID nuevo, único también entre ejecuciones y procesos distintos.
+     *
+     * @return El ID.
+     */
+    public int nuevoId() {
+        return generador.siguiente();
+    }
+
+    /**
+     * Devuelve todos los dispositivos, incluidos los marcados como borrados.
+     *
+     * @return Una copia de la lista de dispositivos en caché.
+     */
+    public ArrayList<Dispositivo> todos() {
+        long inicio = System.nanoTime();
+        cargarCompleta();
+        ArrayList<Dispositivo> todos = new ArrayList<>(cache.values());
+        metricas.registrar(MetricasAlmacen.Operacion.CARGAR_TODOS, inicio);
+        return todos;
+    }
+
+    /**
+     * Carga todos los dispositivos en la caché en un hilo de fondo, para que las operaciones que
+     * los necesitan no tengan que esperar. Vuelve enseguida; mientras tanto las búsquedas por ID
+     * se atienden leyendo solo el dispositivo buscado.
+     *
+     * @return El hilo que hace la carga.
+     */
+    public Thread precargar() {
+        Thread hilo = new Thread(this::cargarCompleta, "precarga-dispositivos");
+        hilo.setDaemon(true);
+        hilo.start();
+        return hilo;
+    }
+
+    /**
+     * Devuelve los índices secundarios, cargando antes todos los dispositivos si hace falta.
+     *
+     * @return Los índices.
+     */
+    public IndicesSecundarios indices() {
+        cargarCompleta();
+        return indices;
+    }
+
+    /**
+     * Devuelve los dispositivos cuyos IDs están en el conjunto, normalmente el resultado de
+     * combinar consultas de {@link #indices()}. El coste depende del número de IDs, no del total
+     * de dispositivos.
+     *
+     * @param ids Conjunto de IDs.
+     * @return Los dispositivos, ordenados por ID.
+     */
+    public ArrayList<Dispositivo> dispositivosDe(BitSet ids) {
+        ArrayList<Dispositivo> lista = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            Dispositivo d = cache.get(id);
+            if (d != null) {
+                lista.add(d);
+            }
+        }
+        return lista;
+    }
+
+    /**
+     * Versión perezosa de {@link #dispositivosDe(BitSet)}: cada dispositivo se busca en la caché a
+     * medida que se consume, así que un {@code limit} posterior evita buscar el resto.
+     *
+     * @param ids Conjunto de IDs, que no debe cambiar mientras se recorre.
+     * @return Flujo de dispositivos, ordenados por ID.
+     */
+    public Stream<Dispositivo> recorrerDe(BitSet ids) {
+        return ids.stream().mapToObj(cache::get).filter(Objects::nonNull);
+    }
+
+    /**
+     * Recorre todos los dispositivos, incluidos los borrados, sin cargarlos todos en memoria. Si la
+     * caché ya está completa se recorre la caché; si no, se decodifican del archivo a medida que se
+     * consumen, sin llenar la caché.
+     *
+     * @return Flujo de dispositivos, que debe cerrarse al terminar.
+     */
+    public Stream<Dispositivo> recorrer() {
+        return recorrer(null);
+    }
+
+    /**
+     * Recorre los dispositivos que pasan un filtro sobre sus campos fijos. Si no están en caché, el
+     * almacén evalúa el filtro antes de decodificar cada uno.
+     *
+     * @param filtro El filtro, o null para recorrerlos todos.
+     * @return Flujo de dispositivos, que debe cerrarse al terminar.
+     */
+    public Stream<Dispositivo> recorrer(FiltroCabecera filtro) {
+        comprobarArchivo();
+        if (completa) {
+            Stream<Dispositivo> enCache = new ArrayList<>(cache.values()).stream();
+            return filtro == null ? enCache : enCache.filter(filtro::acepta);
+        }
+        return almacen.recorrer(filtro);
+    }
+
+    /**
+     * Indica si la caché contiene todos los dispositivos, y por tanto los índices secundarios
+     * están disponibles sin leer el archivo.
+     *
+     * @return true si la caché está completa.
+     */
+    public boolean cacheCompleta() {
+        return completa;
+    }
+
+    /**
+     * Crea una consulta sobre los dispositivos de este repositorio.
+     *
+     * @return La consulta, sin condiciones.
+     */
+    public ConsultaDispositivos consulta() {
+        return new ConsultaDispositivos(this);
+    }
+
+    /**
+     * Busca un dispositivo por su ID. Si no está en caché se lee solo su registro.
+     *
+     * @param id ID del dispositivo.
+     * @return El dispositivo, o null si no existe o está borrado.
+     */
+    public Dispositivo buscar(int id) {
+        long inicio = System.nanoTime();
+        comprobarArchivo();
+        cerrojoGlobal.readLock().lock();
+        try {
+            return buscarEnCache(id);
+        } finally {
+            cerrojoGlobal.readLock().unlock();
+            metricas.registrar(MetricasAlmacen.Operacion.CARGAR, inicio);
+        }
+    }
+
+    /**
+     * Devuelve los dispositivos con los IDs indicados en el mismo orden, por ejemplo el resultado de
+     * {@link IndicesSecundarios#mayoresPorRam(int)}.
+     *
+     * @param ids IDs de los dispositivos.
+     * @return Los dispositivos que siguen en caché.
+     */
+    public ArrayList<Dispositivo> dispositivosDe(int[] ids) {
+        ArrayList<Dispositivo> lista = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Dispositivo d = cache.get(id);
+            if (d != null) {
+                lista.add(d);
+            }
+        }
+        return lista;
+    }
+
+    /**
+     * Guarda un dispositivo en disco y en la caché.
+     *
+     * @param d Dispositivo a guardar.
+     * @return true si la operación fue exitosa, false en caso contrario.
+     * @throws IllegalArgumentException Si el ID es negativo o mayor que {@link GeneradorIds#ID_MAXIMO}.
+     */
+    public boolean guardar(Dispositivo d) {
+        long inicio = System.nanoTime();
+        comprobarArchivo();
+        generador.observar(d.getId());  // Por si el ID no lo ha dado el generador
+        ReentrantLock cerrojo = bloquear(d.getId());
+        try {
+            boolean publicar = cambios.activo();
+            byte[] antes = publicar ? anterior(d.getId(), d) : null;
+            if (!almacen.guardar(d)) {
+                return false;
+            }
+            cache.put(d.getId(), d);
+            indices.actualizar(d);
+            if (publicar) {
+                publicarGuardado(d, antes);
+            }
+            return true;
+        } finally {
+            desbloquear(cerrojo);
+            metricas.registrar(MetricasAlmacen.Operacion.GUARDAR, inicio);
+        }
+    }
+
+    /**
+     * Cambia el estado (encendido/apagado) de un dispositivo. El almacén lee y escribe el estado
+     * con el archivo bloqueado, así que dos cambios simultáneos sobre el mismo dispositivo, desde
+     * este u otro proceso, no se pierden. El dispositivo solo se decodifica si hay suscriptores a
+     * los cambios; si no, se actualiza la copia de la caché cuando la hay.
+     *
+     * @param id ID del dispositivo.
+     * @return true si el dispositivo existía y se guardó, false en caso contrario.
+     */
+    public boolean cambiarEstado(int id) {
+        long inicio = System.nanoTime();
+        comprobarArchivo();
+        ReentrantLock cerrojo = bloquear(id);
+        try {
+            byte[] antes = cambios.activo() ? anterior(id, null) : null;
+            Boolean estado = almacen.alternarEstado(id);
+            if (estado == null) {
+                return false;
+            }
+            Dispositivo d = cache.get(id);
+            if (d != null) {
+                d.setEstado(estado);
+                indices.actualizar(d);
+            }
+            if (antes != null) {
+                Dispositivo despues = d != null ? d : almacen.cargar(id);
+                if (despues != null) {
+                    cambios.publicar(EventoDispositivo.Tipo.ESTADO, id, antes, instantanea(despues));
+                }
+            }
+            return true;
+        } finally {
+            desbloquear(cerrojo);
+            metricas.registrar(MetricasAlmacen.Operacion.CAMBIAR_ESTADO, inicio);
+        }
+    }
+
+    /**
+     * Marca un dispositivo como borrado en disco y en la caché.
+     *
+     * @param id ID del dispositivo.
+     * @return true si el dispositivo existía y se marcó, false en caso contrario.
+     */
+    public boolean borrar(int id) {
+        long inicio = System.nanoTime();
+        comprobarArchivo();
+        ReentrantLock cerrojo = bloquear(id);
+        try {
+            byte[] antes = cambios.activo() ? anterior(id, null) : null;
+            if (!almacen.borrar(id)) {
+                return false;
+            }
+            Dispositivo d = cache.get(id);
+            if (d != null) {
+                d.setBorrado(true);
+                indices.actualizar(d);
+            }
+            if (antes != null) {
+                cambios.publicar(EventoDispositivo.Tipo.BORRADO, id, antes, null);
+            }
+            return true;
+        } finally {
+            desbloquear(cerrojo);
+            metricas.registrar(MetricasAlmacen.Operacion.BORRAR, inicio);
+        }
+    }
+
+    /**
+     * Cambia la política de durabilidad de las escrituras.
+     *
+     * @param durabilidad La nueva política.
+     */
+    public void setDurabilidad(Durabilidad durabilidad) {
+        almacen.setDurabilidad(durabilidad);
+        this.durabilidad = durabilidad;
+    }
+
+    /**
+     * Devuelve la política de durabilidad actual.
+     *
+     * @return La política.
+     */
+    public Durabilidad getDurabilidad() {
+        return durabilidad;
+    }
+
+    /**
+     * Escribe en disco los cambios pendientes, también los del diario de cambios. Con
+     * {@link Durabilidad#LOTE} conviene llamarlo al terminar una serie de operaciones; en los demás
+     * modos no tiene efecto o solo fuerza a disco lo ya escrito.
+     *
+     * @return true si no queda nada pendiente, false si hubo un error al escribir.
+     */
+    public boolean vaciar() {
+        long inicio = System.nanoTime();
+        boolean vaciado = almacen.vaciar() & cambios.vaciar();
+        metricas.registrar(MetricasAlmacen.Operacion.VACIAR, inicio);
+        return vaciado;
+    }
+
+    /**
+     * Carga todos los dispositivos en la caché, si no lo estaban, y reconstruye los índices.
+     *
+     * <p>Lee el almacén sin el cerrojo global y después lo toma solo para llenar la caché. Los
+     * dispositivos que ya estaban en caché se conservan, porque son los que tienen quienes los
+     * buscaron antes y reflejan todas las escrituras; los escritos durante la lectura que no
+     * están en caché se vuelven a leer. Si la caché se descarta durante la lectura, se repite.</p>
+     */
+    private void cargarCompleta() {
+        comprobarArchivo();
+        if (completa) {
+            return;
+        }
+        cerrojoCarga.lock();
+        try {
+            while (!completa) {
+                Set<Integer> escritos = ConcurrentHashMap.newKeySet();
+                int invalidacionesAntes;
+                cerrojoGlobal.writeLock().lock();  // Espera a las escrituras en curso
+                try {
+                    escritosDuranteCarga = escritos;
+                    invalidacionesAntes = invalidaciones;
+                } finally {
+                    cerrojoGlobal.writeLock().unlock();
+                }
+                ArrayList<Dispositivo> leidos = almacen.cargarTodos();
+                cerrojoGlobal.writeLock().lock();
+                try {
+                    escritosDuranteCarga = null;
+                    if (invalidaciones != invalidacionesAntes) {
+                        continue;  // El archivo ha cambiado desde fuera durante la lectura
+                    }
+                    for (Dispositivo d : leidos) {
+                        if (escritos.contains(d.getId()) && !cache.containsKey(d.getId())) {
+                            Dispositivo actual = almacen.cargar(d.getId());  // Solo falta si se ha borrado
+                            if (actual == null) {
+                                d.setBorrado(true);
+                            } else {
+                                d = actual;
+                            }
+                        }
+                        cache.putIfAbsent(d.getId(), d);
+                    }
+                    indices.limpiar();
+                    for (Dispositivo d : cache.values()) {
+                        indices.actualizar(d);
+                    }
+                    completa = true;
+                } finally {
+                    cerrojoGlobal.writeLock().unlock();
+                }
+            }
+        } finally {
+            cerrojoCarga.unlock();
+        }
+    }
+
+    /**
+     * Compacta el archivo en el hilo actual. Los dispositivos borrados desaparecen del archivo,
+     * pero la caché no cambia.
+     *
+     * @return true si se compactó o no había nada que compactar, false en caso contrario.
+     */
+    public boolean compactar() {
+        return almacen.compactar();
+    }
+
+    /**
+     * Devuelve las estadísticas de compactación del almacén.
+     *
+     * @return Las estadísticas.
+     */
+    public EstadisticasCompactacion estadisticasCompactacion() {
+        return almacen.estadisticasCompactacion();
+    }
+
+    /**
+     * Devuelve las métricas de las operaciones del repositorio.
+     *
+     * @return Las métricas.
+     */
+    public MetricasAlmacen metricas() {
+        return metricas;
+    }
+
+    /**
+     * Devuelve la publicación de los cambios del repositorio, para suscribirse a ellos o leer el
+     * diario de cambios.
+     *
+     * @return Los cambios.
+     */
+    public CambiosDispositivos cambios() {
+        return cambios;
+    }
+
+    /**
+     * Devuelve codificado el estado vigente de un dispositivo antes de guardarlo o borrarlo. Si el
+     * de la caché es el mismo objeto que se guarda, ya tiene los cambios y se lee el del almacén.
+     * Debe llamarse con el cerrojo del ID.
+     *
+     * @param id ID del dispositivo.
+     * @param nuevo El dispositivo que se va a guardar, o null si se va a borrar.
+     * @return El dispositivo codificado, o null si no existía o estaba borrado.
+     */
+    private byte[] anterior(int id, Dispositivo nuevo) {
+        Dispositivo d = cache.get(id);
+        if (d == nuevo || (d == null && !completa)) {
+            d = almacen.cargar(id);
+        }
+        return d == null || d.isBorrado() ? null : instantanea(d);
+    }
+
+    /**
+     * Publica el evento de un guardado según lo que ha cambiado respecto al estado anterior.
+     */
+    private void publicarGuardado(Dispositivo d, byte[] antes) {
+        byte[] despues = instantanea(d);
+        if (despues == null || Arrays.equals(antes, despues)) {
+            return;
+        }
+        EventoDispositivo.Tipo tipo = EventoDispositivo.Tipo.CREADO;
+        if (antes != null) {
+            tipo = soloEstado(antes, d, despues) ? EventoDispositivo.Tipo.ESTADO : EventoDispositivo.Tipo.MODIFICADO;
+        }
+        cambios.publicar(tipo, d.getId(), antes, despues);
+    }
+
+    /**
+     * Comprueba si un dispositivo solo se diferencia de su estado anterior en el estado
+     * (encendido/apagado), cambiándolo en una copia del anterior.
+     */
+    private static boolean soloEstado(byte[] antes, Dispositivo d, byte[] despues) {
+        try {
+            Dispositivo copia = CodecDispositivos.decodificar(antes);
+            if (copia.isEstado() == d.isEstado()) {
+                return false;
+            }
+            copia.setEstado(d.isEstado());
+            return Arrays.equals(CodecDispositivos.codificar(copia), despues);
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            return false;
+        }
+    }
+
+    /**
+     * Codifica un dispositivo para un {@link EventoDispositivo}, de modo que el evento no cambie
+     * aunque después cambie el objeto.
+     *
+     * @return Los bytes, o null si hay un error.
+     */
+    private static byte[] instantanea(Dispositivo d) {
+        try {
+            return CodecDispositivos.codificar(d);
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            return null;
+        }
+    }
+
+    /**
+     * Busca en la caché y, si no está completa, en el almacén. Debe llamarse con el cerrojo global
+     * de lectura.
+     */
+    private Dispositivo buscarEnCache(int id) {
+        Dispositivo d = cache.get(id);
+        if (d != null || completa) {
+            metricas.acierto();
+        } else {
+            metricas.fallo();
+            d = almacen.cargar(id);
+            if (d != null) {
+                Dispositivo anterior = cache.putIfAbsent(id, d);
+                d = anterior != null ? anterior : d;
+            }
+        }
+        return d == null || d.isBorrado() ? null : d;
+    }
+
+    /**
+     * Toma el cerrojo global de lectura y el cerrojo del ID.
+     */
+    private ReentrantLock bloquear(int id) {
+        cerrojoGlobal.readLock().lock();
+        Set<Integer> escritos = escritosDuranteCarga;
+        if (escritos != null) {
+            escritos.add(id);
+        }
+        ReentrantLock cerrojo = cerrojos[(id ^ (id >>> 16)) & (NUM_CERROJOS - 1)];
+        cerrojo.lock();
+        return cerrojo;
+    }
+
+    private void desbloquear(ReentrantLock cerrojo) {
+        cerrojo.unlock();
+        cerrojoGlobal.readLock().unlock();
+    }
+
+    /**
+     * Descarta la caché si otro proceso ha modificado el archivo.
+     */
+    private void comprobarArchivo() {
+        if (almacen.comprobarCambiosExternos()) {
+            cerrojoGlobal.writeLock().lock();
+            try {
+                cache.clear();
+                indices.limpiar();
+                completa = false;
+                invalidaciones++;
+            } finally {
+                cerrojoGlobal.writeLock().unlock();
+            }
+        }
+    }
+}
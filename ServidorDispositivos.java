@@ -0,0 +1,402 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * API HTTP/JSON del inventario de dispositivos, para que otros servicios consulten y cambien
+ * dispositivos sin pasar por el menú de {@link Main}.
+ *
+ * <p>Rutas:</p>
+ * <ul>
+ *   <li>{@code GET /dispositivos?filtro=valor...}: array JSON con los dispositivos que cumplen los
+ *   filtros, los mismos que {@code listar} en {@link InterpreteComandos}.</li>
+ *   <li>{@code POST /dispositivos}: añade el dispositivo del cuerpo, un objeto JSON con los campos
+ *   de {@link IntercambioDispositivos} salvo {@code id}, que se asigna automáticamente. Responde
+ *   {@code 201} con el dispositivo y su ruta en la cabecera {@code Location}.</li>
+ *   <li>{@code GET /dispositivos/{id}}: el dispositivo, o {@code 404}.</li>
+ *   <li>{@code PUT /dispositivos/{id}}: sustituye un dispositivo existente por el del cuerpo.</li>
+ *   <li>{@code DELETE /dispositivos/{id}}: marca el dispositivo como borrado; responde {@code 204}.</li>
+ *   <li>{@code POST /dispositivos/{id}/estado}: cambia el estado (encendido/apagado) y devuelve el
+ *   dispositivo.</li>
+ *   <li>{@code GET /metricas}: el volcado de texto de {@link MetricasAlmacen}.</li>
+ *   <li>{@code GET /cambios?desde=posición&limite=N}: los eventos del {@link DiarioCambios} a
+ *   partir de una posición (0 para empezar por el principio), como
+ *   {@code {"eventos":[...],"siguiente":posición}}, con {@code siguiente} la posición desde la que
+ *   pedir los siguientes. Como mucho 1000 eventos por petición, o {@code limite}. Responde
+ *   {@code 404} si no hay diario.</li>
+ * </ul>
+ *
+ * <p>Los errores se responden con {@code {"error":"mensaje"}}: {@code 400} si la petición no es
+ * válida, {@code 404} si no existe el dispositivo o la ruta, {@code 405} si el método no se admite
+ * en la ruta, {@code 413} si el cuerpo pasa de 64 KiB y {@code 500} si falla el almacén.</p>
+ *
+ * <p>La API no tiene autenticación, así que por defecto solo escucha en la interfaz de bucle
+ * local; para publicarla en otra dirección hay que indicarla al crear el servidor.</p>
+ *
+ * <p>Cada petición se atiende en su propio hilo virtual, así que las peticiones que esperan a
+ * disco no bloquean a las demás. No hay estado propio: todas trabajan sobre el
+ * {@link RepositorioDispositivos}, que ya es seguro entre hilos, y nunca modifican un dispositivo
+ * de la caché en sitio. Los cambios usan la política de durabilidad del repositorio; al
+ * {@linkplain #detener() detener} el servidor se vacían los pendientes.</p>
+ *
+ * @author Frxnker
+ */
+public class ServidorDispositivos {
+
+    public static final int PUERTO_POR_DEFECTO = 8080;
+
+    private static final String RUTA = "/dispositivos";
+    private static final String TIPO_JSON = "application/json; charset=utf-8";
+    private static final String TIPO_TEXTO = "text/plain; charset=utf-8";
+    private static final int ESPERA_PARADA = 2;  // Segundos para terminar las peticiones en curso
+    private static final int LIMITE_CAMBIOS = 1000;  // Eventos por petición de /cambios
+    private static final int TAM_MAXIMO_CUERPO = 64 * 1024;  // Un dispositivo ocupa unos cientos de bytes
+
+    static {
+        // Sin TCP_NODELAY, la cabecera y el cuerpo de cada respuesta van en segmentos separados y
+        // el segundo espera al ACK retardado del cliente, unos 40 ms por petición.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final RepositorioDispositivos repositorio;
+    private final HttpServer servidor;
+    private final ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Constructor del servidor, que solo escucha en la interfaz de bucle local. No empieza a
+     * atender peticiones hasta {@link #iniciar()}.
+     *
+     * @param repositorio Repositorio que se publica.
+     * @param puerto Puerto de escucha, o 0 para uno libre cualquiera.
+     * @throws IOException Si no se puede abrir el puerto.
+     */
+    public ServidorDispositivos(RepositorioDispositivos repositorio, int puerto) throws IOException {
+        this(repositorio, null, puerto);
+    }
+
+    /**
+     * Constructor del servidor. No empieza a atender peticiones hasta {@link #iniciar()}.
+     *
+     * @param repositorio Repositorio que se publica.
+     * @param direccion Dirección o nombre de la interfaz de escucha ({@code 0.0.0.0} para todas),
+     *                  o null para la de bucle local.
+     * @param puerto Puerto de escucha, o 0 para uno libre cualquiera.
+     * @throws IOException Si no se puede resolver la dirección o abrir el puerto.
+     */
+    public ServidorDispositivos(RepositorioDispositivos repositorio, String direccion, int puerto) throws IOException {
+        this.repositorio = repositorio;
+        InetAddress interfaz = direccion == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(direccion);
+        this.servidor = HttpServer.create(new InetSocketAddress(interfaz, puerto), 0);
+        servidor.setExecutor(hilos);
+        servidor.createContext(RUTA, this::atenderDispositivos);
+        servidor.createContext("/metricas", this::atenderMetricas);
+        servidor.createContext("/cambios", this::atenderCambios);
+    }
+
+    /**
+     * Carga todos los dispositivos en la caché del repositorio, como hace el menú al arrancar, para
+     * que las búsquedas usen los índices en lugar de recorrer el archivo, y empieza a atender
+     * peticiones.
+     */
+    public void iniciar() {
+        repositorio.todos();
+        servidor.start();
+    }
+
+    /**
+     * Deja de atender peticiones, espera a las que están en curso y escribe los cambios pendientes.
+     *
+     * @return true si se han escrito los cambios pendientes.
+     */
+    public boolean detener() {
+        servidor.stop(ESPERA_PARADA);
+        hilos.close();
+        return repositorio.vaciar();
+    }
+
+    /**
+     * @return El puerto en el que escucha el servidor.
+     */
+    public int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    /**
+     * @return La URL de {@code /dispositivos} en la dirección en la que escucha el servidor.
+     */
+    public String getUrl() {
+        String host = servidor.getAddress().getAddress().getHostAddress();
+        return "http://" + (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + getPuerto() + RUTA;
+    }
+
+    private void atenderDispositivos(HttpExchange intercambio) throws IOException {
+        try (intercambio) {
+            encaminar(intercambio, intercambio.getRequestMethod());
+        }
+    }
+
+    /**
+     * Elige la operación según la ruta y el método, y responde los errores de la petición.
+     */
+    private void encaminar(HttpExchange intercambio, String metodo) throws IOException {
+        try {
+            String[] partes = intercambio.getRequestURI().getPath().substring(RUTA.length()).split("/");
+            if (partes.length <= 1) {
+                if (partes.length == 1 && !partes[0].isEmpty()) {
+                    responderError(intercambio, 404, "ruta desconocida");
+                } else if (metodo.equals("GET")) {
+                    listar(intercambio);
+                } else if (metodo.equals("POST")) {
+                    añadir(intercambio);
+                } else {
+                    noAdmitido(intercambio, "GET, POST");
+                }
+                return;
+            }
+            int id = id(partes[1]);
+            if (partes.length == 2) {
+                switch (metodo) {
+                    case "GET": ver(intercambio, id);
+                        break;
+                    case "PUT": sustituir(intercambio, id);
+                        break;
+                    case "DELETE": borrar(intercambio, id);
+                        break;
+                    default: noAdmitido(intercambio, "GET, PUT, DELETE");
+                }
+            } else if (partes.length == 3 && partes[2].equals("estado")) {
+                if (metodo.equals("POST")) {
+                    alternar(intercambio, id);
+                } else {
+                    noAdmitido(intercambio, "POST");
+                }
+            } else {
+                responderError(intercambio, 404, "ruta desconocida");
+            }
+        } catch (CuerpoDemasiadoGrande e) {
+            responderError(intercambio, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            responderError(intercambio, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // Log error for debugging
+            responderError(intercambio, 500, "error interno");
+        }
+    }
+
+    private void atenderMetricas(HttpExchange intercambio) throws IOException {
+        try (intercambio) {
+            if (intercambio.getRequestMethod().equals("GET")) {
+                responder(intercambio, 200, TIPO_TEXTO, repositorio.metricas().volcado());
+            } else {
+                noAdmitido(intercambio, "GET");
+            }
+        }
+    }
+
+    private void atenderCambios(HttpExchange intercambio) throws IOException {
+        try (intercambio) {
+            if (intercambio.getRequestMethod().equals("GET")) {
+                cambios(intercambio);
+            } else {
+                noAdmitido(intercambio, "GET");
+            }
+        }
+    }
+
+    private void cambios(HttpExchange intercambio) throws IOException {
+        try {
+            Map<String, String> parametros = parametros(intercambio);
+            long desde = IntercambioDispositivos.enteroLargo(parametros::get, "desde", 0);
+            int limite = IntercambioDispositivos.entero(parametros::get, "limite", LIMITE_CAMBIOS);
+            if (desde < 0 || limite < 1 || limite > LIMITE_CAMBIOS) {
+                throw new IllegalArgumentException("desde debe ser 0 o más y limite entre 1 y " + LIMITE_CAMBIOS);
+            }
+            DiarioCambios.Tramo tramo = repositorio.cambios().leerDiario(desde, limite);
+            StringBuilder sb = new StringBuilder(tramo.getEventos().size() * 400 + 32).append("{\"eventos\":[");
+            for (int i = 0; i < tramo.getEventos().size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(tramo.getEventos().get(i).json());
+            }
+            responder(intercambio, 200, TIPO_JSON, sb.append("],\"siguiente\":").append(tramo.getSiguiente()).append('}').toString());
+        } catch (IllegalArgumentException e) {
+            responderError(intercambio, 400, e.getMessage());
+        } catch (NoSuchFileException e) {
+            responderError(intercambio, 404, "no hay diario de cambios (-D" + CambiosDispositivos.PROPIEDAD_DIARIO + "=true)");
+        } catch (IOException e) {
+            e.printStackTrace(); // Log error for debugging
+            responderError(intercambio, 500, "error interno");
+        }
+    }
+
+    private void listar(HttpExchange intercambio) throws IOException {
+        List<Dispositivo> dispositivos = InterpreteComandos.consulta(repositorio, parametros(intercambio)).ejecutar();
+        StringBuilder sb = new StringBuilder(dispositivos.size() * 128 + 2).append('[');
+        for (int i = 0; i < dispositivos.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(IntercambioDispositivos.json(dispositivos.get(i)));
+        }
+        responder(intercambio, 200, TIPO_JSON, sb.append(']').toString());
+    }
+
+    private void añadir(HttpExchange intercambio) throws IOException {
+        Map<String, String> campos = cuerpo(intercambio);
+        if (campos.containsKey("id")) {
+            throw new IllegalArgumentException("el id se asigna automáticamente");
+        }
+        Dispositivo d = IntercambioDispositivos.crear(campos::get);
+        d.reasignarId(repositorio.nuevoId());
+        if (!repositorio.guardar(d)) {
+            responderError(intercambio, 500, "Error al guardar los datos.");
+            return;
+        }
+        intercambio.getResponseHeaders().set("Location", RUTA + "/" + d.getId());
+        responder(intercambio, 201, TIPO_JSON, IntercambioDispositivos.json(d));
+    }
+
+    private void ver(HttpExchange intercambio, int id) throws IOException {
+        Dispositivo d = repositorio.buscar(id);
+        if (d == null) {
+            noEncontrado(intercambio, id);
+        } else {
+            responder(intercambio, 200, TIPO_JSON, IntercambioDispositivos.json(d));
+        }
+    }
+
+    /**
+     * Sustituye un dispositivo por uno nuevo creado con los campos del cuerpo, en lugar de cambiar
+     * el de la caché, que pueden estar leyendo otras peticiones.
+     */
+    private void sustituir(HttpExchange intercambio, int id) throws IOException {
+        Map<String, String> campos = cuerpo(intercambio);
+        if (campos.containsKey("id") && IntercambioDispositivos.entero(campos::get, "id", id) != id) {
+            throw new IllegalArgumentException("el id del cuerpo no coincide con el de la ruta");
+        }
+        Dispositivo d = IntercambioDispositivos.crear(campos::get);
+        d.reasignarId(id);
+        if (repositorio.buscar(id) == null) {
+            noEncontrado(intercambio, id);
+        } else if (!repositorio.guardar(d)) {
+            responderError(intercambio, 500, "Error al guardar los datos.");
+        } else {
+            responder(intercambio, 200, TIPO_JSON, IntercambioDispositivos.json(d));
+        }
+    }
+
+    private void borrar(HttpExchange intercambio, int id) throws IOException {
+        if (repositorio.buscar(id) == null) {
+            noEncontrado(intercambio, id);
+        } else if (!repositorio.borrar(id)) {
+            responderError(intercambio, 500, "Error al borrar el dispositivo.");
+        } else {
+            intercambio.sendResponseHeaders(204, -1);
+        }
+    }
+
+    private void alternar(HttpExchange intercambio, int id) throws IOException {
+        if (!repositorio.cambiarEstado(id)) {
+            noEncontrado(intercambio, id);
+        } else {
+            ver(intercambio, id);
+        }
+    }
+
+    private static int id(String texto) {
+        try {
+            return Integer.parseInt(texto);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("el id no es un número: " + texto);
+        }
+    }
+
+    /**
+     * Lee los parámetros de la URL. Si un parámetro se repite, vale el último.
+     */
+    private static Map<String, String> parametros(HttpExchange intercambio) {
+        Map<String, String> parametros = new LinkedHashMap<>();
+        String consulta = intercambio.getRequestURI().getRawQuery();
+        if (consulta == null || consulta.isEmpty()) {
+            return parametros;
+        }
+        for (String parametro : consulta.split("&")) {
+            int igual = parametro.indexOf('=');
+            String nombre = igual < 0 ? parametro : parametro.substring(0, igual);
+            String valor = igual < 0 ? "" : parametro.substring(igual + 1);
+            parametros.put(URLDecoder.decode(nombre, StandardCharsets.UTF_8), URLDecoder.decode(valor, StandardCharsets.UTF_8));
+        }
+        return parametros;
+    }
+
+    /**
+     * Lee el cuerpo como objeto JSON sin leer más de {@code TAM_MAXIMO_CUERPO} bytes, aunque no
+     * venga la cabecera {@code Content-Length}.
+     */
+    private static Map<String, String> cuerpo(HttpExchange intercambio) throws IOException {
+        String longitud = intercambio.getRequestHeaders().getFirst("Content-Length");
+        if (longitud != null && Long.parseLong(longitud.trim()) > TAM_MAXIMO_CUERPO) {
+            throw new CuerpoDemasiadoGrande();
+        }
+        try (InputStream in = intercambio.getRequestBody()) {
+            byte[] bytes = in.readNBytes(TAM_MAXIMO_CUERPO + 1);
+            if (bytes.length > TAM_MAXIMO_CUERPO) {
+                throw new CuerpoDemasiadoGrande();
+            }
+            return JsonPlano.leer(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void noEncontrado(HttpExchange intercambio, int id) throws IOException {
+        responderError(intercambio, 404, "No se ha encontrado el dispositivo con el id " + id);
+    }
+
+    private static void noAdmitido(HttpExchange intercambio, String metodos) throws IOException {
+        intercambio.getResponseHeaders().set("Allow", metodos);
+        responderError(intercambio, 405, "método no admitido");
+    }
+
+    private static void responderError(HttpExchange intercambio, int codigo, String mensaje) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        JsonPlano.escribirCadena(sb, mensaje);
+        responder(intercambio, codigo, TIPO_JSON, sb.append('}').toString());
+    }
+
+    private static void responder(HttpExchange intercambio, int codigo, String tipo, String cuerpo) throws IOException {
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", tipo);
+        intercambio.sendResponseHeaders(codigo, bytes.length);
+        try (OutputStream out = intercambio.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Cuerpo de petición mayor que {@code TAM_MAXIMO_CUERPO}; se responde con {@code 413}.
+     */
+    private static class CuerpoDemasiadoGrande extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        CuerpoDemasiadoGrande() {
+            super("el cuerpo pasa de " + TAM_MAXIMO_CUERPO + " bytes");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diccionario de cadenas de un archivo de {@link AlmacenDispositivos}: asocia a cada cadena
+ * definida en el archivo su código, el número de orden de su definición.
+ *
+ * <p>Los códigos no cambian nunca mientras exista el archivo (las compactaciones conservan las
+ * definiciones), así que un código leído de la tabla sigue siendo válido aunque después se añadan
+ * cadenas. La tabla solo crece, y se puede consultar desde cualquier hilo; las
+ * cadenas se añaden con el cerrojo del almacén. Las cadenas guardadas son las instancias
+ * canónicas de {@link DiccionarioCadenas}, así que los dispositivos decodificados las comparten.</p>
+ *
+ * <p>Admite como mucho {@code dispositivos.cadenas.maximo} cadenas; las que no caben se guardan
+ * dentro de cada registro, como en las versiones anteriores del formato.</p>
+ *
+ * @author Frxnker
+ */
+class TablaCadenas {
+
+    /**
+     * Código de las cadenas que no están en la tabla.
+     */
+    static final int SIN_CODIGO = -1;
+
+    private final ConcurrentHashMap<String, Integer> codigos = new ConcurrentHashMap<>();
+    private volatile String[] cadenas = new String[64];
+    private volatile int tamaño = 0;
+
+    /**
+     * @param cadena Una cadena no nula.
+     * @return Su código, o {@link #SIN_CODIGO} si no está en la tabla.
+     */
+    int codigo(String cadena) {
+        Integer codigo = codigos.get(cadena);
+        return codigo == null ? SIN_CODIGO : codigo;
+    }
+
+    /**
+     * @param codigo Un código leído del archivo.
+     * @return La cadena con ese código.
+     * @throws IOException Si el código no está definido.
+     */
+    String cadena(int codigo) throws IOException {
+        if (codigo < 0 || codigo >= tamaño) {
+            throw new IOException("Código de cadena no definido: " + codigo);
+        }
+        return cadenas[codigo];
+    }
+
+    /**
+     * @return Número de cadenas de la tabla, que es también el código de la siguiente.
+     */
+    int tamaño() {
+        return tamaño;
+    }
+
+    /**
+     * Añade una cadena con el código siguiente.
+     *
+     * @param cadena La cadena, que no debe estar ya en la tabla.
+     * @return Su código.
+     */
+    synchronized int añadir(String cadena) {
+        int codigo = tamaño;
+        String[] actuales = cadenas;
+        if (codigo == actuales.length) {
+            actuales = Arrays.copyOf(actuales, actuales.length * 2);
+        }
+        String canonica = DiccionarioCadenas.canonica(cadena);
+        actuales[codigo] = canonica;
+        codigos.put(canonica, codigo);
+        cadenas = actuales;
+        tamaño = codigo + 1;  // Publica la cadena para los hilos que no tienen el cerrojo
+        return codigo;
+    }
+
+    /**
+     * Devuelve las cadenas de un dispositivo que no están en la tabla y cabrían en ella, sin
+     * repetir y en el orden de sus campos.
+     *
+     * @param d El dispositivo.
+     * @return Las cadenas nuevas, vacía si la tabla ya las tiene todas o está llena.
+     */
+    List<String> nuevas(Dispositivo d) {
+        List<String> nuevas = new ArrayList<>(3);
+        int libres = DiccionarioCadenas.MAXIMO - tamaño;
+        for (String cadena : cadenasDe(d)) {
+            if (cadena != null && nuevas.size() < libres && !codigos.containsKey(cadena) && !nuevas.contains(cadena)) {
+                nuevas.add(cadena);
+            }
+        }
+        return nuevas;
+    }
+
+    /**
+     * @return Una tabla nueva con las mismas cadenas y códigos, que se puede ampliar sin cambiar
+     *         esta.
+     */
+    synchronized TablaCadenas copia() {
+        TablaCadenas copia = new TablaCadenas();
+        for (int codigo = 0; codigo < tamaño; codigo++) {
+            copia.añadir(cadenas[codigo]);
+        }
+        return copia;
+    }
+
+    private static String[] cadenasDe(Dispositivo d) {
+        String procesador = d instanceof Ordenador ? ((Ordenador) d).getProcesador() : null;
+        return new String[] {d.getMarca(), d.getModelo(), procesador};
+    }
+}
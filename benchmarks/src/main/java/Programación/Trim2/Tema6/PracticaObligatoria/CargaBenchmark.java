@@ -0,0 +1,70 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks del arranque: abrir {@code Lista.dat} con un almacén nuevo y cargar todos los
+ * dispositivos, como hace {@link Main} al empezar con {@code -Ddispositivos.arranque=completo}.
+ * Los dos leen el índice guardado en {@code Lista.dat.indice} en lugar de recorrer el archivo.
+ *
+ * <p>La decodificación se reparte entre los hilos del {@code ForkJoinPool} común; para ver cómo
+ * escala con los núcleos, se puede limitar con
+ * {@code -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=N}.</p>
+ *
+ * @author Frxnker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class CargaBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int tamaño;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        DatosBenchmark.prepararDirectorio();
+        RepositorioDispositivos repositorio = RepositorioDispositivos.de(Dispositivo.ARCHIVO_DATOS);
+        repositorio.setDurabilidad(Durabilidad.LOTE);
+        for (Dispositivo d : DatosBenchmark.generar(tamaño)) {
+            if (!repositorio.guardar(d)) {
+                throw new IOException("No se ha podido guardar el dispositivo " + d.getId());
+            }
+        }
+        if (!repositorio.vaciar()) {
+            throw new IOException("No se han podido escribir los dispositivos");
+        }
+        if (!new AlmacenDispositivos(new File(Dispositivo.ARCHIVO_DATOS)).guardarIndice()) {
+            throw new IOException("No se ha podido guardar el índice");
+        }
+    }
+
+    @Benchmark
+    public int abrir() {
+        return new AlmacenDispositivos(new File(Dispositivo.ARCHIVO_DATOS)).idMaximo();
+    }
+
+    @Benchmark
+    public ArrayList<Dispositivo> abrirYCargarTodos() {
+        return new AlmacenDispositivos(new File(Dispositivo.ARCHIVO_DATOS)).cargarTodos();
+    }
+}
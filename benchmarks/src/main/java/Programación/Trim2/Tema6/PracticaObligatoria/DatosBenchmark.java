@@ -0,0 +1,91 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Preparación de los datos comunes a los benchmarks.
+ *
+ * <p>Los dispositivos se generan con IDs consecutivos desde 0 y los tipos alternados:
+ * {@code id % 3 == 0} es un {@link Dispositivo} genérico, {@code 1} una {@link Impresora} y
+ * {@code 2} un {@link Ordenador}.</p>
+ *
+ * @author Frxnker
+ */
+class DatosBenchmark {
+
+    static final int GENERICO = 0;
+    static final int IMPRESORA = 1;
+    static final int ORDENADOR = 2;
+
+    private static final String MARCA = ".benchmark";  // Indica que los datos del directorio son de los benchmarks
+
+    private DatosBenchmark() {
+        // Clase de utilidades, no se instancia
+    }
+
+    /**
+     * Borra los archivos de datos que dejó una ejecución anterior en el directorio de trabajo. Para
+     * no destruir datos reales, se niega si hay un {@code Lista.dat} o un {@code dispositivos.dat}
+     * que no crearon los benchmarks.
+     *
+     * @throws IOException Si el directorio tiene datos ajenos o no se pueden borrar.
+     */
+    static void prepararDirectorio() throws IOException {
+        File directorio = new File(".").getAbsoluteFile();
+        File marca = new File(directorio, MARCA);
+        for (String datos : new String[] {Dispositivo.ARCHIVO_DATOS, Dispositivo.ARCHIVO_SUBTIPOS}) {
+            if (new File(directorio, datos).exists() && !marca.exists()) {
+                throw new IOException("El directorio " + directorio + " ya tiene un " + datos
+                        + "; ejecute los benchmarks desde un directorio sin datos, por ejemplo target/");
+            }
+        }
+        File[] anteriores = directorio.listFiles((dir, nombre) -> nombre.startsWith(Dispositivo.ARCHIVO_DATOS)
+                || nombre.startsWith(SerializacionBenchmark.ARCHIVO));
+        if (anteriores != null) {
+            for (File archivo : anteriores) {
+                if (!archivo.delete()) {
+                    throw new IOException("No se ha podido borrar " + archivo);
+                }
+            }
+        }
+        marca.createNewFile();
+    }
+
+    /**
+     * Genera los dispositivos de prueba sin consumir IDs del generador.
+     *
+     * @param tamaño Número de dispositivos.
+     * @return Los dispositivos, con IDs de 0 a {@code tamaño - 1}.
+     */
+    static ArrayList<Dispositivo> generar(int tamaño) {
+        ArrayList<Dispositivo> dispositivos = new ArrayList<>(tamaño);
+        for (int id = 0; id < tamaño; id++) {
+            switch (id % 3) {
+                case GENERICO:
+                    dispositivos.add(new Dispositivo(id, "Marca" + id % 50, "Modelo" + id, id % 2 == 0));
+                    break;
+                case IMPRESORA:
+                    dispositivos.add(new Impresora(id, id % 4, id % 2 == 0, id % 5 == 0, "Marca" + id % 50, "Modelo" + id, true));
+                    break;
+                default:
+                    dispositivos.add(new Ordenador(id, 4 << (id % 5), "Procesador" + id % 10, 256 << (id % 4), id % 2,
+                            "Marca" + id % 50, "Modelo" + id, false));
+            }
+        }
+        return dispositivos;
+    }
+
+    /**
+     * Devuelve el ID de un dispositivo al azar del tipo indicado.
+     *
+     * @param tamaño Número de dispositivos generados.
+     * @param tipo {@link #GENERICO}, {@link #IMPRESORA} u {@link #ORDENADOR}.
+     * @param azar Número al azar no negativo.
+     * @return El ID.
+     */
+    static int idAlAzar(int tamaño, int tipo, int azar) {
+        return azar % (tamaño / 3) * 3 + tipo;
+    }
+}
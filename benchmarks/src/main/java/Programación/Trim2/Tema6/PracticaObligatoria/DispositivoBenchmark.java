@@ -0,0 +1,148 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks de las operaciones de persistencia de {@link Dispositivo}, {@link Impresora} y
+ * {@link Ordenador} sobre el almacén actual.
+ *
+ * <p>Antes de cada medición se crea un {@code Lista.dat} con {@code tamaño} dispositivos y se carga
+ * la caché, como hace {@link Main} al arrancar. Cada benchmark se ejecuta en su propia JVM, así que
+ * los dispositivos que borra o añade uno no afectan a los demás. La política de durabilidad se
+ * puede cambiar con {@code -p durabilidad=SINCRONA} o {@code LOTE}.</p>
+ *
+ * <p>Con {@code -p cambios=suscriptor} se mide con un suscriptor de {@link CambiosDispositivos}
+ * que lee los eventos en otro hilo; el diario de cambios se activa con
+ * {@code -jvmArgsAppend -Ddispositivos.cambios.diario=true}.</p>
+ *
+ * <p>Se mide la productividad y la distribución de latencias (percentiles); con
+ * {@link EjecutarBenchmarks} también la asignación de memoria por operación.</p>
+ *
+ * @author Frxnker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class DispositivoBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int tamaño;
+
+    @Param({"ESCRITURA"})
+    private String durabilidad;
+
+    @Param({"ninguno"})
+    private String cambios;
+
+    private RepositorioDispositivos repositorio;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        DatosBenchmark.prepararDirectorio();
+        repositorio = RepositorioDispositivos.de(Dispositivo.ARCHIVO_DATOS);
+        repositorio.setDurabilidad(Durabilidad.LOTE);
+        for (Dispositivo d : DatosBenchmark.generar(tamaño)) {
+            if (!repositorio.guardar(d)) {
+                throw new IOException("No se ha podido guardar el dispositivo " + d.getId());
+            }
+        }
+        if (!repositorio.vaciar()) {
+            throw new IOException("No se han podido escribir los dispositivos");
+        }
+        repositorio.setDurabilidad(Durabilidad.valueOf(durabilidad));
+        Dispositivo.loadAll();
+        if (cambios.equals("suscriptor")) {
+            repositorio.cambios().suscribir(evento -> { });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void terminar() {
+        repositorio.vaciar();
+    }
+
+    private int id(int tipo) {
+        return DatosBenchmark.idAlAzar(tamaño, tipo, ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+    }
+
+    @Benchmark
+    public boolean guardarNuevo() {
+        return new Dispositivo("Marca", "Nuevo", true).save();
+    }
+
+    @Benchmark
+    public boolean guardarExistente() {
+        Dispositivo d = Dispositivo.load(id(DatosBenchmark.GENERICO));
+        d.setEstado(!d.isEstado());
+        return d.save();
+    }
+
+    @Benchmark
+    public Dispositivo cargar() {
+        return Dispositivo.load(id(DatosBenchmark.GENERICO));
+    }
+
+    @Benchmark
+    public boolean borrar() {
+        return new Dispositivo(id(DatosBenchmark.GENERICO)).delete();
+    }
+
+    @Benchmark
+    public ArrayList<Dispositivo> cargarTodos() {
+        return Dispositivo.loadAll();
+    }
+
+    @Benchmark
+    public boolean guardarImpresora() {
+        Impresora i = Impresora.load(id(DatosBenchmark.IMPRESORA));
+        i.setColor(!i.isColor());
+        return i.save();
+    }
+
+    @Benchmark
+    public Impresora cargarImpresora() {
+        return Impresora.load(id(DatosBenchmark.IMPRESORA));
+    }
+
+    @Benchmark
+    public ArrayList<Dispositivo> cargarImpresoras() {
+        return Impresora.loadAll();
+    }
+
+    @Benchmark
+    public boolean guardarOrdenador() {
+        Ordenador o = Ordenador.load(id(DatosBenchmark.ORDENADOR));
+        o.setRam(o.getRam() == 8 ? 16 : 8);
+        return o.save();
+    }
+
+    @Benchmark
+    public Ordenador cargarOrdenador() {
+        return Ordenador.load(id(DatosBenchmark.ORDENADOR));
+    }
+
+    @Benchmark
+    public ArrayList<Dispositivo> cargarOrdenadores() {
+        return Ordenador.loadAll();
+    }
+}
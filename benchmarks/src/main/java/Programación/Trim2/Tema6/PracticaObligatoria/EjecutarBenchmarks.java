@@ -0,0 +1,37 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Punto de entrada de {@code benchmarks.jar}. Acepta los mismos argumentos que JMH y añade siempre
+ * el perfilador de GC, que informa de la memoria asignada por operación ({@code gc.alloc.rate.norm})
+ * y del número de recolecciones.
+ *
+ * @author Frxnker
+ */
+public class EjecutarBenchmarks {
+
+    private static final List<String> OPCIONES_INFORMATIVAS = Arrays.asList("-h", "-l", "-lp", "-lprof", "-lrf");
+
+    public static void main(String[] args) throws RunnerException, IOException, CommandLineOptionException {
+        if (Arrays.stream(args).anyMatch(OPCIONES_INFORMATIVAS::contains)) {
+            org.openjdk.jmh.Main.main(args);  // Ayuda y listados, sin ejecutar nada
+            return;
+        }
+        Options opciones = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opciones).run();
+    }
+}
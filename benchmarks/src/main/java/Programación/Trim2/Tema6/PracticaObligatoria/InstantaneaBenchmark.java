@@ -0,0 +1,89 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks de los informes sobre todo el inventario: recorriendo los objetos de la caché del
+ * repositorio frente a una {@link InstantaneaColumnar}.
+ *
+ * @author Frxnker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class InstantaneaBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int tamaño;
+
+    private ArrayList<Dispositivo> dispositivos;
+    private InstantaneaColumnar instantanea;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        DatosBenchmark.prepararDirectorio();
+        RepositorioDispositivos repositorio = RepositorioDispositivos.de(Dispositivo.ARCHIVO_DATOS);
+        repositorio.setDurabilidad(Durabilidad.LOTE);
+        for (Dispositivo d : DatosBenchmark.generar(tamaño)) {
+            if (!repositorio.guardar(d)) {
+                throw new IOException("No se ha podido guardar el dispositivo " + d.getId());
+            }
+        }
+        if (!repositorio.vaciar()) {
+            throw new IOException("No se han podido escribir los dispositivos");
+        }
+        dispositivos = repositorio.todos();
+        instantanea = InstantaneaColumnar.de(repositorio);
+    }
+
+    @Benchmark
+    public Map<String, Long> encendidosPorMarcaObjetos() {
+        return dispositivos.stream()
+                .filter(d -> !d.isBorrado() && d.isEstado())
+                .collect(Collectors.groupingBy(Dispositivo::getMarca, Collectors.counting()));
+    }
+
+    @Benchmark
+    public Map<String, Long> encendidosPorMarcaColumnas() {
+        return instantanea.seleccionar().estado(true).contarPor(InstantaneaColumnar.Texto.MARCA);
+    }
+
+    @Benchmark
+    public Map<Integer, Long> capacidadPorTipoDiscoObjetos() {
+        return dispositivos.stream()
+                .filter(d -> !d.isBorrado() && d instanceof Ordenador)
+                .map(d -> (Ordenador) d)
+                .collect(Collectors.groupingBy(Ordenador::getTipoDisco, Collectors.summingLong(Ordenador::getTamDisco)));
+    }
+
+    @Benchmark
+    public Map<Integer, Long> capacidadPorTipoDiscoColumnas() {
+        return instantanea.seleccionar().tipo(Ordenador.class)
+                .sumarPor(InstantaneaColumnar.Numero.TIPO_DISCO, InstantaneaColumnar.Numero.TAM_DISCO);
+    }
+
+    @Benchmark
+    public InstantaneaColumnar construir() {
+        return InstantaneaColumnar.de(RepositorioDispositivos.de(Dispositivo.ARCHIVO_DATOS));
+    }
+}
@@ -0,0 +1,140 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Línea base para comparar con {@link DispositivoBenchmark}: las mismas operaciones con el
+ * almacenamiento original, donde el archivo es una única {@code ArrayList<Dispositivo>} escrita con
+ * {@link ObjectOutputStream}. Cada operación lee la lista entera y, si modifica algo, la vuelve a
+ * escribir entera, como hacían {@code save()}, {@code load(int)}, {@code delete()} y
+ * {@code loadAll()} (también en {@link Impresora} y {@link Ordenador}, que usaban el mismo esquema
+ * sobre su propio archivo).
+ *
+ * <p>Con un millón de dispositivos cada operación tarda segundos, así que las mediciones de ese
+ * tamaño tienen pocas muestras.</p>
+ *
+ * @author Frxnker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SerializacionBenchmark {
+
+    static final String ARCHIVO = "ListaSerializada.dat";
+
+    @Param({"1000", "100000", "1000000"})
+    private int tamaño;
+
+    private int siguienteId;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        DatosBenchmark.prepararDirectorio();
+        if (!guardarLista(DatosBenchmark.generar(tamaño))) {
+            throw new IOException("No se ha podido escribir " + ARCHIVO);
+        }
+        siguienteId = tamaño;
+    }
+
+    private int id(int tipo) {
+        return DatosBenchmark.idAlAzar(tamaño, tipo, ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+    }
+
+    @Benchmark
+    public boolean guardarNuevo() {
+        return guardar(new Dispositivo(siguienteId++, "Marca", "Nuevo", true));
+    }
+
+    @Benchmark
+    public boolean guardarExistente() {
+        Dispositivo d = cargar(id(DatosBenchmark.GENERICO));
+        d.setEstado(!d.isEstado());
+        return guardar(d);
+    }
+
+    @Benchmark
+    public Dispositivo cargar() {
+        return cargar(id(DatosBenchmark.GENERICO));
+    }
+
+    @Benchmark
+    public boolean borrar() {
+        int id = id(DatosBenchmark.GENERICO);
+        ArrayList<Dispositivo> lista = cargarTodos();
+        for (Dispositivo d : lista) {
+            if (d.getId() == id) {
+                d.setBorrado(true);
+                return guardarLista(lista);
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public ArrayList<Dispositivo> cargarTodos() {
+        File archivo = new File(ARCHIVO);
+        if (!archivo.exists()) {
+            return new ArrayList<>();
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(archivo))) {
+            @SuppressWarnings("unchecked")
+            ArrayList<Dispositivo> dispositivos = (ArrayList<Dispositivo>) ois.readObject();
+            return dispositivos;
+        } catch (IOException | ClassNotFoundException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    private Dispositivo cargar(int id) {
+        for (Dispositivo d : cargarTodos()) {
+            if (d.getId() == id && !d.isBorrado()) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    private boolean guardar(Dispositivo dispositivo) {
+        ArrayList<Dispositivo> lista = cargarTodos();
+        boolean encontrado = false;
+        for (int i = 0; i < lista.size(); i++) {
+            if (lista.get(i).getId() == dispositivo.getId()) {
+                lista.set(i, dispositivo);
+                encontrado = true;
+                break;
+            }
+        }
+        if (!encontrado) {
+            lista.add(dispositivo);
+        }
+        return guardarLista(lista);
+    }
+
+    private static boolean guardarLista(ArrayList<Dispositivo> lista) {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(ARCHIVO))) {
+            oos.writeObject(lista);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
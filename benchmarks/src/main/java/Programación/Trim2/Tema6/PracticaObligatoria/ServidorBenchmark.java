@@ -0,0 +1,114 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks de {@link ServidorDispositivos}: peticiones por segundo que atiende el servidor con
+ * varios clientes a la vez, sobre {@code tamaño} dispositivos generados como en
+ * {@link DispositivoBenchmark}.
+ *
+ * <p>El servidor y los clientes comparten JVM y se comunican por la interfaz de loopback, así que
+ * el resultado incluye el coste de HTTP pero no el de la red. El número de clientes se cambia con
+ * la opción {@code -t} de JMH.</p>
+ *
+ * @author Frxnker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Threads(32)
+public class ServidorBenchmark {
+
+    @Param({"100000"})
+    private int tamaño;
+
+    @Param({"ESCRITURA"})
+    private String durabilidad;
+
+    private RepositorioDispositivos repositorio;
+    private ServidorDispositivos servidor;
+    private HttpClient cliente;
+    private String base;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        DatosBenchmark.prepararDirectorio();
+        repositorio = RepositorioDispositivos.de(Dispositivo.ARCHIVO_DATOS);
+        repositorio.setDurabilidad(Durabilidad.LOTE);
+        for (Dispositivo d : DatosBenchmark.generar(tamaño)) {
+            if (!repositorio.guardar(d)) {
+                throw new IOException("No se ha podido guardar el dispositivo " + d.getId());
+            }
+        }
+        if (!repositorio.vaciar()) {
+            throw new IOException("No se han podido escribir los dispositivos");
+        }
+        repositorio.setDurabilidad(Durabilidad.valueOf(durabilidad));
+        repositorio.todos();
+        servidor = new ServidorDispositivos(repositorio, 0);
+        servidor.iniciar();
+        base = "http://localhost:" + servidor.getPuerto();
+        cliente = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void terminar() {
+        cliente.close();
+        servidor.detener();
+    }
+
+    private String enviar(HttpRequest peticion) throws IOException, InterruptedException {
+        HttpResponse<String> respuesta = cliente.send(peticion, HttpResponse.BodyHandlers.ofString());
+        if (respuesta.statusCode() >= 300) {
+            throw new IOException("Respuesta " + respuesta.statusCode() + ": " + respuesta.body());
+        }
+        return respuesta.body();
+    }
+
+    private String ruta(int tipo) {
+        int id = DatosBenchmark.idAlAzar(tamaño, tipo, ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+        return base + "/dispositivos/" + id;
+    }
+
+    @Benchmark
+    public String ver() throws IOException, InterruptedException {
+        return enviar(HttpRequest.newBuilder(URI.create(ruta(DatosBenchmark.ORDENADOR))).build());
+    }
+
+    @Benchmark
+    public String alternar() throws IOException, InterruptedException {
+        return enviar(HttpRequest.newBuilder(URI.create(ruta(DatosBenchmark.IMPRESORA) + "/estado"))
+                .POST(HttpRequest.BodyPublishers.noBody()).build());
+    }
+
+    @Benchmark
+    public String listar() throws IOException, InterruptedException {
+        int marca = ThreadLocalRandom.current().nextInt(50);
+        return enviar(HttpRequest.newBuilder(URI.create(base + "/dispositivos?marca=Marca" + marca + "&limite=20")).build());
+    }
+}
@@ -0,0 +1,113 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compactación de {@link AlmacenDispositivos}: los registros que se añaden mientras se copian los
+ * vigentes al archivo nuevo se pasan a él antes de renombrarlo, así que no se pierde ninguno.
+ *
+ * @author Frxnker
+ */
+class CompactacionAlmacenTest {
+
+    private static final int DISPOSITIVOS = 500;
+    private static final int NUEVOS = 20000;
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void compactarConservaLosVigentes() throws InterruptedException {
+        File archivo = directorio.resolve("Lista.dat").toFile();
+        AlmacenDispositivos almacen = new AlmacenDispositivos(archivo);
+        for (int version = 0; version < 3; version++) {
+            assertTrue(guardarTodos(almacen, version));
+        }
+        assertTrue(almacen.borrar(7));
+        assertTrue(almacen.vaciar());
+        long antes = archivo.length();
+
+        while (!almacen.compactar()) {
+            Thread.sleep(10);  // Puede haber una compactación automática en curso
+        }
+
+        assertTrue(archivo.length() < antes);
+        Map<Integer, Dispositivo> leidos = porId(new AlmacenDispositivos(archivo).cargarTodos());
+        assertEquals(DISPOSITIVOS - 1, leidos.size());  // El borrado no se copia
+        assertFalse(leidos.containsKey(7));
+        assertEquals("v2", leidos.get(8).getModelo());
+    }
+
+    /**
+     * Un hilo añade dispositivos nuevos, cada uno una sola vez, mientras el principal compacta sin
+     * parar; cada compactación encuentra registros nuevos tras la longitud que copió, y si alguno
+     * no pasara al archivo nuevo faltaría su ID.
+     */
+    @Test
+    void registrosAñadidosDuranteLaCopiaSobrevivenAlRenombrado() throws InterruptedException {
+        File archivo = directorio.resolve("Lista.dat").toFile();
+        AlmacenDispositivos almacen = new AlmacenDispositivos(archivo);
+        for (int version = 0; version < 3; version++) {
+            assertTrue(guardarTodos(almacen, version));  // Registros obsoletos que eliminar en cada compactación
+        }
+        assertTrue(almacen.vaciar());
+        AtomicBoolean correcto = new AtomicBoolean(true);
+        Thread escritor = new Thread(() -> {
+            for (int id = DISPOSITIVOS; id < DISPOSITIVOS + NUEVOS; id++) {
+                correcto.compareAndSet(true, almacen.guardar(new Dispositivo(id, "HP", "nuevo", true)));
+            }
+            correcto.compareAndSet(true, almacen.vaciar());
+        });
+
+        escritor.start();
+        int compactaciones = 0;
+        while (escritor.isAlive()) {
+            if (almacen.compactar()) {
+                compactaciones++;
+            }
+        }
+        escritor.join();
+
+        assertTrue(correcto.get());
+        assertTrue(compactaciones > 0);
+        Map<Integer, Dispositivo> leidos = porId(new AlmacenDispositivos(archivo).cargarTodos());
+        List<Integer> perdidos = new ArrayList<>();
+        for (int id = 0; id < DISPOSITIVOS + NUEVOS; id++) {
+            String modelo = id < DISPOSITIVOS ? "v2" : "nuevo";
+            if (!leidos.containsKey(id) || !leidos.get(id).getModelo().equals(modelo)) {
+                perdidos.add(id);
+            }
+        }
+        assertEquals(List.of(), perdidos);
+        assertEquals(DISPOSITIVOS + NUEVOS, leidos.size());
+    }
+
+    private static boolean guardarTodos(AlmacenDispositivos almacen, int version) {
+        boolean correcto = true;
+        for (int id = 0; id < DISPOSITIVOS; id++) {
+            correcto &= almacen.guardar(new Dispositivo(id, "HP", "v" + version, id % 2 == 0));
+        }
+        return correcto;
+    }
+
+    private static Map<Integer, Dispositivo> porId(List<Dispositivo> dispositivos) {
+        Map<Integer, Dispositivo> porId = new HashMap<>();
+        for (Dispositivo d : dispositivos) {
+            porId.put(d.getId(), d);
+        }
+        return porId;
+    }
+}
@@ -0,0 +1,69 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Migración de {@link AlmacenDispositivos} desde la {@code ArrayList} serializada original, en la
+ * que el contador de IDs empezaba desde 0 en cada ejecución y podía repetirlos.
+ *
+ * @author Frxnker
+ */
+class MigracionAlmacenTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void idsRepetidosSeReasignan() throws IOException {
+        File archivo = directorio.resolve("Lista.dat").toFile();
+        ArrayList<Dispositivo> anteriores = new ArrayList<>(List.of(
+                new Dispositivo(0, "HP", "X1", true),
+                new Dispositivo(1, "Dell", "XPS", false),
+                new Dispositivo(0, "Lenovo", "T14", true),
+                new Dispositivo(-3, "Asus", "Zen", false)));
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(archivo))) {
+            out.writeObject(anteriores);
+        }
+
+        Map<String, Integer> porMarca = new HashMap<>();
+        for (Dispositivo d : new AlmacenDispositivos(archivo).cargarTodos()) {
+            assertNull(porMarca.put(d.getMarca(), d.getId()));
+        }
+
+        assertEquals(Map.of("HP", 0, "Dell", 1, "Lenovo", 2, "Asus", 3), porMarca);
+        assertTrue(new File(archivo.getPath() + ".bak").exists());
+        assertEquals(4, new AlmacenDispositivos(archivo).cargarTodos().size());  // Ya migrado
+    }
+
+    @Test
+    void generadorSigueAlMayorIdValido() throws IOException {
+        File archivo = directorio.resolve("Lista.dat").toFile();
+        ArrayList<Dispositivo> anteriores = new ArrayList<>(List.of(
+                new Dispositivo(5, "HP", "X1", true),
+                new Dispositivo(5, "Dell", "XPS", false)));
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(archivo))) {
+            out.writeObject(anteriores);
+        }
+        AlmacenDispositivos almacen = new AlmacenDispositivos(archivo);
+        assertEquals(6, almacen.idMaximo());
+        assertTrue(almacen.guardar(new Dispositivo(GeneradorIds.ID_MAXIMO + 1, "Asus", "Zen", true)));  // De un límite mayor
+
+        assertEquals(6, almacen.idMaximo());
+        assertEquals(7, RepositorioDispositivos.de(archivo.getPath()).nuevoId());
+    }
+}
@@ -0,0 +1,106 @@
+package Programación.Trim2.Tema6.PracticaObligatoria;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Recuperación de {@link AlmacenDispositivos} tras una escritura interrumpida: al abrir el archivo
+ * se descarta la cola incompleta o dañada, se guarda en {@code .descartado} y se conservan los
+ * registros anteriores.
+ *
+ * @author Frxnker
+ */
+class RecuperacionAlmacenTest {
+
+    @TempDir
+    Path directorio;
+
+    private File archivo;
+    private File descartado;
+    private long finSegundo;  // Longitud del archivo tras el segundo registro
+    private long finTercero;
+
+    /**
+     * Escribe tres dispositivos con la misma marca y modelo, de modo que el último registro no
+     * lleva definiciones de cadenas y ocupa exactamente el final del archivo.
+     */
+    @BeforeEach
+    void preparar() throws IOException {
+        archivo = directorio.resolve("Lista.dat").toFile();
+        descartado = new File(archivo.getPath() + ".descartado");
+        AlmacenDispositivos almacen = new AlmacenDispositivos(archivo);
+        guardar(almacen, new Dispositivo(1, "HP", "X1", true));
+        guardar(almacen, new Dispositivo(2, "HP", "X1", false));
+        finSegundo = archivo.length();
+        guardar(almacen, new Dispositivo(3, "HP", "X1", true));
+        finTercero = archivo.length();
+        assertTrue(finTercero > finSegundo);
+    }
+
+    @Test
+    void colaIncompletaSeDescarta() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(archivo, "rw")) {
+            raf.setLength(finTercero - 5);
+        }
+
+        assertEquals(List.of(1, 2), ids(new AlmacenDispositivos(archivo)));
+        assertEquals(finSegundo, archivo.length());
+        assertEquals(finTercero - 5 - finSegundo, descartado.length());
+    }
+
+    @Test
+    void colaDañadaSeDescarta() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(archivo, "rw")) {
+            raf.seek(finTercero - 1);
+            int b = raf.read();
+            raf.seek(finTercero - 1);
+            raf.write(b ^ 0xFF);  // Cambia el último byte de datos: el CRC32 ya no coincide
+        }
+
+        assertEquals(List.of(1, 2), ids(new AlmacenDispositivos(archivo)));
+        assertEquals(finSegundo, archivo.length());
+        assertEquals(finTercero - finSegundo, descartado.length());
+    }
+
+    @Test
+    void seSigueEscribiendoTrasRecortar() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(archivo, "rw")) {
+            raf.setLength(finTercero - 1);
+        }
+        guardar(new AlmacenDispositivos(archivo), new Dispositivo(4, "HP", "X1", false));
+
+        assertEquals(List.of(1, 2, 4), ids(new AlmacenDispositivos(archivo)));
+    }
+
+    @Test
+    void archivoIntactoNoDescartaNada() {
+        assertEquals(List.of(1, 2, 3), ids(new AlmacenDispositivos(archivo)));
+        assertEquals(finTercero, archivo.length());
+        assertFalse(descartado.exists());
+    }
+
+    private static void guardar(AlmacenDispositivos almacen, Dispositivo d) {
+        assertTrue(almacen.guardar(d));
+        assertTrue(almacen.vaciar());
+    }
+
+    private static List<Integer> ids(AlmacenDispositivos almacen) {
+        return almacen.cargarTodos().stream()
+                .map(Dispositivo::getId)
+                .sorted(Comparator.naturalOrder())
+                .collect(Collectors.toList());
+    }
+}